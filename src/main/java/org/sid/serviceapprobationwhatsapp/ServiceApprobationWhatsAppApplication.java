@@ -2,8 +2,6 @@ package org.sid.serviceapprobationwhatsapp;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.context.annotation.Bean;
-import org.springframework.web.client.RestTemplate;
 
 @SpringBootApplication
 public class ServiceApprobationWhatsAppApplication {
@@ -11,9 +9,5 @@ public class ServiceApprobationWhatsAppApplication {
     public static void main(String[] args) {
         SpringApplication.run(ServiceApprobationWhatsAppApplication.class, args);
     }
-    @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
-    }
 
-}
\ No newline at end of file
+}
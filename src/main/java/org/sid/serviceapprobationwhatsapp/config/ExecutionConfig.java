@@ -0,0 +1,53 @@
+package org.sid.serviceapprobationwhatsapp.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Executor of the blocking work started by the controllers (JPA writes, template rendering, queueing),
+ * instead of the common ForkJoin pool.
+ * The virtual thread mode is opt-in: spring.threads.virtual.enabled=true on Java 21 (build with -Pjava21).
+ * Spring Boot then runs the Tomcat requests and the scheduled jobs on virtual threads, and this executor starts
+ * one virtual thread per task, up to execution.request.max-concurrency. Otherwise it is a bounded platform pool.
+ */
+
+@Configuration
+public class ExecutionConfig {
+
+    @Value("${execution.request.pool-size:16}")
+    private int poolSize;
+
+    @Value("${execution.request.queue-capacity:500}")
+    private int queueCapacity;
+
+    @Value("${execution.request.max-concurrency:1000}")
+    private int maxConcurrency;
+
+    @Bean(name = "requestExecutor")
+    public AsyncTaskExecutor requestExecutor(Environment environment) {
+        if (Threading.VIRTUAL.isActive(environment)) {
+            SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("request-");
+            executor.setVirtualThreads(true);
+            // Bounds the pressure on the JDBC pool and the providers, the submitting thread waits beyond it
+            executor.setConcurrencyLimit(maxConcurrency);
+            return executor;
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("request-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.initialize();
+        return executor;
+    }
+}
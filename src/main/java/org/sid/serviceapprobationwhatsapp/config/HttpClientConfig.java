@@ -0,0 +1,111 @@
+package org.sid.serviceapprobationwhatsapp.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.core.task.support.ExecutorServiceAdapter;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared outbound HTTP client for the blocking providers (BulkSMS, Infobip, Twilio) and the callbacks,
+ * the WhatsApp API is called through the reactive WebClient (see WhatsAppConfig).
+ * One OkHttp connection pool and dispatcher are created for the whole application, and each provider gets
+ * a derived client (newBuilder) that reuses them with its own connect/read timeouts.
+ * Connections are kept alive between calls, and HTTP/2 is negotiated (ALPN) with the providers that support it.
+ * In the virtual thread mode the asynchronous calls (callbacks) run on virtual threads instead of the OkHttp pool.
+ */
+
+@Configuration
+public class HttpClientConfig {
+
+    @Value("${http.client.pool.max-idle-connections:20}")
+    private int maxIdleConnections;
+
+    @Value("${http.client.pool.keep-alive-seconds:300}")
+    private long keepAliveSeconds;
+
+    @Value("${http.client.max-requests:128}")
+    private int maxRequests;
+
+    @Value("${http.client.max-requests-per-host:32}")
+    private int maxRequestsPerHost;
+
+    @Bean
+    @Primary
+    public OkHttpClient sharedHttpClient(MeterRegistry meterRegistry, Environment environment) {
+        ConnectionPool connectionPool = new ConnectionPool(maxIdleConnections, keepAliveSeconds, TimeUnit.SECONDS);
+        Dispatcher dispatcher = Threading.VIRTUAL.isActive(environment)
+                ? new Dispatcher(new ExecutorServiceAdapter(new VirtualThreadTaskExecutor("okhttp-")))
+                : new Dispatcher();
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+
+        Gauge.builder("http.client.pool.connections", connectionPool, ConnectionPool::connectionCount)
+                .description("Open connections in the shared outbound pool")
+                .register(meterRegistry);
+        Gauge.builder("http.client.pool.idle", connectionPool, ConnectionPool::idleConnectionCount)
+                .description("Idle keep-alive connections in the shared outbound pool")
+                .register(meterRegistry);
+        Gauge.builder("http.client.dispatcher.running", dispatcher, Dispatcher::runningCallsCount)
+                .register(meterRegistry);
+        Gauge.builder("http.client.dispatcher.queued", dispatcher, Dispatcher::queuedCallsCount)
+                .register(meterRegistry);
+
+        return new OkHttpClient.Builder()
+                .connectionPool(connectionPool)
+                .dispatcher(dispatcher)
+                .protocols(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .retryOnConnectionFailure(true)
+                .build();
+    }
+
+    @Bean(name = "bulkSmsHttpClient")
+    public OkHttpClient bulkSmsHttpClient(OkHttpClient sharedHttpClient,
+                                          @Value("${http.client.bulksms.connect-timeout-ms:3000}") long connectTimeout,
+                                          @Value("${http.client.bulksms.read-timeout-ms:10000}") long readTimeout) {
+        return withTimeouts(sharedHttpClient, connectTimeout, readTimeout);
+    }
+
+    @Bean(name = "infobipHttpClient")
+    public OkHttpClient infobipHttpClient(OkHttpClient sharedHttpClient,
+                                          @Value("${http.client.infobip.connect-timeout-ms:2000}") long connectTimeout,
+                                          @Value("${http.client.infobip.read-timeout-ms:8000}") long readTimeout) {
+        return withTimeouts(sharedHttpClient, connectTimeout, readTimeout);
+    }
+
+    @Bean(name = "twilioHttpClient")
+    public OkHttpClient twilioHttpClient(OkHttpClient sharedHttpClient,
+                                         @Value("${http.client.twilio.connect-timeout-ms:2000}") long connectTimeout,
+                                         @Value("${http.client.twilio.read-timeout-ms:8000}") long readTimeout) {
+        return withTimeouts(sharedHttpClient, connectTimeout, readTimeout);
+    }
+
+    @Bean(name = "callbackHttpClient")
+    public OkHttpClient callbackHttpClient(OkHttpClient sharedHttpClient,
+                                           @Value("${http.client.callback.connect-timeout-ms:2000}") long connectTimeout,
+                                           @Value("${http.client.callback.read-timeout-ms:5000}") long readTimeout) {
+        return withTimeouts(sharedHttpClient, connectTimeout, readTimeout);
+    }
+
+    // The derived client shares the connection pool and the dispatcher of the shared client
+    private OkHttpClient withTimeouts(OkHttpClient sharedHttpClient, long connectTimeoutMs, long readTimeoutMs) {
+        return sharedHttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .readTimeout(Duration.ofMillis(readTimeoutMs))
+                .writeTimeout(Duration.ofMillis(readTimeoutMs))
+                .build();
+    }
+}
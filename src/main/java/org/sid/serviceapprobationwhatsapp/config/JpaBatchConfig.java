@@ -0,0 +1,30 @@
+package org.sid.serviceapprobationwhatsapp.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * JDBC batching of the Hibernate writes.
+ * Inserts and updates are grouped per statement (ordered by entity) and sent in batches of jpa.batch-size,
+ * which covers the approval requests (UUID generated by the application) and their approvers collection.
+ * Entities with IDENTITY keys are still inserted one by one, Hibernate needs each generated key.
+ */
+
+@Configuration
+public class JpaBatchConfig {
+
+    @Value("${jpa.batch-size:50}")
+    private int batchSize;
+
+    @Bean
+    public HibernatePropertiesCustomizer jdbcBatchingCustomizer() {
+        return properties -> {
+            properties.putIfAbsent("hibernate.jdbc.batch_size", batchSize);
+            properties.putIfAbsent("hibernate.order_inserts", true);
+            properties.putIfAbsent("hibernate.order_updates", true);
+            properties.putIfAbsent("hibernate.jdbc.batch_versioned_data", true);
+        };
+    }
+}
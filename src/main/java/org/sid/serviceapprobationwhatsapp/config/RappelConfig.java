@@ -1,18 +1,14 @@
 package org.sid.serviceapprobationwhatsapp.config;
 
-import org.sid.serviceapprobationwhatsapp.entities.ApprovalRequest;
-import org.sid.serviceapprobationwhatsapp.enums.statut;
-import org.sid.serviceapprobationwhatsapp.repositories.ApprovalRequestRepository;
 import org.sid.serviceapprobationwhatsapp.service.RappelService;
+import org.sid.serviceapprobationwhatsapp.service.SchedulerLeaseService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
-import org.springframework.transaction.annotation.Transactional;
 
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.time.Duration;
 
 @Configuration
 @EnableScheduling
@@ -20,24 +16,22 @@ public class RappelConfig {
     @Autowired
     private RappelService rappelService;
     @Autowired
-    private ApprovalRequestRepository approvalRequestRepository;
+    private SchedulerLeaseService schedulerLeaseService;
 
-    @Scheduled(fixedDelay = 7200000) // 2 hours
-    @Transactional
+    @Value("${rappel.lease-seconds:600}")
+    private long leaseSeconds;
+
+    // Polls often, each request is reminded on its own cadence and only the due ones are read
+    @Scheduled(fixedDelayString = "${rappel.poll-interval-ms:300000}", initialDelayString = "${rappel.initial-delay-ms:60000}")
     public void sendRappelNotification() {
-        // Fetch all pending requests for the reminder notification
-        List<ApprovalRequest> pendingRequests = approvalRequestRepository.findByDecision(statut.Pending);
-        // Check if there are any pending requests
-        if (!pendingRequests.isEmpty()) {
-            Set<String> approverPhoneNumbers = new HashSet<>();
-            // Extract approver phone numbers from the pending requests
-            pendingRequests.forEach(request -> {
-                approverPhoneNumbers.addAll(request.getApprovers());
-            });
-            // Send reminder notification to the approvers, one reminder that regroup all the pending requests
-            approverPhoneNumbers.forEach(approverPhoneNumber -> {
-                rappelService.sendRappelMessage(approverPhoneNumber);
-            });
+        // Only the instance holding the lease sends the reminders
+        if (!schedulerLeaseService.tryAcquire("rappel", Duration.ofSeconds(leaseSeconds))) {
+            return;
+        }
+        try {
+            rappelService.sendRappelNotifications();
+        } finally {
+            schedulerLeaseService.release("rappel");
         }
     }
 }
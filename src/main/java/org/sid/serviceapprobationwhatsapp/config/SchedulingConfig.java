@@ -0,0 +1,39 @@
+package org.sid.serviceapprobationwhatsapp.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.SimpleAsyncTaskScheduler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+/**
+ * Scheduler of the @Scheduled jobs (outbound queue, webhook inbox, callbacks, retention, reminders, state purges).
+ * The default scheduler has a single thread, so one slow job delays all the others: the pool gives them their own threads.
+ * In the virtual thread mode every run starts on its own virtual thread, as with the Spring Boot default.
+ */
+
+@Configuration
+public class SchedulingConfig {
+
+    @Value("${scheduling.pool-size:6}")
+    private int poolSize;
+
+    @Bean(name = "taskScheduler")
+    public TaskScheduler taskScheduler(Environment environment) {
+        if (Threading.VIRTUAL.isActive(environment)) {
+            SimpleAsyncTaskScheduler scheduler = new SimpleAsyncTaskScheduler();
+            scheduler.setThreadNamePrefix("scheduling-");
+            scheduler.setVirtualThreads(true);
+            return scheduler;
+        }
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(poolSize);
+        scheduler.setThreadNamePrefix("scheduling-");
+        scheduler.setWaitForTasksToCompleteOnShutdown(true);
+        scheduler.initialize();
+        return scheduler;
+    }
+}
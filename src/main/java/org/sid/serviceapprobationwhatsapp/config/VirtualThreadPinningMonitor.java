@@ -0,0 +1,75 @@
+package org.sid.serviceapprobationwhatsapp.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.stream.Collectors;
+
+/**
+ * Pinning diagnostics of the virtual thread mode.
+ * A virtual thread that blocks inside a synchronized block (JDBC driver, OkHttp, Twilio SDK) keeps its carrier
+ * thread, and too many of them starve the carriers. The JFR jdk.VirtualThreadPinned events longer than
+ * virtual-threads.pinned-threshold-ms are logged with the top of their stack and counted in jvm.threads.virtual.pinned.
+ */
+
+@Component
+@ConditionalOnThreading(Threading.VIRTUAL)
+public class VirtualThreadPinningMonitor {
+
+    @Value("${virtual-threads.pinned-threshold-ms:20}")
+    private long thresholdMs;
+
+    @Value("${virtual-threads.pinned-stack-depth:8}")
+    private int stackDepth;
+
+    private final Counter pinnedCounter;
+    private RecordingStream recordingStream;
+
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreadPinningMonitor.class);
+
+    public VirtualThreadPinningMonitor(MeterRegistry meterRegistry) {
+        this.pinnedCounter = Counter.builder("jvm.threads.virtual.pinned")
+                .description("Virtual threads pinned to their carrier longer than the threshold")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        recordingStream = new RecordingStream();
+        recordingStream.enable("jdk.VirtualThreadPinned")
+                .withThreshold(Duration.ofMillis(thresholdMs))
+                .withStackTrace();
+        recordingStream.onEvent("jdk.VirtualThreadPinned", this::onPinned);
+        recordingStream.startAsync();
+        logger.info("Virtual thread pinning monitor started (threshold {} ms)", thresholdMs);
+    }
+
+    private void onPinned(RecordedEvent event) {
+        pinnedCounter.increment();
+        String stack = event.getStackTrace() == null ? "" : event.getStackTrace().getFrames().stream()
+                .limit(stackDepth)
+                .map(RecordedFrame::getMethod)
+                .map(method -> method.getType().getName() + "." + method.getName())
+                .collect(Collectors.joining(" <- "));
+        logger.warn("Virtual thread pinned for {} ms: {}", event.getDuration().toMillis(), stack);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (recordingStream != null) {
+            recordingStream.close();
+        }
+    }
+}
@@ -1,10 +1,21 @@
 package org.sid.serviceapprobationwhatsapp.config;
 
+import io.netty.channel.ChannelOption;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+
+/**
+ * The one WebClient of the WhatsApp Cloud API, shared by every send (WhatsAppSender) and the read receipts.
+ * It runs on the Reactor Netty event loops (one thread per core) with a bounded connection pool, so the number of
+ * sends in flight is limited by the pool and not by threads.
+ */
 
 @Configuration
 public class WhatsAppConfig {
@@ -15,9 +26,39 @@ public class WhatsAppConfig {
     @Value("${whatsapp.api.url}")
     private String whatsappApiUrl;
 
+    @Value("${whatsapp.webclient.max-connections:500}")
+    private int maxConnections;
+
+    @Value("${whatsapp.webclient.pending-acquire-max-count:5000}")
+    private int pendingAcquireMaxCount;
+
+    @Value("${whatsapp.webclient.max-idle-seconds:60}")
+    private long maxIdleSeconds;
+
+    @Value("${whatsapp.webclient.connect-timeout-ms:2000}")
+    private int connectTimeoutMs;
+
+    @Value("${whatsapp.webclient.response-timeout-ms:10000}")
+    private long responseTimeoutMs;
+
+    @Bean
+    public ConnectionProvider whatsappConnectionProvider() {
+        return ConnectionProvider.builder("whatsapp")
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMaxCount)
+                .maxIdleTime(Duration.ofSeconds(maxIdleSeconds))
+                .evictInBackground(Duration.ofSeconds(maxIdleSeconds))
+                .build();
+    }
+
     @Bean
-    public WebClient webClient() {
+    public WebClient webClient(ConnectionProvider whatsappConnectionProvider) {
+        HttpClient httpClient = HttpClient.create(whatsappConnectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMs)
+                .responseTimeout(Duration.ofMillis(responseTimeoutMs))
+                .compress(true);
         return WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
                 .baseUrl(whatsappApiUrl)
                 .defaultHeader("Authorization", "Bearer " + whatsappApiToken)
                 .defaultHeader("Content-Type", "application/json")
@@ -6,6 +6,11 @@ import org.sid.serviceapprobationwhatsapp.enums.statut;
 
 import java.util.Map;
 
+/**
+ * Decision posted to the callbackUrl of an approval request.
+ * It is posted once when the OTP of the approver is validated, comment still empty, and once more with the same
+ * decision when the approver answers the comment prompt.
+ */
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
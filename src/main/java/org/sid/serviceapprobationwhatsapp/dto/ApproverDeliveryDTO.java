@@ -0,0 +1,23 @@
+package org.sid.serviceapprobationwhatsapp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.sid.serviceapprobationwhatsapp.enums.outboundStatus;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class ApproverDeliveryDTO {
+
+    private String approverNumber; // Numero de l'approbateur notifié
+
+    private Long outboundMessageId; // Ligne de la file d'envoi (outbound_messages)
+
+    private outboundStatus status;
+
+    private String error;
+
+}
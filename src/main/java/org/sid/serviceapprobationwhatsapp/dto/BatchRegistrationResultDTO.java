@@ -0,0 +1,28 @@
+package org.sid.serviceapprobationwhatsapp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class BatchRegistrationResultDTO {
+
+    private int index; // Position de la demande dans le lot reçu
+
+    private String objectId;
+
+    private String approvalId; // Identifiant attribué, null si la demande est refusée
+
+    private String status; // CREATED, INVALID ou FAILED
+
+    private List<String> errors;
+
+    private List<ApproverDeliveryDTO> deliveries;
+
+}
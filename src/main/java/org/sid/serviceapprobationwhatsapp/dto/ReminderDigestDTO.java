@@ -0,0 +1,22 @@
+package org.sid.serviceapprobationwhatsapp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class ReminderDigestDTO {
+
+    private String approverNumber; // Numero de l'approbateur à relancer
+
+    private int pendingCount; // Nombre de demandes en attente de cet approbateur
+
+    private List<String> objectIds; // Identifiants des objets de ses demandes en attente
+
+}
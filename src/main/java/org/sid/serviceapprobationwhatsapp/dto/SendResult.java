@@ -0,0 +1,42 @@
+package org.sid.serviceapprobationwhatsapp.dto;
+
+/**
+ * Result of a message sent to the WhatsApp Cloud API, decoded from the Graph API response.
+ * On success only the message ID is set, on failure the Graph API error code, subcode and message are kept,
+ * so the callers can decide to retry and tag their metrics without parsing the body again.
+ */
+public record SendResult(int httpStatus, String messageId, Integer errorCode, Integer errorSubcode, String errorMessage) {
+
+    // Code d'erreur Meta quand le débit du numéro est dépassé
+    public static final int THROTTLED_ERROR_CODE = 130429;
+
+    public static SendResult sent(int httpStatus, String messageId) {
+        return new SendResult(httpStatus, messageId, null, null, null);
+    }
+
+    public static SendResult failed(int httpStatus, Integer errorCode, Integer errorSubcode, String errorMessage) {
+        return new SendResult(httpStatus, null, errorCode, errorSubcode, errorMessage);
+    }
+
+    public boolean isSuccess() {
+        return httpStatus >= 200 && httpStatus < 300 && errorCode == null;
+    }
+
+    // Meta answers with HTTP 429, or with error code 130429 (throughput reached)
+    public boolean isThrottled() {
+        return httpStatus == 429 || (errorCode != null && errorCode == THROTTLED_ERROR_CODE);
+    }
+
+    // Throttling and server errors are transient, the other errors (invalid recipient, template, ...) are not
+    public boolean isRetryable() {
+        return isThrottled() || httpStatus >= 500;
+    }
+
+    public String describeError() {
+        if (isSuccess()) {
+            return null;
+        }
+        return "HTTP " + httpStatus + (errorCode != null ? ", code " + errorCode : "")
+                + (errorSubcode != null ? "/" + errorSubcode : "") + (errorMessage != null ? ": " + errorMessage : "");
+    }
+}
@@ -0,0 +1,7 @@
+package org.sid.serviceapprobationwhatsapp.dto;
+
+/**
+ * One OTP to deliver by SMS, the phone number is in the + international format.
+ */
+public record SmsSubmission(String phoneNumber, String otp) {
+}
@@ -0,0 +1,20 @@
+package org.sid.serviceapprobationwhatsapp.dto;
+
+/**
+ * Result of one OTP SMS, mapped back from the provider answer (per recipient when the OTPs were sent in one batch).
+ * On success the provider message ID is kept when the provider returns one, on failure the error.
+ */
+public record SmsSubmissionResult(String phoneNumber, String messageId, String error) {
+
+    public static SmsSubmissionResult accepted(String phoneNumber, String messageId) {
+        return new SmsSubmissionResult(phoneNumber, messageId, null);
+    }
+
+    public static SmsSubmissionResult failed(String phoneNumber, String error) {
+        return new SmsSubmissionResult(phoneNumber, null, error);
+    }
+
+    public boolean isAccepted() {
+        return error == null;
+    }
+}
@@ -0,0 +1,114 @@
+package org.sid.serviceapprobationwhatsapp.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+
+/**
+ * Event decoded from a WhatsApp webhook payload, only with the fields the service uses.
+ * The type is written in the JSON, so an event can be stored in the webhook inbox and read back as is.
+ */
+
+@JsonTypeInfo(use = JsonTypeInfo.Id.NAME, property = "kind")
+@JsonSubTypes({
+        @JsonSubTypes.Type(value = WebhookEvent.ButtonClick.class, name = "button"),
+        @JsonSubTypes.Type(value = WebhookEvent.TextMessage.class, name = "text"),
+        @JsonSubTypes.Type(value = WebhookEvent.OtherMessage.class, name = "other"),
+        @JsonSubTypes.Type(value = WebhookEvent.StatusUpdate.class, name = "status")
+})
+public sealed interface WebhookEvent permits WebhookEvent.ButtonClick, WebhookEvent.TextMessage, WebhookEvent.OtherMessage,
+        WebhookEvent.StatusUpdate {
+
+    String phoneNumberId(); // phone_number_id du numéro WhatsApp Business qui a reçu l'événement
+
+    String messageId();
+
+    // Numero concerné par l'événement : l'expéditeur d'un message, le destinataire d'un statut
+    @JsonIgnore
+    String phoneNumber();
+
+    // Identifiant unique de l'événement dans la boîte de réception
+    @JsonIgnore
+    String eventKey();
+
+    WebhookEvent withPhoneNumberId(String phoneNumberId);
+
+    // Clic sur un bouton d'un template, contextId est l'ID du message qui portait le bouton
+    record ButtonClick(String phoneNumberId, String messageId, String from, String contextId,
+                       String text, String payload) implements WebhookEvent {
+
+        @Override
+        public String phoneNumber() {
+            return from;
+        }
+
+        @Override
+        public String eventKey() {
+            return messageId;
+        }
+
+        @Override
+        public ButtonClick withPhoneNumberId(String phoneNumberId) {
+            return new ButtonClick(phoneNumberId, messageId, from, contextId, text, payload);
+        }
+    }
+
+    // Message texte, contextId est renseigné quand le message est une réponse
+    record TextMessage(String phoneNumberId, String messageId, String from, String contextId,
+                       String body) implements WebhookEvent {
+
+        @Override
+        public String phoneNumber() {
+            return from;
+        }
+
+        @Override
+        public String eventKey() {
+            return messageId;
+        }
+
+        @Override
+        public TextMessage withPhoneNumberId(String phoneNumberId) {
+            return new TextMessage(phoneNumberId, messageId, from, contextId, body);
+        }
+    }
+
+    // Message d'un autre type (image, document, audio, ...) : il est seulement marqué comme lu
+    record OtherMessage(String phoneNumberId, String messageId, String from, String type) implements WebhookEvent {
+
+        @Override
+        public String phoneNumber() {
+            return from;
+        }
+
+        @Override
+        public String eventKey() {
+            return messageId;
+        }
+
+        @Override
+        public OtherMessage withPhoneNumberId(String phoneNumberId) {
+            return new OtherMessage(phoneNumberId, messageId, from, type);
+        }
+    }
+
+    // Statut de livraison d'un message envoyé (sent, delivered, read, failed)
+    record StatusUpdate(String phoneNumberId, String messageId, String recipientId,
+                        String status) implements WebhookEvent {
+
+        @Override
+        public String phoneNumber() {
+            return recipientId;
+        }
+
+        @Override
+        public String eventKey() {
+            return messageId + ":" + status;
+        }
+
+        @Override
+        public StatusUpdate withPhoneNumberId(String phoneNumberId) {
+            return new StatusUpdate(phoneNumberId, messageId, recipientId, status);
+        }
+    }
+}
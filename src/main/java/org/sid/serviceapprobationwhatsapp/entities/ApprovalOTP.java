@@ -9,7 +9,9 @@ import org.sid.serviceapprobationwhatsapp.enums.statut;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "approval_otp")
+@Table(name = "approval_otp",
+        // Lookup of the most recent pending OTP of a phone number, without scanning or sorting the table
+        indexes = @Index(name = "idx_approval_otp_phone_status_created", columnList = "phone_number, status, created_at"))
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -26,6 +28,7 @@ public class ApprovalOTP {
 //    @Column(name = "verification_sid", nullable = false)
 //    private String verificationSid; // From Twilio Verify
 
+    // HMAC of the code with the ID of its key ("keyId:base64"), never the code itself (see OtpHasher)
     @Column(name = "otp", nullable = false)
     private String otp;
 
@@ -36,6 +39,7 @@ public class ApprovalOTP {
     @Enumerated(EnumType.STRING)
     private otpStatus status;
 
+    // Both timestamps are in UTC, every writer and every expiry check uses the same clock
     @Column(name = "created_at", nullable = false)
     private LocalDateTime createdAt;
 
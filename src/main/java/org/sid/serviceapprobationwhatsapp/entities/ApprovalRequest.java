@@ -11,7 +11,8 @@ import java.time.LocalDateTime;
 import java.util.List;
 
 @Entity
-@Table(name = "approval_requests")
+@Table(name = "approval_requests",
+        indexes = @Index(name = "idx_approval_request_reminder", columnList = "decision, reminder_count, last_reminder_sent_at"))
 @Data
 @NoArgsConstructor @AllArgsConstructor
 @Builder
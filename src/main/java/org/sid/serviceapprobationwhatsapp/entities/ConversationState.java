@@ -0,0 +1,34 @@
+package org.sid.serviceapprobationwhatsapp.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Row of the shared conversation state store (JdbcConversationStateStore).
+ * The key is "namespace:key", e.g. "otp-approval:+212600000000".
+ * The entity only declares the table, the reads and the atomic transitions are plain SQL.
+ */
+
+@Entity
+@Table(name = "conversation_state",
+        indexes = @Index(name = "idx_conversation_state_expires", columnList = "expires_at"))
+@Data
+@NoArgsConstructor @AllArgsConstructor
+@Builder
+public class ConversationState {
+
+    @Id
+    @Column(name = "state_key", length = 191)
+    private String stateKey;
+
+    @Column(name = "state_value", nullable = false, length = 512)
+    private String stateValue;
+
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+}
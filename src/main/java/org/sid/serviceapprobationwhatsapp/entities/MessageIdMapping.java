@@ -0,0 +1,55 @@
+package org.sid.serviceapprobationwhatsapp.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.domain.Persistable;
+
+import java.time.LocalDateTime;
+
+/**
+ * Persisted link between a WhatsApp message ID and the approval it belongs to.
+ * The message ID is the primary key, so the lookup on a button click or a comment reply is an index lookup.
+ * Implements Persistable so that saving a new mapping is a plain INSERT, without the SELECT of a merge.
+ */
+
+@Entity
+@Table(name = "message_id_mappings",
+        indexes = @Index(name = "idx_message_mapping_created", columnList = "created_at"))
+@Data
+@NoArgsConstructor @AllArgsConstructor
+@Builder
+public class MessageIdMapping implements Persistable<String> {
+
+    @Id
+    @Column(name = "message_id", length = 191)
+    private String messageId;
+
+    @Column(name = "approval_id", nullable = false)
+    private String approvalId;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Transient
+    @Builder.Default
+    private boolean newMapping = true;
+
+    @Override
+    public String getId() {
+        return messageId;
+    }
+
+    @Override
+    public boolean isNew() {
+        return newMapping;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.newMapping = false;
+    }
+}
@@ -0,0 +1,70 @@
+package org.sid.serviceapprobationwhatsapp.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.sid.serviceapprobationwhatsapp.enums.outboundStatus;
+
+import java.time.LocalDateTime;
+
+/**
+ * A WhatsApp template waiting to be sent to the Graph API (outbox).
+ * Rows are written by the services that used to post inline, and claimed in batches by the outbound queue workers.
+ */
+
+@Entity
+@Table(name = "outbound_messages",
+        indexes = {
+                @Index(name = "idx_outbound_status_id", columnList = "status, id"),
+                @Index(name = "idx_outbound_status_next_attempt", columnList = "status, next_attempt_at")
+        })
+@Data
+@NoArgsConstructor @AllArgsConstructor
+@Builder
+public class OutboundMessage {
+
+    @Id @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "recipient_number", nullable = false)
+    private String recipientNumber;
+
+    @Column(name = "template_name", nullable = false)
+    private String templateName;
+
+    @Lob @Column(columnDefinition = "Text", nullable = false)
+    private String payload;
+
+    // When set, the message ID returned by WhatsApp is mapped to this approval once the message is sent
+    @Column(name = "approval_id")
+    private String approvalId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false)
+    private outboundStatus status;
+
+    @Column(name = "attempts")
+    private int attempts;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    // A pending row is not claimed before this time, pushed back with an exponential backoff after each failed attempt
+    // (null for the rows queued before the column existed, they are due at once)
+    @Column(name = "next_attempt_at")
+    private LocalDateTime nextAttemptAt;
+
+    @Column(name = "claimed_at")
+    private LocalDateTime claimedAt;
+
+    @Column(name = "sent_at")
+    private LocalDateTime sentAt;
+
+    @Column(name = "message_id")
+    private String messageId;
+
+    @Column(name = "last_error", length = 1000)
+    private String lastError;
+}
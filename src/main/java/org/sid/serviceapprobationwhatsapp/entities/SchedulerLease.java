@@ -0,0 +1,32 @@
+package org.sid.serviceapprobationwhatsapp.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Row of the scheduler leases (SchedulerLeaseServiceImpl), one per scheduled job that must run on a single instance.
+ * The entity only declares the table, the lease is taken and renewed with conditional SQL updates.
+ */
+
+@Entity
+@Table(name = "scheduler_lease")
+@Data
+@NoArgsConstructor @AllArgsConstructor
+@Builder
+public class SchedulerLease {
+
+    @Id
+    @Column(name = "lease_name", length = 100)
+    private String leaseName;
+
+    @Column(name = "owner_id", nullable = false, length = 191)
+    private String ownerId;
+
+    @Column(name = "leased_until", nullable = false)
+    private LocalDateTime leasedUntil;
+}
@@ -0,0 +1,68 @@
+package org.sid.serviceapprobationwhatsapp.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.sid.serviceapprobationwhatsapp.enums.inboxStatus;
+
+import java.time.LocalDateTime;
+
+/**
+ * One webhook event (a message or a status) received from WhatsApp, stored before the webhook is acknowledged.
+ * The event key is unique, so a delivery retried by Meta is stored only once.
+ */
+
+@Entity
+@Table(name = "webhook_inbox",
+        uniqueConstraints = @UniqueConstraint(name = "uk_webhook_inbox_event_key", columnNames = "event_key"),
+        indexes = {
+                @Index(name = "idx_webhook_inbox_status_id", columnList = "status, id"),
+                @Index(name = "idx_webhook_inbox_received_at", columnList = "received_at"),
+                @Index(name = "idx_webhook_inbox_sender_status", columnList = "sender_key, status, received_at"),
+                @Index(name = "idx_webhook_inbox_status_next_attempt", columnList = "status, next_attempt_at")
+        })
+@Data
+@NoArgsConstructor @AllArgsConstructor
+@Builder
+public class WebhookInboxEvent {
+
+    @Id @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // WhatsApp message ID for a message, message ID and status for a status update
+    @Column(name = "event_key", nullable = false, length = 191)
+    private String eventKey;
+
+    // Phone number of the sender (or of the recipient of a status), used to keep the events of one sender in order
+    @Column(name = "sender_key")
+    private String senderKey;
+
+    // Event decoded from the webhook payload, as JSON
+    @Lob @Column(columnDefinition = "Text", nullable = false)
+    private String payload;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false)
+    private inboxStatus status;
+
+    @Column(name = "attempts")
+    private int attempts;
+
+    @Column(name = "received_at", nullable = false)
+    private LocalDateTime receivedAt;
+
+    @Column(name = "claimed_at")
+    private LocalDateTime claimedAt;
+
+    // Earliest time of the next attempt after a failure (backoff), null for an event never attempted
+    @Column(name = "next_attempt_at")
+    private LocalDateTime nextAttemptAt;
+
+    @Column(name = "processed_at")
+    private LocalDateTime processedAt;
+
+    @Column(name = "last_error", length = 1000)
+    private String lastError;
+}
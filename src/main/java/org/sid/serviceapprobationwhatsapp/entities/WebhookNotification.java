@@ -2,19 +2,65 @@ package org.sid.serviceapprobationwhatsapp.entities;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.sid.serviceapprobationwhatsapp.enums.callbackStatus;
 
+import java.time.LocalDateTime;
 import java.util.Date;
 
+/**
+ * One delivery attempt of a decision callback to the callbackUrl of an approval request.
+ * All the attempts of the same delivery share its deliveryId: a failed attempt is kept as FAILED and the next one
+ * is written as a new PENDING row, the last failed attempt is kept as DEAD_LETTER.
+ */
+
 @Entity
+@Table(name = "webhook_notification",
+        indexes = {
+                @Index(name = "idx_webhook_notification_status_next", columnList = "status, next_attempt_at"),
+                @Index(name = "idx_webhook_notification_delivery", columnList = "delivery_id")
+        })
 @Data
 @NoArgsConstructor @AllArgsConstructor @Builder
 public class WebhookNotification {
     @Id @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "approvalRequest_id")
+    @ToString.Exclude
     private ApprovalRequest approvalRequest;
 
+    @Column(name = "delivery_id", nullable = false, length = 36)
+    private String deliveryId;
+
+    @Column(name = "callback_url", nullable = false, length = 2048)
+    private String callbackUrl;
+
+    @Column(name = "destination_host", nullable = false)
+    private String destinationHost;
+
+    @Lob @Column(columnDefinition = "Text")
+    private String payload;
+
+    @Enumerated(EnumType.STRING)
+    private callbackStatus status;
+
+    private int attempt;
+
+    // Posted in a JSON array with the other decisions for the same callback URL
+    private boolean coalesced;
+
+    private Integer httpStatus;
+
+    @Column(name = "last_error", length = 1000)
+    private String lastError;
+
+    @Column(name = "next_attempt_at")
+    private LocalDateTime nextAttemptAt;
+
+    private LocalDateTime claimedAt;
+
+    private LocalDateTime completedAt;
+
     private Date createdAt;
 }
@@ -0,0 +1,9 @@
+package org.sid.serviceapprobationwhatsapp.enums;
+
+public enum callbackStatus {
+    PENDING,
+    SENDING,
+    DELIVERED,
+    FAILED,
+    DEAD_LETTER
+}
@@ -0,0 +1,8 @@
+package org.sid.serviceapprobationwhatsapp.enums;
+
+public enum inboxStatus {
+    RECEIVED,
+    PROCESSING,
+    PROCESSED,
+    FAILED
+}
@@ -0,0 +1,22 @@
+package org.sid.serviceapprobationwhatsapp.exception;
+
+import java.time.Duration;
+
+/**
+ * Thrown when the WhatsApp Cloud API keeps answering with HTTP 429 or error code 130429
+ * after the rate limiter backed off, so the caller can queue the message again instead of failing it.
+ * retryAfter is the pause the rate limiter still applies to the phone number ID.
+ */
+public class GraphApiThrottledException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public GraphApiThrottledException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -3,10 +3,14 @@ package org.sid.serviceapprobationwhatsapp.repositories;
 import org.sid.serviceapprobationwhatsapp.entities.ApprovalRequest;
 import org.sid.serviceapprobationwhatsapp.enums.statut;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -27,6 +31,38 @@ public interface ApprovalRequestRepository extends JpaRepository<ApprovalRequest
 
     List<ApprovalRequest> findByDecision(statut decision);
 
+    // Requests at the given reminder level whose last reminder (or creation for the first one) is older than dueBefore,
+    // read by pages of IDs after afterId
+    @Query("SELECT ar.id FROM ApprovalRequest ar WHERE ar.decision = :decision AND ar.reminderCount = :reminderCount " +
+            "AND ((ar.lastReminderSentAt IS NULL AND ar.requestTimeStamp <= :dueBefore) OR ar.lastReminderSentAt <= :dueBefore) " +
+            "AND ar.id > :afterId ORDER BY ar.id")
+    List<String> findDueForReminder(@Param("decision") statut decision,
+                                    @Param("reminderCount") int reminderCount,
+                                    @Param("dueBefore") LocalDateTime dueBefore,
+                                    @Param("afterId") String afterId,
+                                    Pageable pageable);
+
+    // Approvers of the given requests, ordered by approver so that the reminder digests are built in one pass
+    @Query("SELECT DISTINCT ap AS approver, ar.id AS approvalId, ar.objectId AS objectId " +
+            "FROM ApprovalRequest ar JOIN ar.approvers ap " +
+            "WHERE ar.id IN :ids ORDER BY ap, ar.objectId")
+    List<ApproverItemRow> findApproverItems(@Param("ids") Collection<String> ids);
+
+    // Moves the requests to the next reminder level, a request already moved by another shard is left as is
+    @Modifying
+    @Query("UPDATE ApprovalRequest ar SET ar.lastReminderSentAt = :sentAt, ar.reminderCount = :reminderCount + 1 " +
+            "WHERE ar.id IN :ids AND ar.reminderCount = :reminderCount AND ar.decision = :decision")
+    int markReminded(@Param("ids") Collection<String> ids,
+                     @Param("reminderCount") int reminderCount,
+                     @Param("decision") statut decision,
+                     @Param("sentAt") LocalDateTime sentAt);
+
+    interface ApproverItemRow {
+        String getApprover();
+        String getApprovalId();
+        String getObjectId();
+    }
+
     // (Optionnel) Si vous souhaitez avoir une requête personnalisée pour le regroupement
 //    @Query("SELECT a FROM ApprovalRequest a WHERE a.decision = :statut ORDER BY a.approvers ASC")
 //    List<ApprovalRequest> findPendingRequests(@Param("decision") statut statut);
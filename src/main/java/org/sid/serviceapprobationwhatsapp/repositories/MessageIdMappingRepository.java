@@ -0,0 +1,10 @@
+package org.sid.serviceapprobationwhatsapp.repositories;
+
+import org.sid.serviceapprobationwhatsapp.entities.MessageIdMapping;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface MessageIdMappingRepository extends JpaRepository<MessageIdMapping, String> {
+
+}
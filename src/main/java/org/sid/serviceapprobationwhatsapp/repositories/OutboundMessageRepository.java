@@ -0,0 +1,35 @@
+package org.sid.serviceapprobationwhatsapp.repositories;
+
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.sid.serviceapprobationwhatsapp.entities.OutboundMessage;
+import org.sid.serviceapprobationwhatsapp.enums.outboundStatus;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.*;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface OutboundMessageRepository extends JpaRepository<OutboundMessage, Long> {
+
+    // Oldest messages with the given status that are due, locked with SKIP LOCKED so that several workers (or instances) never claim the same row
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("SELECT m FROM OutboundMessage m WHERE m.status = :status " +
+            "AND (m.nextAttemptAt IS NULL OR m.nextAttemptAt <= :dueBefore) ORDER BY m.id ASC")
+    List<OutboundMessage> findBatchForUpdate(@Param("status") outboundStatus status,
+                                             @Param("dueBefore") LocalDateTime dueBefore,
+                                             Pageable pageable);
+
+    // Put back in the queue the messages claimed by a worker that died before recording the result
+    @Modifying
+    @Query("UPDATE OutboundMessage m SET m.status = :pending WHERE m.status = :sending AND m.claimedAt < :claimedBefore")
+    int releaseStaleClaims(@Param("sending") outboundStatus sending,
+                           @Param("pending") outboundStatus pending,
+                           @Param("claimedBefore") LocalDateTime claimedBefore);
+
+    long countByStatus(outboundStatus status);
+}
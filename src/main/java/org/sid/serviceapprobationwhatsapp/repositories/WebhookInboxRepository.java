@@ -0,0 +1,71 @@
+package org.sid.serviceapprobationwhatsapp.repositories;
+
+import org.sid.serviceapprobationwhatsapp.entities.WebhookInboxEvent;
+import org.sid.serviceapprobationwhatsapp.enums.inboxStatus;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface WebhookInboxRepository extends JpaRepository<WebhookInboxEvent, Long> {
+
+    boolean existsByEventKey(String eventKey);
+
+    // Event keys of a batch that are already in the inbox, checked with one query
+    @Query("SELECT e.eventKey FROM WebhookInboxEvent e WHERE e.eventKey IN :eventKeys")
+    List<String> findExistingEventKeys(@Param("eventKeys") Collection<String> eventKeys);
+
+    // Events waiting to be processed whose backoff is over, in the order they were received.
+    // An event behind an earlier event of its sender that is still backing off is left out, it could not be claimed anyway
+    @Query("SELECT e FROM WebhookInboxEvent e WHERE e.status = :status " +
+            "AND (e.nextAttemptAt IS NULL OR e.nextAttemptAt <= :dueBefore) " +
+            "AND NOT EXISTS (SELECT b.id FROM WebhookInboxEvent b WHERE b.senderKey = e.senderKey AND b.status = :status " +
+            "AND b.nextAttemptAt > :dueBefore " +
+            "AND (b.receivedAt < e.receivedAt OR (b.receivedAt = e.receivedAt AND b.id < e.id))) " +
+            "ORDER BY e.receivedAt, e.id")
+    List<WebhookInboxEvent> findDueByStatus(@Param("status") inboxStatus status,
+                                            @Param("dueBefore") LocalDateTime dueBefore,
+                                            Pageable pageable);
+
+    // True when an event of the same sender received before this one is still waiting or being processed
+    @Query("SELECT COUNT(e) > 0 FROM WebhookInboxEvent e WHERE e.senderKey = :senderKey AND e.status IN :statuses " +
+            "AND (e.receivedAt < :receivedAt OR (e.receivedAt = :receivedAt AND e.id < :id))")
+    boolean existsEarlierUnprocessed(@Param("senderKey") String senderKey,
+                                     @Param("receivedAt") LocalDateTime receivedAt,
+                                     @Param("id") Long id,
+                                     @Param("statuses") Collection<inboxStatus> statuses);
+
+    // Claims one event for processing, returns 0 if another worker already claimed or processed it
+    @Modifying
+    @Query("UPDATE WebhookInboxEvent e SET e.status = :processing, e.claimedAt = :now, e.attempts = e.attempts + 1 " +
+            "WHERE e.id = :id AND e.status = :received")
+    int claim(@Param("id") Long id,
+              @Param("received") inboxStatus received,
+              @Param("processing") inboxStatus processing,
+              @Param("now") LocalDateTime now);
+
+    // Put back in the inbox the events claimed by a worker that died before recording the result
+    @Modifying
+    @Query("UPDATE WebhookInboxEvent e SET e.status = :received WHERE e.status = :processing AND e.claimedAt < :claimedBefore")
+    int releaseStaleClaims(@Param("processing") inboxStatus processing,
+                           @Param("received") inboxStatus received,
+                           @Param("claimedBefore") LocalDateTime claimedBefore);
+
+    // Marks every event received in the window to be processed again
+    @Modifying
+    @Query("UPDATE WebhookInboxEvent e SET e.status = :received, e.attempts = 0, e.nextAttemptAt = NULL " +
+            "WHERE e.receivedAt >= :from AND e.receivedAt < :to AND e.status <> :processing")
+    int requeueWindow(@Param("from") LocalDateTime from,
+                      @Param("to") LocalDateTime to,
+                      @Param("received") inboxStatus received,
+                      @Param("processing") inboxStatus processing);
+
+    long countByStatus(inboxStatus status);
+}
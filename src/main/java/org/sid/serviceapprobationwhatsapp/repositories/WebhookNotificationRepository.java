@@ -1,10 +1,46 @@
 package org.sid.serviceapprobationwhatsapp.repositories;
 
 import org.sid.serviceapprobationwhatsapp.entities.WebhookNotification;
+import org.sid.serviceapprobationwhatsapp.enums.callbackStatus;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
 @Repository
 public interface WebhookNotificationRepository extends JpaRepository<WebhookNotification, Long> {
 
+    // Attempts whose retry time has come, oldest first
+    @Query("SELECT n FROM WebhookNotification n WHERE n.status = :status AND n.nextAttemptAt <= :now ORDER BY n.nextAttemptAt ASC, n.id ASC")
+    List<WebhookNotification> findDue(@Param("status") callbackStatus status, @Param("now") LocalDateTime now, Pageable pageable);
+
+    // Conditional claim of one attempt, only one worker (or instance) gets 1
+    @Modifying
+    @Query("UPDATE WebhookNotification n SET n.status = :sending, n.claimedAt = :claimedAt WHERE n.id = :id AND n.status = :pending")
+    int claim(@Param("id") Long id,
+              @Param("pending") callbackStatus pending,
+              @Param("sending") callbackStatus sending,
+              @Param("claimedAt") LocalDateTime claimedAt);
+
+    // Put back the attempts claimed by a worker that died before recording the result
+    @Modifying
+    @Query("UPDATE WebhookNotification n SET n.status = :pending WHERE n.status = :sending AND n.claimedAt < :claimedBefore")
+    int releaseStaleClaims(@Param("sending") callbackStatus sending,
+                           @Param("pending") callbackStatus pending,
+                           @Param("claimedBefore") LocalDateTime claimedBefore);
+
+    // Makes the given attempts due now
+    @Modifying
+    @Query("UPDATE WebhookNotification n SET n.nextAttemptAt = :now WHERE n.id IN :ids AND n.status = :pending")
+    int reschedule(@Param("ids") Collection<Long> ids,
+                   @Param("pending") callbackStatus pending,
+                   @Param("now") LocalDateTime now);
+
+    long countByStatus(callbackStatus status);
 }
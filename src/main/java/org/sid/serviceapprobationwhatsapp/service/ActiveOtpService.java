@@ -0,0 +1,14 @@
+package org.sid.serviceapprobationwhatsapp.service;
+
+import org.sid.serviceapprobationwhatsapp.entities.ApprovalOTP;
+
+import java.util.Optional;
+
+public interface ActiveOtpService {
+
+    Optional<ApprovalOTP> findActive(String phoneNumber);
+    ApprovalOTP saveActive(ApprovalOTP approvalOTP);
+    ApprovalOTP update(ApprovalOTP approvalOTP);
+    void delete(ApprovalOTP approvalOTP);
+    void evict(String phoneNumber);
+}
@@ -0,0 +1,16 @@
+package org.sid.serviceapprobationwhatsapp.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.sid.serviceapprobationwhatsapp.dto.ApprovalRequestDTO;
+import org.sid.serviceapprobationwhatsapp.dto.BatchRegistrationResultDTO;
+import org.sid.serviceapprobationwhatsapp.entities.ApprovalRequest;
+
+import java.util.Iterator;
+import java.util.List;
+
+public interface ApprovalRegistrationService {
+
+    ApprovalRequest toApprovalRequest(ApprovalRequestDTO approvalRequestDTO) throws JsonProcessingException;
+    List<BatchRegistrationResultDTO> registerAll(Iterator<JsonNode> items);
+}
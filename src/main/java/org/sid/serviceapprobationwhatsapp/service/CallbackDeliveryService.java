@@ -0,0 +1,8 @@
+package org.sid.serviceapprobationwhatsapp.service;
+
+public interface CallbackDeliveryService {
+
+    void notifyDecision(String approvalId, String approverNumber);
+    void drainDue();
+    int getInFlight();
+}
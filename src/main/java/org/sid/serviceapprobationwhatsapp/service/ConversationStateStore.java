@@ -0,0 +1,20 @@
+package org.sid.serviceapprobationwhatsapp.service;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Conversation state of the webhook pipeline (OTP awaited, pending decision, comment awaited), keyed by namespace and key.
+ * Every entry has a TTL, an expired entry behaves as absent.
+ * The implementation is chosen with conversation.store.type: memory (single instance) or jdbc (shared between instances).
+ */
+public interface ConversationStateStore {
+
+    Optional<String> get(String namespace, String key);
+    void put(String namespace, String key, String value, Duration ttl);
+    boolean putIfAbsent(String namespace, String key, String value, Duration ttl);
+    boolean compareAndSet(String namespace, String key, String expectedValue, String newValue, Duration ttl);
+    boolean remove(String namespace, String key);
+    // Removes the entry only if it still holds the expected value, used to claim a transition once
+    boolean remove(String namespace, String key, String expectedValue);
+}
@@ -0,0 +1,9 @@
+package org.sid.serviceapprobationwhatsapp.service;
+
+import org.sid.serviceapprobationwhatsapp.dto.SendResult;
+
+public interface GraphApiClient {
+
+    SendResult sendMessage(String payload);
+    void markMessageAsRead(String phoneNumberId, String messageId);
+}
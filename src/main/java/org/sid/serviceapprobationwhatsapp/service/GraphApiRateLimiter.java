@@ -0,0 +1,11 @@
+package org.sid.serviceapprobationwhatsapp.service;
+
+public interface GraphApiRateLimiter {
+
+    // Takes a token and returns 0, or returns how long to wait (nanoseconds) before trying again
+    long tryAcquire(String phoneNumberId);
+    // How long (nanoseconds) the bucket stays paused after a throttle, 0 when it is not paused
+    long pauseRemaining(String phoneNumberId);
+    void onSuccess(String phoneNumberId);
+    void onThrottled(String phoneNumberId);
+}
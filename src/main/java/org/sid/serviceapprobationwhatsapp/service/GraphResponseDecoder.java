@@ -0,0 +1,8 @@
+package org.sid.serviceapprobationwhatsapp.service;
+
+import org.sid.serviceapprobationwhatsapp.dto.SendResult;
+
+public interface GraphResponseDecoder {
+
+    SendResult decode(int httpStatus, String responseBody);
+}
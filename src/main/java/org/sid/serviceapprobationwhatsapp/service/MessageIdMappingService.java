@@ -1,8 +1,11 @@
 package org.sid.serviceapprobationwhatsapp.service;
 
+import java.util.Map;
+
 public interface MessageIdMappingService {
 
     void storeMapping(String messageId, String approvalId);
+    void storeMappings(Map<String, String> messageIdToApprovalId);
     void clearMapping();
     void logAllMappings();
     int getMapSize();
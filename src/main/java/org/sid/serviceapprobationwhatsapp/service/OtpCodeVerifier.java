@@ -0,0 +1,9 @@
+package org.sid.serviceapprobationwhatsapp.service;
+
+import org.sid.serviceapprobationwhatsapp.entities.ApprovalOTP;
+
+public interface OtpCodeVerifier {
+
+    // Checks the code typed by the user against the OTP, attempts and lockout stay with the callers
+    boolean matches(ApprovalOTP approvalOTP, String code);
+}
@@ -0,0 +1,12 @@
+package org.sid.serviceapprobationwhatsapp.service;
+
+import java.io.IOException;
+import java.util.List;
+
+public interface OtpDeliveryRouter {
+
+    // Sends the OTP with the first healthy provider of the route and returns the name of the provider used
+    String sendOtp(String phoneNumber, String otp) throws IOException;
+    // Providers in the order they would be tried for this phone number
+    List<String> route(String phoneNumber);
+}
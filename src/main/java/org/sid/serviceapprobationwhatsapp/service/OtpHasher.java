@@ -0,0 +1,9 @@
+package org.sid.serviceapprobationwhatsapp.service;
+
+public interface OtpHasher {
+
+    // Digest stored instead of the OTP, prefixed with the ID of the key used ("keyId:base64")
+    String hash(String phoneNumber, String otp);
+    // Constant-time check of a code against a stored digest, with the key it was created with
+    boolean matches(String phoneNumber, String code, String storedDigest);
+}
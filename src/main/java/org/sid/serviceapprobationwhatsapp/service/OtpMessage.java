@@ -11,6 +11,4 @@ public interface OtpMessage {
     ResponseEntity<String> sendOtpMessage(String recipientNumber);
     ResponseEntity<String> resendOtpMessage(String recipientNumber, Optional<OtpResendMapping> mapping, ApprovalRequest approvalRequest);
     ResponseEntity<String> sendTryAgain(String recipientNumber);
-    // Extracting the message id from the approval request to match the decision button to the approval itself
-    String extractContextIdFromResponse(String jsonResponse);
 }
@@ -0,0 +1,41 @@
+package org.sid.serviceapprobationwhatsapp.service;
+
+import org.sid.serviceapprobationwhatsapp.dto.SmsSubmission;
+import org.sid.serviceapprobationwhatsapp.dto.SmsSubmissionResult;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One SMS provider able to deliver an OTP code (BulkSMS, Infobip, Twilio).
+ * The providers are chosen and failed over by the OtpDeliveryRouter.
+ */
+public interface OtpSmsProvider {
+
+    // Name used in the routing rules and in the metrics (bulksms, infobip, twilio)
+    String getName();
+
+    // Sends the OTP to the phone number (+ international format), the call is abandoned once the deadline is reached
+    void sendOtp(String phoneNumber, String otp, Duration deadline) throws IOException;
+
+    // True when the provider accepts distinct texts for several recipients in one call (see SmsBatchDispatcher)
+    default boolean supportsBatch() {
+        return false;
+    }
+
+    // Sends several OTPs, in one call when the provider supports it, the results are in the order of the submissions
+    default List<SmsSubmissionResult> sendOtps(List<SmsSubmission> submissions, Duration deadline) throws IOException {
+        List<SmsSubmissionResult> results = new ArrayList<>(submissions.size());
+        for (SmsSubmission submission : submissions) {
+            try {
+                sendOtp(submission.phoneNumber(), submission.otp(), deadline);
+                results.add(SmsSubmissionResult.accepted(submission.phoneNumber(), null));
+            } catch (IOException e) {
+                results.add(SmsSubmissionResult.failed(submission.phoneNumber(), e.getMessage()));
+            }
+        }
+        return results;
+    }
+}
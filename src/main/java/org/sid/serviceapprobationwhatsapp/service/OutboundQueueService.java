@@ -0,0 +1,13 @@
+package org.sid.serviceapprobationwhatsapp.service;
+
+import org.sid.serviceapprobationwhatsapp.entities.OutboundMessage;
+
+import java.util.List;
+
+public interface OutboundQueueService {
+
+    OutboundMessage enqueue(String recipientNumber, String templateName, String payload, String approvalId);
+    List<OutboundMessage> enqueueAll(List<OutboundMessage> messages);
+    void drainQueue();
+    long getQueueDepth();
+}
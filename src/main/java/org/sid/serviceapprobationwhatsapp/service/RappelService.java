@@ -1,13 +1,10 @@
 package org.sid.serviceapprobationwhatsapp.service;
 
-import org.sid.serviceapprobationwhatsapp.entities.ApprovalRequest;
+import org.sid.serviceapprobationwhatsapp.dto.ReminderDigestDTO;
 import org.springframework.http.ResponseEntity;
 
-import java.util.List;
-
 public interface RappelService {
 
-    ResponseEntity<String> sendRappelMessage(String recipientNumber);
-    List<ApprovalRequest> getPendingRequests();
-    int countPendingRequests();
+    ResponseEntity<String> sendRappelMessage(ReminderDigestDTO digest);
+    int sendRappelNotifications();
 }
@@ -0,0 +1,8 @@
+package org.sid.serviceapprobationwhatsapp.service;
+
+import java.util.Map;
+
+public interface RetentionSweeper {
+
+    Map<String, Integer> sweep();
+}
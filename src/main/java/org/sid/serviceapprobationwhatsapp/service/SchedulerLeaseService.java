@@ -0,0 +1,10 @@
+package org.sid.serviceapprobationwhatsapp.service;
+
+import java.time.Duration;
+
+public interface SchedulerLeaseService {
+
+    boolean tryAcquire(String leaseName, Duration duration);
+    void release(String leaseName);
+    String getOwnerId();
+}
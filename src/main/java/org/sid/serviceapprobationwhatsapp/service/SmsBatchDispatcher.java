@@ -0,0 +1,13 @@
+package org.sid.serviceapprobationwhatsapp.service;
+
+import org.sid.serviceapprobationwhatsapp.dto.SmsSubmission;
+import org.sid.serviceapprobationwhatsapp.dto.SmsSubmissionResult;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+public interface SmsBatchDispatcher {
+
+    // Adds the OTP to the open batch of the provider, completed with the result of this recipient once the batch is sent
+    CompletableFuture<SmsSubmissionResult> submit(OtpSmsProvider provider, SmsSubmission submission, Duration deadline);
+}
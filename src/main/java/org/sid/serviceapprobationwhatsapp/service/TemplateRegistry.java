@@ -0,0 +1,9 @@
+package org.sid.serviceapprobationwhatsapp.service;
+
+import java.util.Set;
+
+public interface TemplateRegistry {
+
+    String render(String templateName, String recipientNumber, String... parameters);
+    Set<String> getTemplateNames();
+}
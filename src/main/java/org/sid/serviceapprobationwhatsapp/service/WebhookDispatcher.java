@@ -0,0 +1,7 @@
+package org.sid.serviceapprobationwhatsapp.service;
+
+public interface WebhookDispatcher {
+
+    boolean dispatch(String senderKey, Runnable task);
+    int getBacklog();
+}
@@ -0,0 +1,16 @@
+package org.sid.serviceapprobationwhatsapp.service;
+
+import org.sid.serviceapprobationwhatsapp.dto.WebhookEvent;
+import org.sid.serviceapprobationwhatsapp.entities.WebhookInboxEvent;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface WebhookInboxService {
+
+    List<WebhookInboxEvent> append(List<WebhookEvent> events);
+    void dispatch(List<WebhookInboxEvent> events);
+    void process(Long eventId);
+    void drainInbox();
+    int replay(LocalDateTime from, LocalDateTime to);
+}
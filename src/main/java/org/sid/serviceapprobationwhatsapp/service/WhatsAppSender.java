@@ -0,0 +1,11 @@
+package org.sid.serviceapprobationwhatsapp.service;
+
+import org.sid.serviceapprobationwhatsapp.dto.SendResult;
+import reactor.core.publisher.Mono;
+
+public interface WhatsAppSender {
+
+    Mono<SendResult> send(String payload);
+    Mono<SendResult> markAsRead(String phoneNumberId, String messageId);
+    String getSenderPhoneNumberId();
+}
@@ -1,12 +1,16 @@
 package org.sid.serviceapprobationwhatsapp.service;
 
+import org.sid.serviceapprobationwhatsapp.dto.ApproverDeliveryDTO;
 import org.sid.serviceapprobationwhatsapp.entities.ApprovalRequest;
 import org.springframework.http.ResponseEntity;
 
+import java.util.List;
+import java.util.Map;
+
 public interface WhatsAppService {
-    ResponseEntity<String> sendMessageWithInteractiveButtons(ApprovalRequest approvalRequest);
+    ResponseEntity<List<ApproverDeliveryDTO>> sendMessageWithInteractiveButtons(ApprovalRequest approvalRequest);
 
-    String extractContextIdFromResponse(String jsonResponse);
+    Map<String, List<ApproverDeliveryDTO>> sendMessagesWithInteractiveButtons(List<ApprovalRequest> approvalRequests);
 
     ResponseEntity<String> sendCommentaire(String approvalId,
                                            String recipientNumber
@@ -0,0 +1,106 @@
+package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.sid.serviceapprobationwhatsapp.entities.ApprovalOTP;
+import org.sid.serviceapprobationwhatsapp.enums.otpStatus;
+import org.sid.serviceapprobationwhatsapp.repositories.ApprovalOtpRepository;
+import org.sid.serviceapprobationwhatsapp.service.ActiveOtpService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Lookup of the active (PENDING) OTP of a phone number, the hottest query of the OTP flow.
+ * A write-through cache keeps the ID of the active OTP per phone number, so a lookup is a primary key read
+ * instead of the (phone_number, status, created_at) index query. The cached row is always re-read and checked,
+ * and creating an OTP expires the older pending ones of the phone number in the same transaction,
+ * so an entry left in the cache of another instance resolves to a non-PENDING row and falls back to the query.
+ */
+
+@Service
+public class ActiveOtpServiceImpl implements ActiveOtpService {
+
+    private final ApprovalOtpRepository approvalOtpRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Cache<String, Long> activeOtpIds;
+
+    private static final Logger logger = LoggerFactory.getLogger(ActiveOtpServiceImpl.class);
+
+    public ActiveOtpServiceImpl(ApprovalOtpRepository approvalOtpRepository,
+                                PlatformTransactionManager transactionManager,
+                                MeterRegistry meterRegistry,
+                                @Value("${otp.active-cache.max-size:10000}") long maxSize,
+                                @Value("${otp.active-cache.ttl-minutes:10}") long ttlMinutes) {
+        this.approvalOtpRepository = approvalOtpRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.activeOtpIds = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofMinutes(ttlMinutes))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, activeOtpIds, "active_otp");
+    }
+
+    // Method to find the most recent pending OTP of a phone number
+    @Override
+    public Optional<ApprovalOTP> findActive(String phoneNumber) {
+        Long cachedId = activeOtpIds.getIfPresent(phoneNumber);
+        if (cachedId != null) {
+            Optional<ApprovalOTP> cached = approvalOtpRepository.findById(cachedId)
+                    .filter(otp -> otp.getStatus() == otpStatus.PENDING && phoneNumber.equals(otp.getRecipientNumber()));
+            if (cached.isPresent()) {
+                return cached;
+            }
+            activeOtpIds.invalidate(phoneNumber);
+        }
+
+        Optional<ApprovalOTP> active = approvalOtpRepository
+                .findTopByRecipientNumberAndStatusOrderByCreatedAtDesc(phoneNumber, otpStatus.PENDING);
+        active.ifPresent(otp -> activeOtpIds.put(phoneNumber, otp.getOtpId()));
+        return active;
+    }
+
+    // Method to save a new OTP as the active one, the previous pending OTPs of the phone number are expired
+    @Override
+    public ApprovalOTP saveActive(ApprovalOTP approvalOTP) {
+        ApprovalOTP saved = transactionTemplate.execute(status -> {
+            approvalOtpRepository.updateStatusByPhoneNumber(approvalOTP.getRecipientNumber(), otpStatus.PENDING, otpStatus.EXPIRED);
+            return approvalOtpRepository.save(approvalOTP);
+        });
+        if (saved != null && saved.getStatus() == otpStatus.PENDING) {
+            activeOtpIds.put(saved.getRecipientNumber(), saved.getOtpId());
+            logger.debug("Active OTP {} cached for {}", saved.getOtpId(), saved.getRecipientNumber());
+        }
+        return saved;
+    }
+
+    // Method to save a change of an OTP, it leaves the cache when it is no longer pending
+    @Override
+    public ApprovalOTP update(ApprovalOTP approvalOTP) {
+        ApprovalOTP saved = approvalOtpRepository.save(approvalOTP);
+        if (saved.getStatus() != otpStatus.PENDING) {
+            activeOtpIds.invalidate(saved.getRecipientNumber());
+        }
+        return saved;
+    }
+
+    @Override
+    public void delete(ApprovalOTP approvalOTP) {
+        approvalOtpRepository.delete(approvalOTP);
+        activeOtpIds.invalidate(approvalOTP.getRecipientNumber());
+    }
+
+    @Override
+    public void evict(String phoneNumber) {
+        activeOtpIds.invalidate(phoneNumber);
+    }
+}
@@ -0,0 +1,190 @@
+package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.sid.serviceapprobationwhatsapp.dto.ApprovalRequestDTO;
+import org.sid.serviceapprobationwhatsapp.dto.ApproverDeliveryDTO;
+import org.sid.serviceapprobationwhatsapp.dto.BatchRegistrationResultDTO;
+import org.sid.serviceapprobationwhatsapp.entities.ApprovalRequest;
+import org.sid.serviceapprobationwhatsapp.enums.statut;
+import org.sid.serviceapprobationwhatsapp.repositories.ApprovalRequestRepository;
+import org.sid.serviceapprobationwhatsapp.service.ApprovalRegistrationService;
+import org.sid.serviceapprobationwhatsapp.service.WhatsAppService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Registration of approval requests, one by one or in bulk.
+ * A bulk registration pulls the items one by one from the parser and persists the valid ones in chunks, so a large
+ * body is never held in memory: each chunk is one
+ * transaction whose inserts are sent with JDBC batching (see JpaBatchConfig), and its messages are queued in one
+ * write through the fan-out of WhatsAppService. A chunk that fails to persist only fails its own items.
+ */
+
+@Service
+public class ApprovalRegistrationServiceImpl implements ApprovalRegistrationService {
+
+    @Value("${approvals.batch.chunk-size:100}")
+    private int chunkSize;
+
+    private final ApprovalRequestRepository approvalRequestRepository;
+    private final WhatsAppService whatsAppService;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final TransactionTemplate transactionTemplate;
+
+    private static final Logger logger = LoggerFactory.getLogger(ApprovalRegistrationServiceImpl.class);
+
+    public ApprovalRegistrationServiceImpl(ApprovalRequestRepository approvalRequestRepository,
+                                           WhatsAppService whatsAppService,
+                                           ObjectMapper objectMapper,
+                                           Validator validator,
+                                           PlatformTransactionManager transactionManager) {
+        this.approvalRequestRepository = approvalRequestRepository;
+        this.whatsAppService = whatsAppService;
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    // Method to build the Pending approval request of a registration
+    @Override
+    public ApprovalRequest toApprovalRequest(ApprovalRequestDTO approvalRequestDTO) throws JsonProcessingException {
+        // Serialization des données et des métadonnées en JSON
+        String dataJson = objectMapper.writeValueAsString(approvalRequestDTO.getApprovalData());
+        String metadataJson = objectMapper.writeValueAsString(approvalRequestDTO.getMetadata());
+
+        return ApprovalRequest.builder()
+                .objectType(approvalRequestDTO.getObjectType())
+                .objectId(approvalRequestDTO.getObjectId())
+                .objectLabel(approvalRequestDTO.getObjectLabel())
+                .data(dataJson)
+                .origin(approvalRequestDTO.getOrigin())
+                .approvers(approvalRequestDTO.getApprovers())
+                .demandeur(approvalRequestDTO.getDemandeur())
+                .commentaire("")
+                .callbackUrl(approvalRequestDTO.getCallbackUrl())
+                .metadata(metadataJson)
+                .decision(statut.Pending)
+                .requestTimeStamp(LocalDateTime.now())
+                .build();
+    }
+
+    // Method to register a stream of approval requests, returns the outcome of each item in the order received
+    // Each item is read on its own, so that an unreadable item is reported without rejecting the others,
+    // and a chunk is persisted as soon as it is full, before the next items are read
+    @Override
+    public List<BatchRegistrationResultDTO> registerAll(Iterator<JsonNode> items) {
+        List<BatchRegistrationResultDTO> results = new ArrayList<>();
+        List<BatchRegistrationResultDTO> chunkResults = new ArrayList<>(chunkSize);
+        List<ApprovalRequest> chunk = new ArrayList<>(chunkSize);
+
+        for (int index = 0; items.hasNext(); index++) {
+            JsonNode item = items.next();
+            BatchRegistrationResultDTO result = BatchRegistrationResultDTO.builder()
+                    .index(index)
+                    .objectId(item != null && item.hasNonNull("objectId") ? item.get("objectId").asText() : null)
+                    .build();
+            results.add(result);
+
+            ApprovalRequestDTO dto = null;
+            List<String> errors;
+            try {
+                dto = objectMapper.treeToValue(item, ApprovalRequestDTO.class);
+                errors = validate(dto);
+            } catch (JsonProcessingException | IllegalArgumentException e) {
+                errors = List.of("Unreadable item: " + rootMessage(e));
+            }
+            if (errors.isEmpty()) {
+                try {
+                    chunk.add(toApprovalRequest(dto));
+                    chunkResults.add(result);
+                } catch (JsonProcessingException e) {
+                    errors = List.of("Invalid data format: " + e.getOriginalMessage());
+                }
+            }
+            if (!errors.isEmpty()) {
+                result.setStatus("INVALID");
+                result.setErrors(errors);
+            }
+
+            if (chunk.size() == chunkSize) {
+                persistChunk(chunk, chunkResults);
+                chunk.clear();
+                chunkResults.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            persistChunk(chunk, chunkResults);
+        }
+
+        long created = results.stream().filter(result -> "CREATED".equals(result.getStatus())).count();
+        logger.info("Bulk registration: {}/{} approval requests created", created, results.size());
+        return results;
+    }
+
+    // Saves one chunk in a single transaction, then queues the messages of all its requests
+    private void persistChunk(List<ApprovalRequest> chunk, List<BatchRegistrationResultDTO> chunkResults) {
+        List<ApprovalRequest> saved;
+        try {
+            saved = transactionTemplate.execute(status -> {
+                List<ApprovalRequest> persisted = approvalRequestRepository.saveAll(chunk);
+                approvalRequestRepository.flush();
+                return persisted;
+            });
+        } catch (Exception e) {
+            logger.error("Failed to persist a chunk of {} approval requests: {}", chunk.size(), e.getMessage(), e);
+            chunkResults.forEach(result -> {
+                result.setStatus("FAILED");
+                result.setErrors(List.of("Could not be saved: " + e.getMessage()));
+            });
+            return;
+        }
+
+        for (int i = 0; i < saved.size(); i++) {
+            chunkResults.get(i).setApprovalId(saved.get(i).getId());
+            chunkResults.get(i).setStatus("CREATED");
+        }
+        try {
+            Map<String, List<ApproverDeliveryDTO>> deliveries = whatsAppService.sendMessagesWithInteractiveButtons(saved);
+            chunkResults.forEach(result -> result.setDeliveries(deliveries.getOrDefault(result.getApprovalId(), List.of())));
+        } catch (Exception e) {
+            // The requests are saved, only their notification failed
+            logger.error("Failed to queue the messages of {} approval requests: {}", saved.size(), e.getMessage(), e);
+            chunkResults.forEach(result -> result.setErrors(List.of("Saved but not sent: " + e.getMessage())));
+        }
+    }
+
+    private String rootMessage(Exception e) {
+        Throwable cause = e;
+        while (cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause.getMessage();
+    }
+
+    private List<String> validate(ApprovalRequestDTO dto) {
+        if (dto == null) {
+            return List.of("Empty item");
+        }
+        Set<ConstraintViolation<ApprovalRequestDTO>> violations = validator.validate(dto);
+        return violations.stream()
+                .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                .sorted()
+                .toList();
+    }
+}
@@ -5,8 +5,8 @@ import org.sid.serviceapprobationwhatsapp.entities.ApprovalOTP;
 import org.sid.serviceapprobationwhatsapp.entities.ApprovalRequest;
 import org.sid.serviceapprobationwhatsapp.enums.otpStatus;
 import org.sid.serviceapprobationwhatsapp.enums.statut;
-import org.sid.serviceapprobationwhatsapp.repositories.ApprovalOtpRepository;
 import org.sid.serviceapprobationwhatsapp.repositories.ApprovalRequestRepository;
+import org.sid.serviceapprobationwhatsapp.service.ActiveOtpService;
 import org.sid.serviceapprobationwhatsapp.service.ApprovalService;
 import org.sid.serviceapprobationwhatsapp.service.TwilioService;
 import org.slf4j.Logger;
@@ -16,6 +16,7 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.Optional;
 /**
  * This service is responsible for managing the approval flow of twilio verify. It handles the following operations:
@@ -33,11 +34,11 @@ import java.util.Optional;
 public class ApprovalServiceImpl implements ApprovalService {
 
     private final ApprovalRequestRepository approvalRequestRepository;
-    private final ApprovalOtpRepository approvalOtpRepository;
+    private final ActiveOtpService activeOtpService;
 
-    public ApprovalServiceImpl(ApprovalRequestRepository approvalRequestRepository, TwilioService twilioService, ApprovalOtpRepository approvalOtpRepository) {
+    public ApprovalServiceImpl(ApprovalRequestRepository approvalRequestRepository, TwilioService twilioService, ActiveOtpService activeOtpService) {
         this.approvalRequestRepository = approvalRequestRepository;
-        this.approvalOtpRepository = approvalOtpRepository;
+        this.activeOtpService = activeOtpService;
     }
 
     private static final Logger logger = LoggerFactory.getLogger(ApprovalServiceImpl.class);
@@ -62,8 +63,7 @@ public class ApprovalServiceImpl implements ApprovalService {
             }
 
             // Check for a validated OTP
-            Optional<ApprovalOTP> existingOtp = approvalOtpRepository
-                    .findTopByRecipientNumberAndStatusOrderByCreatedAtDesc(phoneNumber, otpStatus.PENDING);
+            Optional<ApprovalOTP> existingOtp = activeOtpService.findActive(phoneNumber);
 
             if (existingOtp.isPresent()) {
                 logger.warn("Pending OTP already exists for phone {}. Not creating a new one.", phoneNumber);
@@ -76,16 +76,18 @@ public class ApprovalServiceImpl implements ApprovalService {
                 logger.info("OTP sent successfully for phone {}", phoneNumber);
 
                 // Create ApprovalOTP entity and save it the database to track the OTP status
+                // OTP timestamps are in UTC, like the OTP service, the verification and the retention sweeper
+                LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
                 ApprovalOTP otp = ApprovalOTP.builder()
                         .approvalRequest(approvalRequest)
                         .recipientNumber(phoneNumber)
                         .status(otpStatus.PENDING)
-                        .createdAt(LocalDateTime.now())
+                        .createdAt(now)
                         .invalidattempts(0)
-                        .expiration(LocalDateTime.now().plusMinutes(5)) // Expires in 5 minutes
+                        .expiration(now.plusMinutes(5)) // Expires in 5 minutes
                         .build();
 
-                approvalOtpRepository.save(otp);
+                activeOtpService.saveActive(otp);
                 logger.info("ApprovalOTP created successfully for phone {}", phoneNumber);
             } catch (Exception e) {
                 logger.error("Error sending OTP: {}", e.getMessage());
@@ -0,0 +1,464 @@
+package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import okhttp3.*;
+import org.jetbrains.annotations.NotNull;
+import org.sid.serviceapprobationwhatsapp.dto.ApprovalResponseDTO;
+import org.sid.serviceapprobationwhatsapp.entities.ApprovalRequest;
+import org.sid.serviceapprobationwhatsapp.entities.WebhookNotification;
+import org.sid.serviceapprobationwhatsapp.enums.callbackStatus;
+import org.sid.serviceapprobationwhatsapp.repositories.ApprovalRequestRepository;
+import org.sid.serviceapprobationwhatsapp.repositories.WebhookNotificationRepository;
+import org.sid.serviceapprobationwhatsapp.service.CallbackDeliveryService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Delivers the decisions to the callbackUrl of the approval requests (ApprovalResponseDTO posted as JSON).
+ * Recording a decision only writes the first attempt in webhook_notification, the POST itself is made with an
+ * asynchronous OkHttp call, so the decision handling never waits on the calling system.
+ * At most callback.max-concurrent-per-host calls are in flight per destination host, an attempt that does not get
+ * a permit stays PENDING for the next poll. A failed attempt is retried with exponential backoff and jitter in a
+ * new attempt row, up to callback.max-attempts, then the delivery is dead-lettered. Client errors other than
+ * 408 and 429 are dead-lettered at once.
+ *
+ * A request registered with the "callbackBatch" metadata opts in to coalescing: its decisions are held for the
+ * linger time and posted together with the other decisions for the same callbackUrl as one JSON array, as soon as
+ * the linger expires or the batch is full. The metadata is either true (callback.coalesce.* defaults) or an object
+ * with "lingerMs" and "maxItems", and the first decision of a batch sets them for that batch. The held attempts are
+ * already persisted, if the instance stops before the flush they are posted by the poller (grouped as well).
+ */
+
+@Service
+public class CallbackDeliveryServiceImpl implements CallbackDeliveryService {
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    private static final String BATCH_METADATA = "callbackBatch";
+
+    @Value("${callback.max-attempts:6}")
+    private int maxAttempts;
+
+    @Value("${callback.backoff.initial-ms:2000}")
+    private long initialBackoffMs;
+
+    @Value("${callback.backoff.max-ms:600000}")
+    private long maxBackoffMs;
+
+    @Value("${callback.max-concurrent-per-host:4}")
+    private int maxConcurrentPerHost;
+
+    @Value("${callback.batch-size:100}")
+    private int batchSize;
+
+    @Value("${callback.stale-after-seconds:120}")
+    private long staleAfterSeconds;
+
+    @Value("${callback.coalesce.linger-ms:500}")
+    private long defaultLingerMs;
+
+    @Value("${callback.coalesce.max-items:50}")
+    private int defaultMaxItems;
+
+    // Delay after which the poller takes over a held attempt that was never flushed
+    @Value("${callback.coalesce.recovery-delay-ms:30000}")
+    private long recoveryDelayMs;
+
+    private final OkHttpClient callbackHttpClient;
+    private final WebhookNotificationRepository webhookNotificationRepository;
+    private final ApprovalRequestRepository approvalRequestRepository;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    private final ThreadPoolTaskScheduler lingerScheduler;
+    private final DistributionSummary batchSizeSummary;
+
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    // Batch being filled per callbackUrl
+    private final Map<String, CoalescingBatch> openBatches = new HashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private static final Logger logger = LoggerFactory.getLogger(CallbackDeliveryServiceImpl.class);
+
+    public CallbackDeliveryServiceImpl(@Qualifier("callbackHttpClient") OkHttpClient callbackHttpClient,
+                                       WebhookNotificationRepository webhookNotificationRepository,
+                                       ApprovalRequestRepository approvalRequestRepository,
+                                       ObjectMapper objectMapper,
+                                       PlatformTransactionManager transactionManager,
+                                       MeterRegistry meterRegistry) {
+        this.callbackHttpClient = callbackHttpClient;
+        this.webhookNotificationRepository = webhookNotificationRepository;
+        this.approvalRequestRepository = approvalRequestRepository;
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.meterRegistry = meterRegistry;
+
+        this.lingerScheduler = new ThreadPoolTaskScheduler();
+        this.lingerScheduler.setPoolSize(1);
+        this.lingerScheduler.setThreadNamePrefix("callback-linger-");
+        this.lingerScheduler.initialize();
+
+        Gauge.builder("callback.inflight", inFlight, AtomicInteger::get)
+                .description("Callback calls waiting for the answer of the calling system")
+                .register(meterRegistry);
+        this.batchSizeSummary = DistributionSummary.builder("callback.batch.size")
+                .description("Decisions posted per callback call")
+                .register(meterRegistry);
+    }
+
+    // Method to write the first attempt of the callback of a decision and start it, or hold it in the batch of its URL
+    @Override
+    public void notifyDecision(String approvalId, String approverNumber) {
+        try {
+            NewAttempt created = transactionTemplate.execute(status -> {
+                ApprovalRequest approvalRequest = approvalRequestRepository.findById(approvalId).orElse(null);
+                if (approvalRequest == null || approvalRequest.getCallbackUrl() == null || approvalRequest.getCallbackUrl().isBlank()) {
+                    return null;
+                }
+                HttpUrl url = HttpUrl.parse(approvalRequest.getCallbackUrl());
+                if (url == null) {
+                    logger.warn("Invalid callback URL for approval {}: {}", approvalId, approvalRequest.getCallbackUrl());
+                    return null;
+                }
+                Map<String, Object> metadata = readMetadata(approvalRequest);
+                BatchSettings settings = batchSettings(metadata.get(BATCH_METADATA));
+                String payload;
+                try {
+                    payload = objectMapper.writeValueAsString(toResponse(approvalRequest, approverNumber, metadata));
+                } catch (IOException e) {
+                    throw new IllegalStateException("Could not serialize the callback payload", e);
+                }
+                LocalDateTime now = LocalDateTime.now();
+                WebhookNotification attempt = webhookNotificationRepository.save(WebhookNotification.builder()
+                        .approvalRequest(approvalRequest)
+                        .deliveryId(UUID.randomUUID().toString())
+                        .callbackUrl(url.toString())
+                        .destinationHost(url.host() + ":" + url.port())
+                        .payload(payload)
+                        .status(callbackStatus.PENDING)
+                        .attempt(1)
+                        .coalesced(settings != null)
+                        // A held attempt is left to the linger flush, the poller only recovers it
+                        .nextAttemptAt(settings != null ? now.plusNanos((settings.lingerMs() + recoveryDelayMs) * 1_000_000) : now)
+                        .createdAt(new Date())
+                        .build());
+                return new NewAttempt(attempt, settings);
+            });
+            if (created == null) {
+                return;
+            }
+            if (created.settings() != null) {
+                hold(created.attempt(), created.settings());
+            } else {
+                send(List.of(created.attempt()), false);
+            }
+        } catch (Exception e) {
+            // The decision is recorded anyway, only its notification is lost
+            logger.error("Could not queue the callback of approval {}: {}", approvalId, e.getMessage(), e);
+        }
+    }
+
+    // Poller of the due attempts: retries, the attempts that found their host busy and the held attempts never flushed
+    @Override
+    @Scheduled(fixedDelayString = "${callback.poll-interval-ms:1000}")
+    public void drainDue() {
+        try {
+            LocalDateTime claimedBefore = LocalDateTime.now().minusSeconds(staleAfterSeconds);
+            transactionTemplate.executeWithoutResult(status -> webhookNotificationRepository
+                    .releaseStaleClaims(callbackStatus.SENDING, callbackStatus.PENDING, claimedBefore));
+
+            List<WebhookNotification> due = webhookNotificationRepository
+                    .findDue(callbackStatus.PENDING, LocalDateTime.now(), PageRequest.of(0, batchSize));
+            Map<String, List<WebhookNotification>> coalesced = new LinkedHashMap<>();
+            for (WebhookNotification attempt : due) {
+                if (attempt.isCoalesced()) {
+                    coalesced.computeIfAbsent(attempt.getCallbackUrl(), url -> new ArrayList<>()).add(attempt);
+                } else {
+                    send(List.of(attempt), false);
+                }
+            }
+            coalesced.values().forEach(attempts -> {
+                for (int from = 0; from < attempts.size(); from += defaultMaxItems) {
+                    send(attempts.subList(from, Math.min(attempts.size(), from + defaultMaxItems)), true);
+                }
+            });
+        } catch (Exception e) {
+            logger.error("Error while draining the callback deliveries", e);
+        }
+    }
+
+    @Override
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        lingerScheduler.shutdown();
+    }
+
+    // --------------------------- Helper methods ---------------------------
+
+    // Adds the attempt to the open batch of its URL, the batch is flushed when full or when its linger expires
+    private void hold(WebhookNotification attempt, BatchSettings settings) {
+        CoalescingBatch full = null;
+        synchronized (openBatches) {
+            CoalescingBatch batch = openBatches.get(attempt.getCallbackUrl());
+            if (batch == null) {
+                CoalescingBatch opened = new CoalescingBatch(attempt.getCallbackUrl(), settings.maxItems());
+                openBatches.put(attempt.getCallbackUrl(), opened);
+                lingerScheduler.schedule(() -> flush(opened), Instant.now().plus(Duration.ofMillis(settings.lingerMs())));
+                batch = opened;
+            }
+            batch.attempts().add(attempt);
+            if (batch.attempts().size() >= batch.maxItems()) {
+                openBatches.remove(batch.url());
+                full = batch;
+            }
+        }
+        if (full != null) {
+            send(full.attempts(), true);
+        }
+    }
+
+    private void flush(CoalescingBatch batch) {
+        synchronized (openBatches) {
+            // Already sent because it was full
+            if (!openBatches.remove(batch.url(), batch)) {
+                return;
+            }
+        }
+        send(batch.attempts(), true);
+    }
+
+    // Takes a permit of the destination host and claims the attempts, then posts them without waiting for the answer
+    private void send(List<WebhookNotification> attempts, boolean asArray) {
+        WebhookNotification first = attempts.get(0);
+        Semaphore permits = hostPermits.computeIfAbsent(first.getDestinationHost(), host -> new Semaphore(maxConcurrentPerHost));
+        if (!permits.tryAcquire()) {
+            // Host at its limit, the attempts stay PENDING for the next poll
+            makeDue(attempts);
+            return;
+        }
+        boolean started = false;
+        List<WebhookNotification> claimed = List.of();
+        try {
+            claimed = claim(attempts);
+            if (claimed.isEmpty()) {
+                return;
+            }
+            String body = asArray
+                    ? claimed.stream().map(WebhookNotification::getPayload).collect(Collectors.joining(",", "[", "]"))
+                    : claimed.get(0).getPayload();
+            // A batch key is derived from the delivery IDs, which a retry keeps, unlike the IDs of the attempt rows
+            String idempotencyKey = claimed.size() == 1 && !asArray ? claimed.get(0).getDeliveryId()
+                    : UUID.nameUUIDFromBytes(claimed.stream().map(WebhookNotification::getDeliveryId).sorted()
+                            .collect(Collectors.joining(",")).getBytes(StandardCharsets.UTF_8)).toString();
+            Request request = new Request.Builder()
+                    .url(first.getCallbackUrl())
+                    .header("Idempotency-Key", idempotencyKey)
+                    .post(RequestBody.create(body, JSON))
+                    .build();
+            List<Long> attemptIds = claimed.stream().map(WebhookNotification::getId).toList();
+            batchSizeSummary.record(attemptIds.size());
+            inFlight.incrementAndGet();
+            started = true;
+            callbackHttpClient.newCall(request).enqueue(new Callback() {
+                @Override
+                public void onResponse(@NotNull Call call, @NotNull Response response) {
+                    try (response) {
+                        recordResult(attemptIds, response.code(), response.isSuccessful() ? null : "HTTP " + response.code());
+                    } finally {
+                        release(permits);
+                    }
+                }
+
+                @Override
+                public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                    try {
+                        recordResult(attemptIds, null, e.getMessage());
+                    } finally {
+                        release(permits);
+                    }
+                }
+            });
+        } catch (Exception e) {
+            logger.error("Could not start callback to {}: {}", first.getDestinationHost(), e.getMessage());
+            if (started) {
+                recordResult(claimed.stream().map(WebhookNotification::getId).toList(), null, e.getMessage());
+                release(permits);
+            }
+        } finally {
+            if (!started) {
+                permits.release();
+            }
+        }
+    }
+
+    // Conditional claim of every attempt, the ones already taken by another worker are left out
+    private List<WebhookNotification> claim(List<WebhookNotification> attempts) {
+        List<WebhookNotification> claimed = transactionTemplate.execute(status -> {
+            LocalDateTime now = LocalDateTime.now();
+            List<WebhookNotification> won = new ArrayList<>(attempts.size());
+            for (WebhookNotification attempt : attempts) {
+                if (webhookNotificationRepository.claim(attempt.getId(), callbackStatus.PENDING, callbackStatus.SENDING, now) == 1) {
+                    won.add(attempt);
+                }
+            }
+            return won;
+        });
+        return claimed == null ? List.of() : claimed;
+    }
+
+    // Held attempts that could not be posted are handed over to the poller at once
+    private void makeDue(List<WebhookNotification> attempts) {
+        List<Long> held = attempts.stream().filter(WebhookNotification::isCoalesced).map(WebhookNotification::getId).toList();
+        if (!held.isEmpty()) {
+            transactionTemplate.executeWithoutResult(status -> webhookNotificationRepository
+                    .reschedule(held, callbackStatus.PENDING, LocalDateTime.now()));
+        }
+    }
+
+    private void release(Semaphore permits) {
+        inFlight.decrementAndGet();
+        permits.release();
+    }
+
+    // Records the result of a call for each of its attempts, and writes the next attempt or dead-letters the delivery on failure
+    private void recordResult(List<Long> attemptIds, Integer httpStatus, String error) {
+        try {
+            List<String> results = transactionTemplate.execute(status -> {
+                List<String> recorded = new ArrayList<>(attemptIds.size());
+                for (WebhookNotification attempt : webhookNotificationRepository.findAllById(attemptIds)) {
+                    recorded.add(recordAttempt(attempt, httpStatus, error));
+                }
+                return recorded;
+            });
+            if (results != null) {
+                results.forEach(result -> Counter.builder("callback.deliveries").tag("result", result)
+                        .register(meterRegistry).increment());
+            }
+        } catch (Exception e) {
+            // The attempts stay SENDING and are released as stale, so they are sent again
+            logger.error("Could not record the result of callback attempts {}: {}", attemptIds, e.getMessage(), e);
+        }
+    }
+
+    private String recordAttempt(WebhookNotification attempt, Integer httpStatus, String error) {
+        LocalDateTime now = LocalDateTime.now();
+        attempt.setHttpStatus(httpStatus);
+        attempt.setCompletedAt(now);
+        if (error == null) {
+            attempt.setStatus(callbackStatus.DELIVERED);
+            attempt.setLastError(null);
+            return "delivered";
+        }
+        attempt.setLastError(error.length() > 1000 ? error.substring(0, 1000) : error);
+        if (!isRetryable(httpStatus) || attempt.getAttempt() >= maxAttempts) {
+            attempt.setStatus(callbackStatus.DEAD_LETTER);
+            logger.error("Callback {} to {} dead-lettered after attempt {}: {}", attempt.getDeliveryId(),
+                    attempt.getDestinationHost(), attempt.getAttempt(), error);
+            return "dead_letter";
+        }
+        attempt.setStatus(callbackStatus.FAILED);
+        webhookNotificationRepository.save(WebhookNotification.builder()
+                .approvalRequest(attempt.getApprovalRequest())
+                .deliveryId(attempt.getDeliveryId())
+                .callbackUrl(attempt.getCallbackUrl())
+                .destinationHost(attempt.getDestinationHost())
+                .payload(attempt.getPayload())
+                .status(callbackStatus.PENDING)
+                .attempt(attempt.getAttempt() + 1)
+                .coalesced(attempt.isCoalesced())
+                .nextAttemptAt(now.plusNanos(backoffMs(attempt.getAttempt()) * 1_000_000))
+                .createdAt(new Date())
+                .build());
+        logger.warn("Callback {} to {} failed (attempt {}), retrying: {}", attempt.getDeliveryId(),
+                attempt.getDestinationHost(), attempt.getAttempt(), error);
+        return "retry";
+    }
+
+    // Network errors, 5xx, 408 and 429 are transient, the other client errors will not change on retry
+    private boolean isRetryable(Integer httpStatus) {
+        return httpStatus == null || httpStatus >= 500 || httpStatus == 408 || httpStatus == 429;
+    }
+
+    // Exponential backoff with full jitter on the upper half: initial * 2^(attempt - 1), capped
+    private long backoffMs(int attempt) {
+        long backoff = Math.min(maxBackoffMs, initialBackoffMs << Math.min(attempt - 1, 20));
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    // Coalescing settings of the request, null when it did not opt in
+    private BatchSettings batchSettings(Object option) {
+        if (Boolean.TRUE.equals(option) || "true".equals(option)) {
+            return new BatchSettings(defaultLingerMs, defaultMaxItems);
+        }
+        if (option instanceof Map<?, ?> values) {
+            long lingerMs = values.get("lingerMs") instanceof Number n ? n.longValue() : defaultLingerMs;
+            int maxItems = values.get("maxItems") instanceof Number n ? n.intValue() : defaultMaxItems;
+            return new BatchSettings(Math.max(0, lingerMs), Math.max(1, maxItems));
+        }
+        return null;
+    }
+
+    private Map<String, Object> readMetadata(ApprovalRequest approvalRequest) {
+        if (approvalRequest.getMetadata() != null && !approvalRequest.getMetadata().isBlank()) {
+            try {
+                Map<String, Object> metadata = objectMapper.readValue(approvalRequest.getMetadata(), new TypeReference<>() {});
+                if (metadata != null) {
+                    return metadata;
+                }
+            } catch (IOException e) {
+                logger.warn("Unreadable metadata for approval {}, sent empty", approvalRequest.getId());
+            }
+        }
+        return Collections.emptyMap();
+    }
+
+    private ApprovalResponseDTO toResponse(ApprovalRequest approvalRequest, String approverNumber, Map<String, Object> metadata) {
+        return ApprovalResponseDTO.builder()
+                .objectType(approvalRequest.getObjectType())
+                .objectId(approvalRequest.getObjectId())
+                .approverNumber(approverNumber)
+                .approval_status(approvalRequest.getDecision())
+                .comment(approvalRequest.getCommentaire())
+                .metadata(metadata)
+                .build();
+    }
+
+    private record BatchSettings(long lingerMs, int maxItems) {}
+
+    private record NewAttempt(WebhookNotification attempt, BatchSettings settings) {}
+
+    private record CoalescingBatch(String url, int maxItems, List<WebhookNotification> attempts) {
+        CoalescingBatch(String url, int maxItems) {
+            this(url, maxItems, new ArrayList<>());
+        }
+    }
+}
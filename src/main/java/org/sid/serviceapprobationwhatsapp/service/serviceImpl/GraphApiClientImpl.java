@@ -0,0 +1,51 @@
+package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
+
+import org.sid.serviceapprobationwhatsapp.dto.SendResult;
+import org.sid.serviceapprobationwhatsapp.service.GraphApiClient;
+import org.sid.serviceapprobationwhatsapp.service.WhatsAppSender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Single entry point for the calls made to the WhatsApp Cloud API (Graph API).
+ * The services build the template payloads, this client only owns the URL and the credentials, the responses are
+ * decoded into a SendResult by the shared GraphResponseDecoder.
+ * The sends and the read receipts go through the reactive WhatsAppSender (shared WebClient, rate limiter, throttle
+ * retries), sendMessage is its blocking form for the callers that need the result on the calling thread.
+ */
+
+@Service
+public class GraphApiClientImpl implements GraphApiClient {
+
+    private final WhatsAppSender whatsAppSender;
+
+    private static final Logger logger = LoggerFactory.getLogger(GraphApiClientImpl.class);
+
+    public GraphApiClientImpl(WhatsAppSender whatsAppSender) {
+        this.whatsAppSender = whatsAppSender;
+    }
+
+    // Method to post a message payload to the WhatsApp API and wait for the result
+    // An error answered by the API is returned as a failed result, GraphApiThrottledException when still throttled
+    @Override
+    public SendResult sendMessage(String payload) {
+        return whatsAppSender.send(payload).block();
+    }
+
+    // Method to mark an incoming message as read, the call itself is asynchronous and never blocks the caller
+    @Override
+    public void markMessageAsRead(String phoneNumberId, String messageId) {
+        whatsAppSender.markAsRead(phoneNumberId, messageId)
+                .subscribe(
+                        result -> {
+                            if (result.isSuccess()) {
+                                logger.debug("Marked message {} as read", messageId);
+                            } else {
+                                logger.error("Failed to mark message {} as read: {}", messageId, result.describeError());
+                            }
+                        },
+                        error -> logger.error("Failed to mark message {} as read: {}", messageId, error.getMessage())
+                );
+    }
+}
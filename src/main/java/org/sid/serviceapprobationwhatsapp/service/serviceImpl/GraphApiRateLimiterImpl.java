@@ -0,0 +1,179 @@
+package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.sid.serviceapprobationwhatsapp.service.GraphApiRateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Token-bucket rate limiter in front of every call to the WhatsApp Cloud API, with one bucket per phone number ID
+ * since Meta enforces the throughput tiers per sender number.
+ * Callers wait for a token instead of failing (tryAcquire gives the wait, the reactive sender waits on a timer). When Meta answers with a 429 (or error code 130429) the bucket
+ * halves its rate and pauses with an exponential backoff, then the rate grows back slowly on each success (AIMD).
+ * Every bucket is tagged in the metrics with its phone number ID, so the callers only pass the IDs of the service
+ * (see WhatsAppSenderImpl), never an ID taken as is from a webhook.
+ */
+
+@Service
+public class GraphApiRateLimiterImpl implements GraphApiRateLimiter {
+
+    @Value("${whatsapp.rate-limit.messages-per-second:80}")
+    private double maxRate;
+
+    @Value("${whatsapp.rate-limit.min-per-second:1}")
+    private double minRate;
+
+    @Value("${whatsapp.rate-limit.burst:80}")
+    private double burst;
+
+    @Value("${whatsapp.rate-limit.initial-backoff-ms:1000}")
+    private long initialBackoffMs;
+
+    @Value("${whatsapp.rate-limit.max-backoff-ms:60000}")
+    private long maxBackoffMs;
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    private static final Logger logger = LoggerFactory.getLogger(GraphApiRateLimiterImpl.class);
+
+    public GraphApiRateLimiterImpl(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public long tryAcquire(String phoneNumberId) {
+        return bucket(phoneNumberId).tryAcquire();
+    }
+
+    @Override
+    public long pauseRemaining(String phoneNumberId) {
+        return bucket(phoneNumberId).pauseRemaining();
+    }
+
+    @Override
+    public void onSuccess(String phoneNumberId) {
+        bucket(phoneNumberId).increase();
+    }
+
+    @Override
+    public void onThrottled(String phoneNumberId) {
+        TokenBucket bucket = bucket(phoneNumberId);
+        bucket.throttle();
+        bucket.throttleCounter.increment();
+        logger.warn("WhatsApp API throttled phone number ID {}: rate lowered to {}/s", phoneNumberId, bucket.rate);
+    }
+
+    private TokenBucket bucket(String phoneNumberId) {
+        return buckets.computeIfAbsent(phoneNumberId, this::createBucket);
+    }
+
+    private TokenBucket createBucket(String phoneNumberId) {
+        TokenBucket bucket = new TokenBucket(Counter.builder("whatsapp.ratelimit.throttled")
+                .description("Number of 429 / 130429 answers received from the WhatsApp API")
+                .tag("phoneNumberId", phoneNumberId)
+                .register(meterRegistry));
+        Gauge.builder("whatsapp.ratelimit.tokens", bucket, TokenBucket::availableTokens)
+                .tag("phoneNumberId", phoneNumberId)
+                .register(meterRegistry);
+        Gauge.builder("whatsapp.ratelimit.rate", bucket, b -> b.rate)
+                .tag("phoneNumberId", phoneNumberId)
+                .register(meterRegistry);
+        return bucket;
+    }
+
+    // --------------------------- Token bucket ---------------------------
+
+    private class TokenBucket {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Counter throttleCounter;
+
+        private volatile double rate = maxRate;
+        private double tokens = burst;
+        private long lastRefill = System.nanoTime();
+        private long pausedUntil;
+        private long backoffMs;
+
+        TokenBucket(Counter throttleCounter) {
+            this.throttleCounter = throttleCounter;
+        }
+
+        // Takes a token and returns 0, or returns how long to wait before trying again
+        long tryAcquire() {
+            lock.lock();
+            try {
+                long now = System.nanoTime();
+                if (now < pausedUntil) {
+                    return pausedUntil - now;
+                }
+                refill(now);
+                if (tokens >= 1) {
+                    tokens -= 1;
+                    return 0;
+                }
+                return (long) ((1 - tokens) / rate * TimeUnit.SECONDS.toNanos(1));
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long pauseRemaining() {
+            lock.lock();
+            try {
+                return Math.max(0, pausedUntil - System.nanoTime());
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Additive increase after a successful call
+        void increase() {
+            lock.lock();
+            try {
+                backoffMs = 0;
+                rate = Math.min(maxRate, rate + Math.max(minRate, maxRate / 20));
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Multiplicative decrease and exponential pause after a throttled call
+        void throttle() {
+            lock.lock();
+            try {
+                rate = Math.max(minRate, rate / 2);
+                tokens = 0;
+                backoffMs = backoffMs == 0 ? initialBackoffMs : Math.min(maxBackoffMs, backoffMs * 2);
+                pausedUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMs);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        double availableTokens() {
+            lock.lock();
+            try {
+                refill(System.nanoTime());
+                return tokens;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void refill(long now) {
+            double elapsedSeconds = (now - lastRefill) / 1e9;
+            tokens = Math.min(burst, tokens + elapsedSeconds * rate);
+            lastRefill = now;
+        }
+    }
+}
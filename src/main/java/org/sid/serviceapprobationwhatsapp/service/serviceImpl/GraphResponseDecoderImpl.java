@@ -0,0 +1,95 @@
+package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.sid.serviceapprobationwhatsapp.dto.SendResult;
+import org.sid.serviceapprobationwhatsapp.service.GraphResponseDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+
+/**
+ * Decoder of the Graph API send responses, shared by every caller.
+ * The body is read with a streaming parser created from the application ObjectMapper factory (thread-safe),
+ * only messages[0].id and error.code / error.error_subcode / error.message are read, the rest is skipped.
+ */
+
+@Service
+public class GraphResponseDecoderImpl implements GraphResponseDecoder {
+
+    private final JsonFactory jsonFactory;
+
+    private static final Logger logger = LoggerFactory.getLogger(GraphResponseDecoderImpl.class);
+
+    public GraphResponseDecoderImpl(ObjectMapper objectMapper) {
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    @Override
+    public SendResult decode(int httpStatus, String responseBody) {
+        String messageId = null;
+        Integer errorCode = null;
+        Integer errorSubcode = null;
+        String errorMessage = null;
+
+        if (responseBody != null && !responseBody.isEmpty()) {
+            try (JsonParser parser = jsonFactory.createParser(responseBody)) {
+                if (parser.nextToken() == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String field = parser.currentName();
+                        JsonToken token = parser.nextToken();
+                        if ("messages".equals(field) && token == JsonToken.START_ARRAY) {
+                            messageId = readFirstMessageId(parser);
+                        } else if ("error".equals(field) && token == JsonToken.START_OBJECT) {
+                            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                                String errorField = parser.currentName();
+                                JsonToken value = parser.nextToken();
+                                switch (errorField) {
+                                    case "code" -> errorCode = value == JsonToken.VALUE_NUMBER_INT ? parser.getIntValue() : null;
+                                    case "error_subcode" -> errorSubcode = value == JsonToken.VALUE_NUMBER_INT ? parser.getIntValue() : null;
+                                    case "message" -> errorMessage = value.isScalarValue() ? parser.getValueAsString() : null;
+                                    default -> { }
+                                }
+                                parser.skipChildren();
+                            }
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn("Unreadable Graph API response (HTTP {}): {}", httpStatus, e.getMessage());
+            }
+        }
+
+        boolean successStatus = httpStatus >= 200 && httpStatus < 300;
+        if (successStatus && errorCode == null) {
+            if (messageId == null) {
+                logger.warn("No message ID in the Graph API response");
+            }
+            return SendResult.sent(httpStatus, messageId);
+        }
+        return SendResult.failed(httpStatus, errorCode, errorSubcode, errorMessage);
+    }
+
+    // Reads the id of the first element of the messages array and skips the others
+    private String readFirstMessageId(JsonParser parser) throws IOException {
+        String messageId = null;
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken token = parser.nextToken();
+                if (messageId == null && "id".equals(field) && token == JsonToken.VALUE_STRING) {
+                    messageId = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return messageId;
+    }
+}
@@ -0,0 +1,98 @@
+package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
+
+import org.sid.serviceapprobationwhatsapp.service.ConversationStateStore;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Per-JVM conversation state store, only valid when a single instance handles the webhooks.
+ * The atomic transitions rely on ConcurrentHashMap.compute, the expired entries are purged every minute.
+ */
+
+@Service
+@ConditionalOnProperty(name = "conversation.store.type", havingValue = "memory", matchIfMissing = true)
+public class InMemoryConversationStateStore implements ConversationStateStore {
+
+    private record Entry(String value, Instant expiresAt) {
+        boolean isExpired(Instant now) {
+            return !expiresAt.isAfter(now);
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    @Override
+    public Optional<String> get(String namespace, String key) {
+        Entry entry = entries.get(storeKey(namespace, key));
+        if (entry == null || entry.isExpired(Instant.now())) {
+            return Optional.empty();
+        }
+        return Optional.of(entry.value());
+    }
+
+    @Override
+    public void put(String namespace, String key, String value, Duration ttl) {
+        entries.put(storeKey(namespace, key), new Entry(value, Instant.now().plus(ttl)));
+    }
+
+    @Override
+    public boolean putIfAbsent(String namespace, String key, String value, Duration ttl) {
+        return compareAndSet(namespace, key, null, value, ttl);
+    }
+
+    @Override
+    public boolean compareAndSet(String namespace, String key, String expectedValue, String newValue, Duration ttl) {
+        AtomicBoolean updated = new AtomicBoolean(false);
+        entries.compute(storeKey(namespace, key), (k, current) -> {
+            Instant now = Instant.now();
+            String currentValue = current == null || current.isExpired(now) ? null : current.value();
+            if (!Objects.equals(currentValue, expectedValue)) {
+                return current;
+            }
+            updated.set(true);
+            return new Entry(newValue, now.plus(ttl));
+        });
+        return updated.get();
+    }
+
+    @Override
+    public boolean remove(String namespace, String key) {
+        Entry removed = entries.remove(storeKey(namespace, key));
+        return removed != null && !removed.isExpired(Instant.now());
+    }
+
+    @Override
+    public boolean remove(String namespace, String key, String expectedValue) {
+        AtomicBoolean removed = new AtomicBoolean(false);
+        entries.computeIfPresent(storeKey(namespace, key), (k, current) -> {
+            if (current.isExpired(Instant.now())) {
+                return null;
+            }
+            if (!current.value().equals(expectedValue)) {
+                return current;
+            }
+            removed.set(true);
+            return null;
+        });
+        return removed.get();
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void purgeExpired() {
+        Instant now = Instant.now();
+        entries.values().removeIf(entry -> entry.isExpired(now));
+    }
+
+    private String storeKey(String namespace, String key) {
+        return namespace + ":" + key;
+    }
+}
@@ -1,53 +1,133 @@
 package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import okhttp3.*;
+import org.sid.serviceapprobationwhatsapp.dto.SmsSubmission;
+import org.sid.serviceapprobationwhatsapp.dto.SmsSubmissionResult;
 import org.sid.serviceapprobationwhatsapp.service.InfobipService;
+import org.sid.serviceapprobationwhatsapp.service.OtpSmsProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends OTPs by SMS through the Infobip API, it is the "infobip" provider of the OtpDeliveryRouter.
+ * /sms/2/text/advanced accepts several messages in one request, so the OTPs collected by the SmsBatchDispatcher
+ * are sent with a single call. Each destination carries its own messageId, which is used to map the status of
+ * every recipient back from the response.
+ */
 
 @Service
-public class InfobipServiceImpl implements InfobipService {
+public class InfobipServiceImpl implements InfobipService, OtpSmsProvider {
+
+    // Infobip status group of the messages refused at submission
+    private static final String REJECTED = "REJECTED";
+
+    private final String apiKey;
+    private final String baseUrl;
+    private final ObjectMapper objectMapper;
 
-    @Value("${infobip.api.key}")
-    private String apiKey;
+    // Shared pooled client (see HttpClientConfig), Infobip negotiates HTTP/2 on it
+    private final OkHttpClient infobipHttpClient;
 
-    @Value("${infobip.api.base-url}")
-    private String baseUrl;
+    private static final Logger logger = LoggerFactory.getLogger(InfobipServiceImpl.class);
+
+    public InfobipServiceImpl(@Qualifier("infobipHttpClient") OkHttpClient infobipHttpClient,
+                              ObjectMapper objectMapper,
+                              @Value("${infobip.api.key}") String apiKey,
+                              @Value("${infobip.api.base-url}") String baseUrl) {
+        this.infobipHttpClient = infobipHttpClient;
+        this.objectMapper = objectMapper;
+        this.apiKey = apiKey;
+        this.baseUrl = baseUrl;
+    }
 
     public void sendOtp(String phoneNumber, String otp) throws IOException {
-        OkHttpClient client = new OkHttpClient().newBuilder().build();
-
-        String url = baseUrl + "/sms/2/text/advanced";
-        String json = "{\n" +
-                "  \"messages\": [\n" +
-                "    {\n" +
-                "      \"from\": \"ServiceSMS\",\n" +
-                "      \"destinations\": [\n" +
-                "        {\n" +
-                "          \"to\": \"" + phoneNumber + "\"\n" +
-                "        }\n" +
-                "      ],\n" +
-                "      \"text\": \"Your OTP code is: " + otp + "\"\n" +
-                "    }\n" +
-                "  ]\n" +
-                "}";
-
-        RequestBody body = RequestBody.create(json, MediaType.parse("application/json"));
+        sendOtp(phoneNumber, otp, Duration.ZERO);
+    }
+
+    @Override
+    public String getName() {
+        return "infobip";
+    }
+
+    // Duration.ZERO means no deadline other than the client timeouts
+    @Override
+    public void sendOtp(String phoneNumber, String otp, Duration deadline) throws IOException {
+        SmsSubmissionResult result = sendOtps(List.of(new SmsSubmission(phoneNumber, otp)), deadline).get(0);
+        if (!result.isAccepted()) {
+            throw new IOException(result.error());
+        }
+        logger.info("OTP sent successfully via Infobip: {}", result.messageId());
+    }
+
+    @Override
+    public boolean supportsBatch() {
+        return true;
+    }
+
+    // Method to send every OTP as its own message of one request, a failed request fails all of them
+    @Override
+    public List<SmsSubmissionResult> sendOtps(List<SmsSubmission> submissions, Duration deadline) throws IOException {
+        List<String> messageIds = new ArrayList<>(submissions.size());
+        ObjectNode json = objectMapper.createObjectNode();
+        ArrayNode messages = json.putArray("messages");
+        for (SmsSubmission submission : submissions) {
+            String messageId = UUID.randomUUID().toString();
+            messageIds.add(messageId);
+            ObjectNode message = messages.addObject();
+            message.put("from", "ServiceSMS");
+            message.putArray("destinations").addObject()
+                    .put("to", submission.phoneNumber())
+                    .put("messageId", messageId);
+            message.put("text", "Your OTP code is: " + submission.otp());
+        }
+
+        RequestBody body = RequestBody.create(objectMapper.writeValueAsString(json), MediaType.parse("application/json"));
         Request request = new Request.Builder()
-                .url(url)
+                .url(baseUrl + "/sms/2/text/advanced")
                 .post(body)
                 .addHeader("Authorization", "App " + apiKey)
                 .addHeader("Content-Type", "application/json")
                 .build();
 
-        try (Response response = client.newCall(request).execute()) {
+        Call call = infobipHttpClient.newCall(request);
+        call.timeout().timeout(deadline.toMillis(), TimeUnit.MILLISECONDS);
+        JsonNode answer;
+        try (Response response = call.execute()) {
             if (!response.isSuccessful()) {
                 throw new IOException("Unexpected code " + response);
             }
-            System.out.println("OTP sent successfully: " + (response.body() != null ? response.body().string() : null));
+            answer = objectMapper.readTree(response.body() != null ? response.body().string() : "{}");
+        }
+
+        // Status of each destination by messageId
+        Map<String, JsonNode> statuses = new HashMap<>();
+        answer.path("messages").forEach(sent -> statuses.put(sent.path("messageId").asText(), sent.path("status")));
+
+        List<SmsSubmissionResult> results = new ArrayList<>(submissions.size());
+        for (int i = 0; i < submissions.size(); i++) {
+            String phoneNumber = submissions.get(i).phoneNumber();
+            JsonNode status = statuses.get(messageIds.get(i));
+            if (status == null) {
+                results.add(SmsSubmissionResult.failed(phoneNumber, "No status for the destination in the Infobip response"));
+            } else if (REJECTED.equals(status.path("groupName").asText())) {
+                results.add(SmsSubmissionResult.failed(phoneNumber, "Rejected by Infobip: " + status.path("name").asText()));
+            } else {
+                results.add(SmsSubmissionResult.accepted(phoneNumber, messageIds.get(i)));
+            }
         }
+        return results;
     }
 
 }
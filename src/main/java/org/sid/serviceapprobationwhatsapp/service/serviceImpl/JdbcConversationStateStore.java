@@ -0,0 +1,117 @@
+package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
+
+import org.sid.serviceapprobationwhatsapp.service.ConversationStateStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Conversation state store shared by all the instances, backed by the conversation_state table.
+ * Every transition is a single conditional statement (INSERT on the primary key, UPDATE/DELETE ... WHERE state_value = ?),
+ * so two instances handling the same phone number can never both win the same transition.
+ * An expired row behaves as absent and can be taken over by putIfAbsent, the leftovers are purged every minute.
+ */
+
+@Service
+@ConditionalOnProperty(name = "conversation.store.type", havingValue = "jdbc")
+public class JdbcConversationStateStore implements ConversationStateStore {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private static final Logger logger = LoggerFactory.getLogger(JdbcConversationStateStore.class);
+
+    public JdbcConversationStateStore(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public Optional<String> get(String namespace, String key) {
+        List<String> values = jdbcTemplate.queryForList(
+                "SELECT state_value FROM conversation_state WHERE state_key = ? AND expires_at > ?",
+                String.class, storeKey(namespace, key), LocalDateTime.now());
+        return values.stream().findFirst();
+    }
+
+    @Override
+    public void put(String namespace, String key, String value, Duration ttl) {
+        String storeKey = storeKey(namespace, key);
+        LocalDateTime expiresAt = LocalDateTime.now().plus(ttl);
+        int updated = jdbcTemplate.update(
+                "UPDATE conversation_state SET state_value = ?, expires_at = ? WHERE state_key = ?",
+                value, expiresAt, storeKey);
+        if (updated == 0) {
+            try {
+                insert(storeKey, value, expiresAt);
+            } catch (DuplicateKeyException e) {
+                // Inserted concurrently by another instance, last write wins as for a map put
+                jdbcTemplate.update("UPDATE conversation_state SET state_value = ?, expires_at = ? WHERE state_key = ?",
+                        value, expiresAt, storeKey);
+            }
+        }
+    }
+
+    @Override
+    public boolean putIfAbsent(String namespace, String key, String value, Duration ttl) {
+        String storeKey = storeKey(namespace, key);
+        LocalDateTime now = LocalDateTime.now();
+        try {
+            insert(storeKey, value, now.plus(ttl));
+            return true;
+        } catch (DuplicateKeyException e) {
+            // Take over the row only if it has expired
+            return jdbcTemplate.update(
+                    "UPDATE conversation_state SET state_value = ?, expires_at = ? WHERE state_key = ? AND expires_at <= ?",
+                    value, now.plus(ttl), storeKey, now) == 1;
+        }
+    }
+
+    @Override
+    public boolean compareAndSet(String namespace, String key, String expectedValue, String newValue, Duration ttl) {
+        if (expectedValue == null) {
+            return putIfAbsent(namespace, key, newValue, ttl);
+        }
+        LocalDateTime now = LocalDateTime.now();
+        return jdbcTemplate.update(
+                "UPDATE conversation_state SET state_value = ?, expires_at = ? WHERE state_key = ? AND state_value = ? AND expires_at > ?",
+                newValue, now.plus(ttl), storeKey(namespace, key), expectedValue, now) == 1;
+    }
+
+    @Override
+    public boolean remove(String namespace, String key) {
+        return jdbcTemplate.update("DELETE FROM conversation_state WHERE state_key = ? AND expires_at > ?",
+                storeKey(namespace, key), LocalDateTime.now()) == 1;
+    }
+
+    @Override
+    public boolean remove(String namespace, String key, String expectedValue) {
+        return jdbcTemplate.update(
+                "DELETE FROM conversation_state WHERE state_key = ? AND state_value = ? AND expires_at > ?",
+                storeKey(namespace, key), expectedValue, LocalDateTime.now()) == 1;
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void purgeExpired() {
+        int purged = jdbcTemplate.update("DELETE FROM conversation_state WHERE expires_at <= ?", LocalDateTime.now());
+        if (purged > 0) {
+            logger.debug("Purged {} expired conversation state entries", purged);
+        }
+    }
+
+    private void insert(String storeKey, String value, LocalDateTime expiresAt) {
+        jdbcTemplate.update("INSERT INTO conversation_state (state_key, state_value, expires_at) VALUES (?, ?, ?)",
+                storeKey, value, expiresAt);
+    }
+
+    private String storeKey(String namespace, String key) {
+        return namespace + ":" + key;
+    }
+}
@@ -1,43 +1,97 @@
 package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.sid.serviceapprobationwhatsapp.entities.MessageIdMapping;
+import org.sid.serviceapprobationwhatsapp.repositories.MessageIdMappingRepository;
 import org.sid.serviceapprobationwhatsapp.service.MessageIdMappingService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Two-tier index from a WhatsApp message ID to its approval ID.
+ * The mappings are written to the message_id_mappings table and to a bounded in-memory cache (size and TTL eviction),
+ * so memory stays flat in a long-running instance. A cache miss falls back to the table, which means that a click
+ * on a message sent before a restart or by another instance still resolves.
+ */
 
 @Service
 public class MessageIdMappingServiceImpl implements MessageIdMappingService {
 
-    // Use ConcurrentHashMap for thread safety
-    private final Map<String, String> messageIdToApprovalIdMap = new ConcurrentHashMap<>();
+    private final MessageIdMappingRepository messageIdMappingRepository;
+    private final Cache<String, String> messageIdToApprovalIdCache;
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageIdMappingServiceImpl.class);
+
+    public MessageIdMappingServiceImpl(MessageIdMappingRepository messageIdMappingRepository,
+                                       MeterRegistry meterRegistry,
+                                       @Value("${message-mapping.cache.max-size:10000}") long maxSize,
+                                       @Value("${message-mapping.cache.ttl-minutes:1440}") long ttlMinutes) {
+        this.messageIdMappingRepository = messageIdMappingRepository;
+        this.messageIdToApprovalIdCache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofMinutes(ttlMinutes))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, messageIdToApprovalIdCache, "message_id_mapping");
+    }
 
     // Method to store the mapping between context message ID and approval ID
     @Override
     public void storeMapping(String messageId, String approvalId) {
-        messageIdToApprovalIdMap.put(messageId, approvalId);
-        logAllMappings();
+        storeMappings(Map.of(messageId, approvalId));
+    }
+
+    // Method to store all the mappings of a batch in a single write
+    @Override
+    public void storeMappings(Map<String, String> messageIdToApprovalId) {
+        LocalDateTime now = LocalDateTime.now();
+        List<MessageIdMapping> mappings = messageIdToApprovalId.entrySet().stream()
+                .map(entry -> MessageIdMapping.builder()
+                        .messageId(entry.getKey())
+                        .approvalId(entry.getValue())
+                        .createdAt(now)
+                        .build())
+                .toList();
+        messageIdMappingRepository.saveAll(mappings);
+        messageIdToApprovalIdCache.putAll(messageIdToApprovalId);
+        logger.debug("Stored {} message ID mapping(s)", mappings.size());
     }
 
+    // Only the in-memory tier is cleared, the persisted mappings stay available
     @Override
     public void clearMapping() {
-        messageIdToApprovalIdMap.clear();
+        messageIdToApprovalIdCache.invalidateAll();
     }
 
     @Override
     public void logAllMappings() {
-        messageIdToApprovalIdMap.forEach((key, value) ->
-                System.out.println("Message ID: " + key + " -> Approval ID: " + value));
+        logger.debug("Message ID mappings in memory: {}, cache stats: {}",
+                messageIdToApprovalIdCache.estimatedSize(), messageIdToApprovalIdCache.stats());
     }
 
     @Override
     public int getMapSize() {
-        return messageIdToApprovalIdMap.size();
+        return (int) messageIdToApprovalIdCache.estimatedSize();
     }
 
     @Override
     public String getApprovalId(String messageId) {
-        return messageIdToApprovalIdMap.get(messageId);
+        if (messageId == null) {
+            return null;
+        }
+        return messageIdToApprovalIdCache.get(messageId, id -> messageIdMappingRepository.findById(id)
+                .map(MessageIdMapping::getApprovalId)
+                .orElse(null));
     }
 
 }
@@ -0,0 +1,55 @@
+package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.sid.serviceapprobationwhatsapp.entities.ApprovalOTP;
+import org.sid.serviceapprobationwhatsapp.service.OtpCodeVerifier;
+import org.sid.serviceapprobationwhatsapp.service.OtpHasher;
+import org.sid.serviceapprobationwhatsapp.service.TwilioService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Single verification engine of the OTP codes, used by OtpService and OtpVerification so both paths agree.
+ * In the local mode (otp.verification.mode=local, the default) the code is checked in-process: its HMAC is compared
+ * in constant time to the digest held by the OTP row already loaded for the attempt count (see OtpHasher).
+ * Twilio is not called at all in this mode.
+ * The twilio mode keeps the Twilio Verify check.
+ */
+
+@Service
+public class OtpCodeVerifierImpl implements OtpCodeVerifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(OtpCodeVerifierImpl.class);
+
+    private final TwilioService twilioService;
+    private final OtpHasher otpHasher;
+    private final boolean localMode;
+    private final Timer verificationTimer;
+
+    public OtpCodeVerifierImpl(TwilioService twilioService,
+                               OtpHasher otpHasher,
+                               MeterRegistry meterRegistry,
+                               @Value("${otp.verification.mode:local}") String mode) {
+        this.twilioService = twilioService;
+        this.otpHasher = otpHasher;
+        this.localMode = !"twilio".equalsIgnoreCase(mode);
+        this.verificationTimer = Timer.builder("otp.verification.duration")
+                .description("Time taken to check an OTP code")
+                .tag("mode", localMode ? "local" : "twilio")
+                .register(meterRegistry);
+        logger.info("OTP verification mode: {}", localMode ? "local" : "twilio");
+    }
+
+    @Override
+    public boolean matches(ApprovalOTP approvalOTP, String code) {
+        if (code == null) {
+            return false;
+        }
+        return verificationTimer.record(() -> localMode
+                ? otpHasher.matches(approvalOTP.getRecipientNumber(), code.trim(), approvalOTP.getOtp())
+                : twilioService.checkVerificationCode(approvalOTP.getRecipientNumber(), code, approvalOTP.getOtp()));
+    }
+}
@@ -0,0 +1,252 @@
+package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.sid.serviceapprobationwhatsapp.dto.SmsSubmission;
+import org.sid.serviceapprobationwhatsapp.dto.SmsSubmissionResult;
+import org.sid.serviceapprobationwhatsapp.service.OtpDeliveryRouter;
+import org.sid.serviceapprobationwhatsapp.service.OtpSmsProvider;
+import org.sid.serviceapprobationwhatsapp.service.SmsBatchDispatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Chooses the SMS provider used to deliver an OTP.
+ * The route is picked by the longest matching country prefix (otp.routing.routes, e.g. "+212=bulksms,infobip,twilio;+33=infobip,twilio")
+ * and falls back to otp.routing.default. Each attempt is bounded by the latency SLO, an error or a breach of the SLO fails over to the next provider.
+ * Every provider has a circuit breaker: after consecutive failures it is skipped for a while, then one probe call is let through.
+ * Providers with an open breaker are still tried last, so that an outage of every breaker does not stop the approvals.
+ * The providers that accept several messages in one call go through the SmsBatchDispatcher, the attempt then waits
+ * for the result of its own recipient in the batch.
+ */
+
+@Service
+public class OtpDeliveryRouterImpl implements OtpDeliveryRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(OtpDeliveryRouterImpl.class);
+
+    private final SmsBatchDispatcher smsBatchDispatcher;
+    private final Map<String, ProviderState> providers = new LinkedHashMap<>();
+    // Prefix -> provider names, sorted by descending prefix length so that the first match is the longest
+    private final NavigableMap<String, List<String>> routes = new TreeMap<>(
+            Comparator.comparingInt(String::length).reversed().thenComparing(Comparator.naturalOrder()));
+    private final List<String> defaultRoute;
+    private final Duration latencySlo;
+    private final int failureThreshold;
+    private final long openNanos;
+
+    public OtpDeliveryRouterImpl(List<OtpSmsProvider> smsProviders,
+                                 SmsBatchDispatcher smsBatchDispatcher,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${otp.routing.routes:+212=bulksms,infobip,twilio}") String routesConfig,
+                                 @Value("${otp.routing.default:infobip,twilio}") String defaultRouteConfig,
+                                 @Value("${otp.routing.latency-slo-ms:3000}") long latencySloMs,
+                                 @Value("${otp.routing.breaker.failure-threshold:3}") int failureThreshold,
+                                 @Value("${otp.routing.breaker.open-seconds:30}") long openSeconds) {
+        this.smsBatchDispatcher = smsBatchDispatcher;
+        smsProviders.forEach(provider -> providers.put(provider.getName(), new ProviderState(provider, meterRegistry)));
+        for (String route : routesConfig.split(";")) {
+            if (route.isBlank()) {
+                continue;
+            }
+            String[] parts = route.split("=", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid OTP route (expected prefix=provider,...): " + route);
+            }
+            routes.put(parts[0].trim(), parseProviders(parts[1]));
+        }
+        this.defaultRoute = parseProviders(defaultRouteConfig);
+        this.latencySlo = Duration.ofMillis(latencySloMs);
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.SECONDS.toNanos(openSeconds);
+        logger.info("OTP routes: {}, default: {}", routes, defaultRoute);
+    }
+
+    @Override
+    public String sendOtp(String phoneNumber, String otp) throws IOException {
+        List<String> names = route(phoneNumber);
+        List<ProviderState> route = names.stream().map(providers::get).toList();
+        List<ProviderState> lastResort = new ArrayList<>();
+        IOException failure = new IOException("All SMS providers failed for " + phoneNumber + " " + names);
+
+        for (ProviderState provider : route) {
+            if (!provider.breaker.tryAcquire()) {
+                lastResort.add(provider);
+                continue;
+            }
+            if (attempt(provider, phoneNumber, otp, failure)) {
+                return provider.getName();
+            }
+        }
+        // Every provider is failing or open, try the open ones anyway rather than dropping the OTP
+        for (ProviderState provider : lastResort) {
+            if (attempt(provider, phoneNumber, otp, failure)) {
+                return provider.getName();
+            }
+        }
+        throw failure;
+    }
+
+    // Configured providers for the longest matching prefix, the ones with a closed breaker first
+    @Override
+    public List<String> route(String phoneNumber) {
+        List<String> configured = routes.entrySet().stream()
+                .filter(entry -> phoneNumber.startsWith(entry.getKey()))
+                .map(Map.Entry::getValue)
+                .findFirst()
+                .orElse(defaultRoute);
+        List<String> ordered = new ArrayList<>(configured);
+        ordered.sort(Comparator.comparing(name -> !providers.get(name).breaker.isClosed()));
+        return ordered;
+    }
+
+    // Method to make one attempt with a provider, the failure is kept as suppressed exception for the final error
+    private boolean attempt(ProviderState provider, String phoneNumber, String otp, IOException failure) {
+        long start = System.nanoTime();
+        try {
+            if (provider.sms.supportsBatch()) {
+                sendBatched(provider.sms, phoneNumber, otp);
+            } else {
+                provider.sms.sendOtp(phoneNumber, otp, latencySlo);
+            }
+            provider.record("success", start);
+            provider.breaker.onSuccess();
+            return true;
+        } catch (Exception e) {
+            // OkHttp reports a call timeout (the SLO deadline) as an InterruptedIOException
+            provider.record(e instanceof InterruptedIOException ? "timeout" : "error", start);
+            provider.breaker.onFailure();
+            provider.failoverCounter.increment();
+            failure.addSuppressed(e);
+            logger.warn("SMS provider {} failed for {}: {}, failing over", provider.getName(), phoneNumber, e.getMessage());
+            return false;
+        }
+    }
+
+    // Method to submit the OTP to the open batch of the provider and wait for its result until the SLO deadline
+    private void sendBatched(OtpSmsProvider sms, String phoneNumber, String otp) throws IOException {
+        try {
+            SmsSubmissionResult result = smsBatchDispatcher.submit(sms, new SmsSubmission(phoneNumber, otp), latencySlo)
+                    .get(latencySlo.toMillis(), TimeUnit.MILLISECONDS);
+            if (!result.isAccepted()) {
+                throw new IOException(result.error());
+            }
+        } catch (TimeoutException e) {
+            throw new InterruptedIOException("timeout");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the SMS batch");
+        }
+    }
+
+    private List<String> parseProviders(String names) {
+        List<String> parsed = Arrays.stream(names.split(","))
+                .map(String::trim)
+                .filter(name -> !name.isEmpty())
+                .toList();
+        for (String name : parsed) {
+            if (!providers.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown SMS provider in OTP routes: " + name + ", known: " + providers.keySet());
+            }
+        }
+        return parsed;
+    }
+
+    // --------------------------- Provider state ---------------------------
+
+    private class ProviderState {
+
+        private final OtpSmsProvider sms;
+        private final CircuitBreaker breaker;
+        private final MeterRegistry meterRegistry;
+        private final Counter failoverCounter;
+
+        ProviderState(OtpSmsProvider sms, MeterRegistry meterRegistry) {
+            this.sms = sms;
+            this.breaker = new CircuitBreaker(sms.getName());
+            this.meterRegistry = meterRegistry;
+            this.failoverCounter = Counter.builder("otp.sms.failover")
+                    .description("Failed OTP SMS attempts that moved on to the next provider")
+                    .tag("provider", sms.getName())
+                    .register(meterRegistry);
+            Gauge.builder("otp.sms.breaker.open", breaker, b -> b.isClosed() ? 0 : 1)
+                    .tag("provider", sms.getName())
+                    .register(meterRegistry);
+        }
+
+        String getName() {
+            return sms.getName();
+        }
+
+        void record(String result, long start) {
+            Timer.builder("otp.sms.delivery")
+                    .description("Latency of the OTP SMS calls per provider")
+                    .tag("provider", getName())
+                    .tag("result", result)
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // --------------------------- Circuit breaker ---------------------------
+
+    private class CircuitBreaker {
+
+        private final String providerName;
+        private int consecutiveFailures;
+        // 0 while closed, otherwise the time (nanoTime) at which a probe call is allowed again
+        private long openUntil;
+        private boolean probing;
+
+        CircuitBreaker(String providerName) {
+            this.providerName = providerName;
+        }
+
+        synchronized boolean isClosed() {
+            return openUntil == 0;
+        }
+
+        // Closed: always, open: only one probe once the open period is over (half-open)
+        synchronized boolean tryAcquire() {
+            if (openUntil == 0) {
+                return true;
+            }
+            if (probing || System.nanoTime() - openUntil < 0) {
+                return false;
+            }
+            probing = true;
+            return true;
+        }
+
+        synchronized void onSuccess() {
+            consecutiveFailures = 0;
+            openUntil = 0;
+            probing = false;
+        }
+
+        synchronized void onFailure() {
+            consecutiveFailures++;
+            if (probing || consecutiveFailures >= failureThreshold) {
+                if (openUntil == 0) {
+                    logger.warn("Circuit breaker of SMS provider {} opened after {} consecutive failures", providerName, consecutiveFailures);
+                }
+                openUntil = System.nanoTime() + openNanos;
+                probing = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
+
+import org.sid.serviceapprobationwhatsapp.service.OtpHasher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * HMAC-SHA256 of the OTPs, so that neither the database nor the logs hold a usable code.
+ * The keys are per deployment (otp.hmac.keys = "keyId:base64Secret,..."), new digests use otp.hmac.active-key-id
+ * (the first key by default) and keep its ID, so the previous key only needs to stay listed until its pending
+ * OTPs have expired to rotate it. The phone number is part of the MAC input, a digest is only valid for its own recipient.
+ * Each thread reuses its own initialised Mac per key instead of creating one per call (a Mac is not thread-safe).
+ */
+
+@Service
+public class OtpHasherImpl implements OtpHasher {
+
+    private static final Logger logger = LoggerFactory.getLogger(OtpHasherImpl.class);
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int MIN_KEY_BYTES = 32;
+
+    // Key ID -> Mac of the current thread for that key
+    private final Map<String, ThreadLocal<Mac>> macs = new LinkedHashMap<>();
+    private final String activeKeyId;
+    private final ThreadLocal<Mac> activeMac;
+
+    public OtpHasherImpl(@Value("${otp.hmac.keys}") String keys,
+                         @Value("${otp.hmac.active-key-id:}") String activeKeyId) {
+        for (String entry : keys.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            String[] parts = entry.trim().split(":", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid OTP HMAC key (expected keyId:base64Secret)");
+            }
+            byte[] secret = Base64.getDecoder().decode(parts[1].trim());
+            if (secret.length < MIN_KEY_BYTES) {
+                throw new IllegalArgumentException("OTP HMAC key " + parts[0] + " must be at least " + MIN_KEY_BYTES + " bytes");
+            }
+            SecretKeySpec key = new SecretKeySpec(secret, ALGORITHM);
+            macs.put(parts[0].trim(), ThreadLocal.withInitial(() -> newMac(key)));
+        }
+        if (macs.isEmpty()) {
+            throw new IllegalArgumentException("No OTP HMAC key configured (otp.hmac.keys)");
+        }
+        this.activeKeyId = activeKeyId.isBlank() ? macs.keySet().iterator().next() : activeKeyId.trim();
+        this.activeMac = macs.get(this.activeKeyId);
+        if (activeMac == null) {
+            throw new IllegalArgumentException("Unknown active OTP HMAC key: " + this.activeKeyId);
+        }
+        logger.info("OTP HMAC keys: {}, active: {}", macs.keySet(), this.activeKeyId);
+    }
+
+    @Override
+    public String hash(String phoneNumber, String otp) {
+        return activeKeyId + ":" + Base64.getEncoder().encodeToString(mac(activeMac, phoneNumber, otp));
+    }
+
+    @Override
+    public boolean matches(String phoneNumber, String code, String storedDigest) {
+        int separator = storedDigest != null ? storedDigest.indexOf(':') : -1;
+        if (separator < 0 || code == null) {
+            return false;
+        }
+        ThreadLocal<Mac> mac = macs.get(storedDigest.substring(0, separator));
+        if (mac == null) {
+            logger.warn("OTP digest created with a key that is no longer configured");
+            return false;
+        }
+        byte[] expected;
+        try {
+            expected = Base64.getDecoder().decode(storedDigest.substring(separator + 1));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        return MessageDigest.isEqual(expected, mac(mac, phoneNumber, code));
+    }
+
+    // doFinal resets the Mac, it is ready for the next call of the thread
+    private static byte[] mac(ThreadLocal<Mac> threadMac, String phoneNumber, String otp) {
+        Mac mac = threadMac.get();
+        mac.update(phoneNumber.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        return mac.doFinal(otp.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Mac newMac(SecretKeySpec key) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot initialise " + ALGORITHM, e);
+        }
+    }
+}
@@ -4,6 +4,9 @@ import org.sid.serviceapprobationwhatsapp.entities.ApprovalOTP;
 import org.sid.serviceapprobationwhatsapp.entities.ApprovalRequest;
 import org.sid.serviceapprobationwhatsapp.enums.otpStatus;
 import org.sid.serviceapprobationwhatsapp.repositories.ApprovalOtpRepository;
+import org.sid.serviceapprobationwhatsapp.service.ActiveOtpService;
+import org.sid.serviceapprobationwhatsapp.service.OtpCodeVerifier;
+import org.sid.serviceapprobationwhatsapp.service.OtpHasher;
 import org.sid.serviceapprobationwhatsapp.service.OtpService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,19 +28,28 @@ import java.util.Random;
  * which are stored in the ApprovalRequestRepository. The service uses a SecureRandom object for generating secure random numbers
  * and a HashMap to store OTPData objects in memory, keyed by phone number. The OTPs are generated using a limited character set
  * (numbers only in this case) and are of a fixed length (currently 6 digits).
+ * Only the HMAC of the OTP is stored (OtpHasher), the code itself is only returned to be sent to the user.
+ * The code typed by the user is checked by the OtpCodeVerifier (local constant-time check by default).
  */
 
 @Service
 public class OtpServiceImpl implements OtpService {
 
     private final ApprovalOtpRepository approvalOtpRepository;
+    private final ActiveOtpService activeOtpService;
+    private final OtpCodeVerifier otpCodeVerifier;
+    private final OtpHasher otpHasher;
     private static final Logger logger = LoggerFactory.getLogger(OtpServiceImpl.class);
 
     private static final Random RANDOM = new SecureRandom();  // Creates a SecureRandom object for generating secure random numbers
     private static final String ALPHABET = "0123456789"; // Defines the characters to be used for generating OTPs (numbers only in this case)
 
-    public OtpServiceImpl(ApprovalOtpRepository approvalOtpRepository) {
+    public OtpServiceImpl(ApprovalOtpRepository approvalOtpRepository, ActiveOtpService activeOtpService,
+                          OtpCodeVerifier otpCodeVerifier, OtpHasher otpHasher) {
         this.approvalOtpRepository = approvalOtpRepository;
+        this.activeOtpService = activeOtpService;
+        this.otpCodeVerifier = otpCodeVerifier;
+        this.otpHasher = otpHasher;
     }
 
     @Override
@@ -60,7 +72,7 @@ public class OtpServiceImpl implements OtpService {
         // Create the otp with the phone number, decision, ...
         ApprovalOTP approvalOTP = ApprovalOTP.builder()
                 .recipientNumber(recipientNumber)
-                .otp(otp)
+                .otp(otpHasher.hash(recipientNumber, otp))
                 .decision(approvalRequest.getDecision())
                 .status(otpStatus.PENDING)
                 .createdAt(LocalDateTime.now(ZoneOffset.UTC))
@@ -68,7 +80,7 @@ public class OtpServiceImpl implements OtpService {
                 .invalidattempts(0)
                 .approvalRequest(approvalRequest) // Associate the OTP with the ApprovalRequest
                 .build();
-        approvalOtpRepository.save(approvalOTP);
+        activeOtpService.saveActive(approvalOTP);
         return otp;
     }
 
@@ -78,7 +90,7 @@ public class OtpServiceImpl implements OtpService {
         LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.SECONDS);
 
         // Retrieve the OTP based on the recipient number and status to show the most recent one
-        Optional<ApprovalOTP> approvalOTP = approvalOtpRepository.findTopByRecipientNumberAndStatusOrderByCreatedAtDesc(recipientNumber, otpStatus.PENDING);
+        Optional<ApprovalOTP> approvalOTP = activeOtpService.findActive(recipientNumber);
 	        if (approvalOTP.isEmpty()) {
             // No OTP found for this recipient number.  This is a NOT_FOUND case.
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body("No OTP found for this recipient.");
@@ -90,17 +102,17 @@ public class OtpServiceImpl implements OtpService {
         }
 
         // Check if OTP
-        if (!approvalAttempt.getOtp().equals(otp)) {
+        if (!otpCodeVerifier.matches(approvalAttempt, otp)) {
             // Incorrect OTP entered.
             if (approvalAttempt.getExpiration().isAfter(now)) {
                 // Increment invalid attempts *only* if the OTP hasn't expired.
                 approvalAttempt.setInvalidattempts(approvalAttempt.getInvalidattempts() + 1);
-                approvalOtpRepository.save(approvalAttempt); // Save the updated attempts count.
+                activeOtpService.update(approvalAttempt); // Save the updated attempts count.
 
                 if (approvalAttempt.getInvalidattempts() >= 3) {
 
                     approvalAttempt.setStatus(otpStatus.DENIED);
-                    approvalOtpRepository.save(approvalAttempt);
+                    activeOtpService.update(approvalAttempt);
                     logger.info("OTP set to DENIED for {}", recipientNumber);
 
                     return ResponseEntity.status(HttpStatus.FORBIDDEN).body("OTP denied (too many attempts).");
@@ -116,7 +128,7 @@ public class OtpServiceImpl implements OtpService {
         // OTP is correct, not denied, and not expired.
         if (approvalAttempt.getExpiration().isAfter(now) && approvalAttempt.getStatus() == otpStatus.PENDING) {
             // Valid OTP
-            approvalOtpRepository.delete(approvalAttempt); // Delete after successful validation.
+            activeOtpService.delete(approvalAttempt); // Delete after successful validation.
             return ResponseEntity.ok("OTP validated successfully.");
         } else {
             // OTP is expired, even though it's the correct OTP.
@@ -127,5 +139,6 @@ public class OtpServiceImpl implements OtpService {
     @Override
     public void clearOTP(String recipientNumber) {
         approvalOtpRepository.deleteByRecipientNumber(recipientNumber); // Remove every OTP of that PhoneNumber
+        activeOtpService.evict(recipientNumber);
     }
 }
\ No newline at end of file
@@ -4,7 +4,6 @@
     import org.sid.serviceapprobationwhatsapp.entities.ApprovalRequest;
     import org.sid.serviceapprobationwhatsapp.entities.OtpResendMapping;
     import org.sid.serviceapprobationwhatsapp.enums.otpStatus;
-    import org.sid.serviceapprobationwhatsapp.repositories.ApprovalOtpRepository;
     import org.sid.serviceapprobationwhatsapp.service.*;
     import org.sid.serviceapprobationwhatsapp.web.WhatsAppWebhookHandler;
     import org.slf4j.Logger;
@@ -14,6 +13,7 @@
     import org.springframework.stereotype.Service;
 
     import java.time.LocalDateTime;
+    import java.time.ZoneOffset;
     import java.util.Map;
     import java.util.Optional;
 
@@ -22,10 +22,10 @@
  * This service interacts with various components such as Twilio Verify, WhatsApp, and repositories to manage OTP-related workflows.
  *
  * Key responsibilities of this service include:
- * - Verifying the OTPs received from users to ensure they match the expected values using Verify.
- * - Interfacing with the TwilioService to manage SMS-based OTP sending and verification.
+ * - Verifying the OTPs received from users to ensure they match the expected values with the OtpCodeVerifier
+ *   (local constant-time check by default, Twilio Verify in the twilio mode).
  * - Using the WhatsAppService for OTP notifications through the WhatsApp messaging platform.
- * - Accessing the ApprovalOtpRepository to store and retrieve OTP-related data.
+ * - Accessing the ActiveOtpService to store and retrieve OTP-related data.
  * - Utilizing the SessionService to manage user sessions during the OTP verification process.
  * - Handling OTP resend logic through the OtpResendMappingService to support cases where users request a resend of the OTP.
  *
@@ -38,15 +38,15 @@
     public class OtpVerificationImpl implements OtpVerification {
 
         private final WhatsAppService whatsAppService;
-        private final TwilioService twilioService;
-        private final ApprovalOtpRepository approvalOtpRepository;
+        private final OtpCodeVerifier otpCodeVerifier;
+        private final ActiveOtpService activeOtpService;
         private final OtpMessage otpMessage;
         private final OtpResendMappingService otpResendMappingService;
 
-        public OtpVerificationImpl(OtpMessage otpMessage, ApprovalOtpRepository approvalOtpRepository, TwilioService twilioService, WhatsAppService whatsAppService, OtpResendMappingService otpResendMappingService) {
+        public OtpVerificationImpl(OtpMessage otpMessage, ActiveOtpService activeOtpService, OtpCodeVerifier otpCodeVerifier, WhatsAppService whatsAppService, OtpResendMappingService otpResendMappingService) {
             this.otpMessage = otpMessage;
-            this.approvalOtpRepository = approvalOtpRepository;
-            this.twilioService = twilioService;
+            this.activeOtpService = activeOtpService;
+            this.otpCodeVerifier = otpCodeVerifier;
             this.whatsAppService = whatsAppService;
             this.otpResendMappingService = otpResendMappingService;
         }
@@ -58,8 +58,7 @@
         public ResponseEntity<?> processOtpVerification(String phoneNumber, String messageBody) {
 
             // Check for a pending OTP attempt
-                Optional<ApprovalOTP> optionalOtpAttempt = approvalOtpRepository
-                    .findTopByRecipientNumberAndStatusOrderByCreatedAtDesc(phoneNumber, otpStatus.PENDING);
+                Optional<ApprovalOTP> optionalOtpAttempt = activeOtpService.findActive(phoneNumber);
 
             // not processing empty otp
             if (optionalOtpAttempt.isEmpty()) {
@@ -92,10 +91,10 @@
                         .body(Map.of("error", "Invalid phone number for this approval request."));
             }
 
-            // Check expiration BEFORE verifying and set status to EXPIRED if expired
-            if (LocalDateTime.now().isAfter(otpAttempt.getExpiration())) {
+            // Check expiration BEFORE verifying and set status to EXPIRED if expired (OTP timestamps are in UTC)
+            if (LocalDateTime.now(ZoneOffset.UTC).isAfter(otpAttempt.getExpiration())) {
                 otpAttempt.setStatus(otpStatus.EXPIRED);
-                approvalOtpRepository.save(otpAttempt);
+                activeOtpService.update(otpAttempt);
 
                 // Retrieves the existing OTP resend mapping for the given phone number
                 // to associate a new OTP with an existing approval request and phone number
@@ -108,14 +107,14 @@
                         .body(Map.of("error", "OTP has expired"));
             }
 
-            // Check OTP validation via Twilio Verify API and update the status
-            boolean isValid = twilioService.checkVerificationCode(phoneNumber, messageBody, otpAttempt.getOtp()); //otpAttempt.getVerficationSid() not getOtp, just pour eviter error
+            // Check OTP validation (locally or via Twilio Verify API, see OtpCodeVerifier) and update the status
+            boolean isValid = otpCodeVerifier.matches(otpAttempt, messageBody);
 
             if (isValid) {
                 // Create a new session for the user after successful OTP verification and set status to APPROVED
                 // SessionService.createSession(phoneNumber);
                 otpAttempt.setStatus(otpStatus.APPROVED);
-                approvalOtpRepository.save(otpAttempt);
+                activeOtpService.update(otpAttempt);
                 logger.info("OTP verified successfully for approval ID {}", approvalId);
                 // Send the approval request to the approver after validating the OTP
                 whatsAppService.sendMessageWithInteractiveButtons(approvalRequest);
@@ -127,14 +126,14 @@
             else {
                 // Increment the invalid attempts and check if the maximum attempts have been exceeded
                 otpAttempt.setInvalidattempts(otpAttempt.getInvalidattempts() + 1);
-                approvalOtpRepository.save(otpAttempt);
+                activeOtpService.update(otpAttempt);
 
                 logger.warn("Invalid OTP attempt {} for approval ID {}", otpAttempt.getInvalidattempts(), approvalId);
 
                 // Maximum attempts exceeded, set status to DENIED and send a message to resend OTP
                 if (otpAttempt.getInvalidattempts() >= 3 ) {
                     otpAttempt.setStatus(otpStatus.DENIED);
-                    approvalOtpRepository.save(otpAttempt);
+                    activeOtpService.update(otpAttempt);
                     logger.error("Exceeded maximum OTP attempts for approval ID {}", approvalId);
 
                     // Retrieves the existing OTP resend mapping for the given phone number
@@ -145,7 +144,7 @@
                     return ResponseEntity.status(HttpStatus.FORBIDDEN)
                             .body(Map.of("error", "You have exceeded the maximum OTP attempts"));
                 }
-                approvalOtpRepository.save(otpAttempt);
+                activeOtpService.update(otpAttempt);
 
                 // Send a message to try again if the OTP is invalid before exceeding the maximum attempts
                 otpMessage.sendTryAgain(phoneNumber);
@@ -0,0 +1,302 @@
+package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.sid.serviceapprobationwhatsapp.entities.OutboundMessage;
+import org.sid.serviceapprobationwhatsapp.enums.outboundStatus;
+import org.sid.serviceapprobationwhatsapp.exception.GraphApiThrottledException;
+import org.sid.serviceapprobationwhatsapp.repositories.OutboundMessageRepository;
+import org.sid.serviceapprobationwhatsapp.service.MessageIdMappingService;
+import org.sid.serviceapprobationwhatsapp.service.OutboundQueueService;
+import org.sid.serviceapprobationwhatsapp.service.WhatsAppSender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Durable outbound queue (outbox) for every WhatsApp template sent by the service.
+ * The callers only insert a row in outbound_messages, so a slow Graph API never blocks a webhook or a registration.
+ * A scheduled poller claims the pending rows in batches (SELECT ... FOR UPDATE SKIP LOCKED), the reactive WhatsAppSender
+ * sends a batch with up to outbound.queue.workers concurrent calls without a thread per call,
+ * and the results are recorded in one transaction per batch, with the returned message IDs mapped in one bulk write.
+ * The drain runs as a reactive pipeline: the scheduler thread only starts it, so a slow Graph API does not hold back
+ * the other scheduled jobs, and the next poll is skipped while a drain is still running.
+ * Rows claimed by a worker that died (restart, crash) are released after a timeout, so the queue survives restarts.
+ * A retryable failure puts the row back with a next attempt time (exponential backoff with jitter), so an outage of the
+ * Graph API is ridden out over minutes instead of exhausting the attempts in one drain.
+ */
+
+@Service
+public class OutboundQueueServiceImpl implements OutboundQueueService {
+
+    @Value("${outbound.queue.batch-size:50}")
+    private int batchSize;
+
+    @Value("${outbound.queue.workers:8}")
+    private int workers;
+
+    @Value("${outbound.queue.max-attempts:8}")
+    private int maxAttempts;
+
+    @Value("${outbound.queue.initial-backoff-ms:10000}")
+    private long initialBackoffMs;
+
+    @Value("${outbound.queue.max-backoff-ms:900000}")
+    private long maxBackoffMs;
+
+    @Value("${outbound.queue.stale-after-seconds:120}")
+    private long staleAfterSeconds;
+
+    private final OutboundMessageRepository outboundMessageRepository;
+    private final WhatsAppSender whatsAppSender;
+    private final MessageIdMappingService messageIdMappingService;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+
+    private final AtomicLong queueDepth = new AtomicLong();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final Timer waitTimer;
+    private final Timer sendTimer;
+    private final Counter sentCounter;
+    private final Counter failedCounter;
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboundQueueServiceImpl.class);
+
+    public OutboundQueueServiceImpl(OutboundMessageRepository outboundMessageRepository,
+                                    WhatsAppSender whatsAppSender,
+                                    MessageIdMappingService messageIdMappingService,
+                                    PlatformTransactionManager transactionManager,
+                                    MeterRegistry meterRegistry) {
+        this.outboundMessageRepository = outboundMessageRepository;
+        this.whatsAppSender = whatsAppSender;
+        this.messageIdMappingService = messageIdMappingService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.meterRegistry = meterRegistry;
+
+        meterRegistry.gauge("outbound.queue.depth", queueDepth);
+        this.waitTimer = Timer.builder("outbound.queue.wait")
+                .description("Time between the enqueue of a message and its claim by a worker")
+                .register(meterRegistry);
+        this.sendTimer = Timer.builder("outbound.send.latency")
+                .description("Graph API call duration for a queued message")
+                .register(meterRegistry);
+        this.sentCounter = Counter.builder("outbound.messages").tag("result", "sent").register(meterRegistry);
+        this.failedCounter = Counter.builder("outbound.messages").tag("result", "failed").register(meterRegistry);
+    }
+
+    // Method to queue one template message, the approval ID is optional
+    @Override
+    public OutboundMessage enqueue(String recipientNumber, String templateName, String payload, String approvalId) {
+        OutboundMessage message = OutboundMessage.builder()
+                .recipientNumber(recipientNumber)
+                .templateName(templateName)
+                .payload(payload)
+                .approvalId(approvalId)
+                .build();
+        return enqueueAll(List.of(message)).get(0);
+    }
+
+    // Method to queue several messages in a single transaction
+    @Override
+    public List<OutboundMessage> enqueueAll(List<OutboundMessage> messages) {
+        LocalDateTime now = LocalDateTime.now();
+        messages.forEach(message -> {
+            message.setStatus(outboundStatus.PENDING);
+            message.setAttempts(0);
+            message.setCreatedAt(now);
+            message.setNextAttemptAt(now);
+        });
+        List<OutboundMessage> saved = transactionTemplate.execute(status -> outboundMessageRepository.saveAll(messages));
+        queueDepth.addAndGet(messages.size());
+        logger.info("Queued {} outbound message(s)", messages.size());
+        return saved;
+    }
+
+    // Poller of the queue: claims and sends batches until no row is due
+    @Override
+    @Scheduled(fixedDelayString = "${outbound.queue.poll-interval-ms:500}")
+    public void drainQueue() {
+        // The previous drain is still sending, its pipeline claims the next batches itself
+        if (!draining.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            releaseStaleClaims();
+            // Only the rows due when the run started, a row failed during this run is due later and waits for its backoff
+            LocalDateTime dueBefore = LocalDateTime.now();
+            drainFrom(dueBefore)
+                    .then(Mono.fromRunnable(() -> queueDepth.set(outboundMessageRepository.countByStatus(outboundStatus.PENDING)))
+                            .subscribeOn(Schedulers.boundedElastic()))
+                    .doFinally(signal -> draining.set(false))
+                    .subscribe(null, e -> logger.error("Error while draining the outbound queue", e));
+        } catch (Exception e) {
+            draining.set(false);
+            logger.error("Error while draining the outbound queue", e);
+        }
+    }
+
+    @Override
+    public long getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    // --------------------------- Helper methods ---------------------------
+
+    private void releaseStaleClaims() {
+        LocalDateTime claimedBefore = LocalDateTime.now().minusSeconds(staleAfterSeconds);
+        Integer released = transactionTemplate.execute(status -> outboundMessageRepository
+                .releaseStaleClaims(outboundStatus.SENDING, outboundStatus.PENDING, claimedBefore));
+        if (released != null && released > 0) {
+            logger.warn("Released {} outbound message(s) claimed before {}", released, claimedBefore);
+        }
+    }
+
+    // Locks the oldest due rows, marks them SENDING and commits, so that the lock is not held during the HTTP calls
+    private List<OutboundMessage> claimBatch(LocalDateTime dueBefore) {
+        List<OutboundMessage> batch = transactionTemplate.execute(status -> {
+            List<OutboundMessage> claimed = outboundMessageRepository
+                    .findBatchForUpdate(outboundStatus.PENDING, dueBefore, PageRequest.of(0, batchSize));
+            LocalDateTime now = LocalDateTime.now();
+            claimed.forEach(message -> {
+                message.setStatus(outboundStatus.SENDING);
+                message.setClaimedAt(now);
+                message.setAttempts(message.getAttempts() + 1);
+            });
+            return outboundMessageRepository.saveAll(claimed);
+        });
+        if (batch == null) {
+            return Collections.emptyList();
+        }
+        batch.forEach(message -> waitTimer.record(Duration.between(message.getCreatedAt(), message.getClaimedAt())));
+        return batch;
+    }
+
+    // Claims and sends batches until no row is due, a full batch is followed by the next one
+    private Mono<Void> drainFrom(LocalDateTime dueBefore) {
+        return Mono.fromCallable(() -> claimBatch(dueBefore))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(batch -> {
+                    if (batch.isEmpty()) {
+                        return Mono.empty();
+                    }
+                    Mono<Void> sent = sendBatch(batch);
+                    return batch.size() == batchSize ? sent.then(Mono.defer(() -> drainFrom(dueBefore))) : sent;
+                });
+    }
+
+    // Sends the claimed batch on the WebClient event loops, then records every result in one transaction off the event loops
+    private Mono<Void> sendBatch(List<OutboundMessage> batch) {
+        return Flux.fromIterable(batch)
+                .flatMap(this::send, workers)
+                .then(Mono.fromRunnable(() -> recordBatch(batch)).subscribeOn(Schedulers.boundedElastic()))
+                .then();
+    }
+
+    private void recordBatch(List<OutboundMessage> batch) {
+        // Map every returned message ID to its approval in a single write
+        Map<String, String> mappings = new HashMap<>();
+        batch.stream()
+                .filter(message -> message.getApprovalId() != null && message.getMessageId() != null)
+                .forEach(message -> mappings.put(message.getMessageId(), message.getApprovalId()));
+
+        transactionTemplate.executeWithoutResult(status -> outboundMessageRepository.saveAll(batch));
+        if (!mappings.isEmpty()) {
+            messageIdMappingService.storeMappings(mappings);
+        }
+        logger.info("Outbound batch of {} message(s) processed", batch.size());
+    }
+
+    // Sends one message and updates its state, never signals an error so that one failure does not stop the batch
+    private Mono<Void> send(OutboundMessage message) {
+        long startedAt = System.nanoTime();
+        return whatsAppSender.send(message.getPayload())
+                .doOnNext(result -> {
+                    if (result.isSuccess()) {
+                        message.setMessageId(result.messageId());
+                        message.setStatus(outboundStatus.SENT);
+                        message.setSentAt(LocalDateTime.now());
+                        message.setLastError(null);
+                        sentCounter.increment();
+                    } else {
+                        // Error answered by the Graph API: only the transient ones are worth another attempt
+                        meterRegistry.counter("outbound.send.errors", "code",
+                                result.errorCode() != null ? String.valueOf(result.errorCode()) : "http_" + result.httpStatus()).increment();
+                        recordFailure(message, result.describeError(), !result.isRetryable());
+                    }
+                })
+                .onErrorResume(GraphApiThrottledException.class, e -> {
+                    // Throttled by Meta: the attempt counts, and the message waits at least for the pause of the rate limiter
+                    recordThrottled(message, e);
+                    return Mono.empty();
+                })
+                .onErrorResume(e -> {
+                    recordFailure(message, e.getMessage(), false);
+                    return Mono.empty();
+                })
+                .doFinally(signal -> sendTimer.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS))
+                .then();
+    }
+
+    // Puts the message back in the queue after its backoff, or fails it when the error is permanent or the attempts are exhausted
+    private void recordFailure(OutboundMessage message, String error, boolean permanent) {
+        logger.error("Failed to send {} message {} to {} (attempt {}): {}", message.getTemplateName(),
+                message.getId(), message.getRecipientNumber(), message.getAttempts(), error);
+        message.setLastError(truncate(error));
+        if (permanent || message.getAttempts() >= maxAttempts) {
+            message.setStatus(outboundStatus.FAILED);
+            failedCounter.increment();
+        } else {
+            message.setStatus(outboundStatus.PENDING);
+            message.setNextAttemptAt(LocalDateTime.now().plus(backoff(message.getAttempts())));
+        }
+    }
+
+    // Puts a throttled message back in the queue once the rate limiter pause is over, or fails it when the attempts are exhausted
+    private void recordThrottled(OutboundMessage message, GraphApiThrottledException e) {
+        logger.warn("Message {} to {} throttled (attempt {}): {}", message.getId(), message.getRecipientNumber(),
+                message.getAttempts(), e.getMessage());
+        message.setLastError(truncate(e.getMessage()));
+        if (message.getAttempts() >= maxAttempts) {
+            message.setStatus(outboundStatus.FAILED);
+            failedCounter.increment();
+            return;
+        }
+        Duration pause = e.getRetryAfter() == null ? Duration.ZERO : e.getRetryAfter();
+        // Jitter on top of the pause, so the throttled rows do not all come back on the same poll
+        Duration delay = pause.plusMillis(ThreadLocalRandom.current().nextLong(initialBackoffMs + 1));
+        message.setStatus(outboundStatus.PENDING);
+        message.setNextAttemptAt(LocalDateTime.now().plus(delay));
+    }
+
+    // Exponential backoff with equal jitter: half of the delay is fixed, the other half random, so retries are spread
+    private Duration backoff(int attempts) {
+        long delayMs = initialBackoffMs << Math.min(attempts - 1, 20);
+        delayMs = Math.min(maxBackoffMs, delayMs);
+        long half = delayMs / 2;
+        return Duration.ofMillis(half + ThreadLocalRandom.current().nextLong(half + 1));
+    }
+
+    private String truncate(String error) {
+        if (error == null) {
+            return null;
+        }
+        return error.length() > 1000 ? error.substring(0, 1000) : error;
+    }
+}
@@ -1,112 +1,304 @@
 package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
 
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-import org.sid.serviceapprobationwhatsapp.entities.ApprovalRequest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.sid.serviceapprobationwhatsapp.dto.ReminderDigestDTO;
+import org.sid.serviceapprobationwhatsapp.entities.OutboundMessage;
 import org.sid.serviceapprobationwhatsapp.enums.statut;
 import org.sid.serviceapprobationwhatsapp.repositories.ApprovalRequestRepository;
-import org.sid.serviceapprobationwhatsapp.service.PayloadCreatorService;
+import org.sid.serviceapprobationwhatsapp.repositories.ApprovalRequestRepository.ApproverItemRow;
+import org.sid.serviceapprobationwhatsapp.service.OutboundQueueService;
+import org.sid.serviceapprobationwhatsapp.service.TemplateRegistry;
 import org.sid.serviceapprobationwhatsapp.service.RappelService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.core.env.Environment;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.util.List;
-import java.util.stream.Collectors;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 
+/**
+ * Sends the reminder digests of the pending requests that are due.
+ * A request is due when its last reminder (or its creation, for the first one) is older than the interval of its
+ * reminder level: the interval grows by the escalation factor with every reminder sent, up to a maximum, and no
+ * reminder is sent after the last level or during the quiet hours. Each run first reads the due requests of every
+ * level in bounded batches, then groups them by approver, so an approver gets a single digest per run even when its
+ * requests are at different levels; the approvers are spread over the shard workers, and a shard queues the digests
+ * of its approvers and moves their requests to the next level in the same transaction.
+ */
 @Service
 public class RappelServiceImpl implements RappelService {
 
-    @Value("${whatsapp.api.url}")
-    private String whatsappApiUrl;
-
-    @Value("${whatsapp.api.token}")
-    private String whatsappApiToken;
-
     private final ApprovalRequestRepository approvalRequestRepository;
+    private final OutboundQueueService outboundQueueService;
+    private final TransactionTemplate transactionTemplate;
+    private final List<ThreadPoolTaskExecutor> shards = new ArrayList<>();
+    private final Counter remindersCounter;
 
     private static final Logger logger = LoggerFactory.getLogger(RappelServiceImpl.class);
 
-   private final PayloadCreatorService payloadCreatorService;
+   private final TemplateRegistry templateRegistry;
+
+    // WhatsApp rejects template parameters longer than 1024 characters
+    @Value("${rappel.digest.max-object-ids-length:900}")
+    private int maxObjectIdsLength;
+
+    @Value("${rappel.first-after-minutes:120}")
+    private long firstAfterMinutes;
+
+    @Value("${rappel.interval-minutes:120}")
+    private long intervalMinutes;
+
+    @Value("${rappel.escalation-factor:2.0}")
+    private double escalationFactor;
+
+    @Value("${rappel.max-interval-minutes:1440}")
+    private long maxIntervalMinutes;
 
-    public RappelServiceImpl(PayloadCreatorService payloadCreatorService, ApprovalRequestRepository approvalRequestRepository) {
-        this.payloadCreatorService = payloadCreatorService;
+    @Value("${rappel.max-reminders:5}")
+    private int maxReminders;
+
+    @Value("${rappel.batch-size:500}")
+    private int batchSize;
+
+    @Value("${rappel.max-batches-per-run:20}")
+    private int maxBatchesPerRun;
+
+    // Quiet hours in the zone below, start == end disables them
+    @Value("${rappel.quiet-hours.start:21}")
+    private int quietHoursStart;
+
+    @Value("${rappel.quiet-hours.end:8}")
+    private int quietHoursEnd;
+
+    @Value("${rappel.zone:}")
+    private String zone;
+
+    public RappelServiceImpl(TemplateRegistry templateRegistry, ApprovalRequestRepository approvalRequestRepository,
+                             OutboundQueueService outboundQueueService, PlatformTransactionManager transactionManager,
+                             MeterRegistry meterRegistry, Environment environment,
+                             @Value("${rappel.shards:4}") int shardCount) {
+        this.templateRegistry = templateRegistry;
         this.approvalRequestRepository = approvalRequestRepository;
+        this.outboundQueueService = outboundQueueService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        for (int i = 0; i < shardCount; i++) {
+            ThreadPoolTaskExecutor shard = new ThreadPoolTaskExecutor();
+            shard.setCorePoolSize(1);
+            shard.setMaxPoolSize(1);
+            shard.setThreadNamePrefix("rappel-" + i + "-");
+            shard.setVirtualThreads(Threading.VIRTUAL.isActive(environment));
+            shard.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+            shard.setWaitForTasksToCompleteOnShutdown(true);
+            shard.initialize();
+            shards.add(shard);
+        }
+        this.remindersCounter = Counter.builder("rappel.reminders")
+                .description("Reminder digests queued")
+                .register(meterRegistry);
     }
 
-    // initiating the header for the request to the WhatsApp API
-    private HttpHeaders createHeaders() {
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.add("Authorization", "Bearer " + whatsappApiToken);
-        return headers;
+    // Method to send a reminder message template to the approver of the digest
+    @Override
+    public ResponseEntity<String> sendRappelMessage(ReminderDigestDTO digest) {
+        OutboundMessage message = outboundQueueService.enqueueAll(List.of(toMessage(digest))).get(0);
+        return ResponseEntity.accepted().body("Reminder queued with id " + message.getId());
     }
 
-    // Method to send a reminder message template to the recipient
+    // Method to queue the digests of the due requests, returns the number of digests queued
     @Override
-    public ResponseEntity<String> sendRappelMessage(String recipientNumber) {
+    public int sendRappelNotifications() {
+        ZoneId zoneId = zone.isBlank() ? ZoneId.systemDefault() : ZoneId.of(zone);
+        if (isQuietHour(LocalDateTime.now(zoneId).getHour())) {
+            logger.debug("Quiet hours, reminders are postponed");
+            return 0;
+        }
 
-        System.out.println("Retrieved recipient phone number info: " + recipientNumber);
+        // Due requests of every level first, so that an approver gets one digest per run whatever the levels
+        Map<String, Integer> levels = findDueRequests();
+        if (levels.isEmpty()) {
+            return 0;
+        }
 
-        RestTemplate restTemplate = new RestTemplate();
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.add("Authorization", "Bearer " + whatsappApiToken);
+        // Then the approvers of all those requests, each approver with all of its due requests
+        Map<String, List<ApproverItemRow>> itemsByApprover = new TreeMap<>();
+        Set<String> withApprover = new HashSet<>();
+        for (List<String> chunk : chunks(new ArrayList<>(levels.keySet()))) {
+            for (ApproverItemRow row : approvalRequestRepository.findApproverItems(chunk)) {
+                itemsByApprover.computeIfAbsent(row.getApprover(), approver -> new ArrayList<>()).add(row);
+                withApprover.add(row.getApprovalId());
+            }
+        }
 
-        JSONObject requestBody = payloadCreatorService.createBaseRequestBody(recipientNumber);
-        JSONObject template = payloadCreatorService.createTemplateObject("notif_rappel");
+        // Requests without approver, move them to the next level so they are not read again
+        Map<String, Integer> withoutApprover = new HashMap<>(levels);
+        withoutApprover.keySet().removeAll(withApprover);
+        if (!withoutApprover.isEmpty()) {
+            markReminded(withoutApprover);
+        }
 
-        requestBody.put("template", template);
+        int queued = sendDigests(itemsByApprover, levels);
+        if (queued > 0) {
+            logger.info("Queued {} reminder digests for {} due requests", queued, levels.size());
+        }
+        return queued;
+    }
 
-        JSONArray components = new JSONArray();
+    // Method to read the due requests of every level, at most max-batches-per-run batches, returns their level by ID
+    private Map<String, Integer> findDueRequests() {
+        Map<String, Integer> levels = new LinkedHashMap<>();
+        int batches = 0;
+        for (int level = 0; level < maxReminders && batches < maxBatchesPerRun; level++) {
+            LocalDateTime dueBefore = LocalDateTime.now().minus(intervalOf(level));
+            String afterId = "";
+            while (batches < maxBatchesPerRun) {
+                // Keyset pagination, nothing is moved to the next level before every due request is read
+                List<String> dueIds = approvalRequestRepository.findDueForReminder(
+                        statut.Pending, level, dueBefore, afterId, PageRequest.of(0, batchSize));
+                if (dueIds.isEmpty()) {
+                    break;
+                }
+                batches++;
+                for (String id : dueIds) {
+                    levels.put(id, level);
+                }
+                if (dueIds.size() < batchSize) {
+                    break;
+                }
+                afterId = dueIds.get(dueIds.size() - 1);
+            }
+        }
+        return levels;
+    }
 
-        // Title Component
-        JSONObject titleComponent = new JSONObject();
-        titleComponent.put("type", "header");
-        components.put(titleComponent);
+    // Method to shard the approvers and queue their digests
+    private int sendDigests(Map<String, List<ApproverItemRow>> itemsByApprover, Map<String, Integer> levels) {
+        List<Map<String, List<ApproverItemRow>>> shardItems = new ArrayList<>();
+        shards.forEach(shard -> shardItems.add(new TreeMap<>()));
+        itemsByApprover.forEach((approver, items) ->
+                shardItems.get(Math.floorMod(approver.hashCode(), shards.size())).put(approver, items));
 
-        // Body Component
-        JSONArray bodyParameters = new JSONArray();
-        bodyParameters.put(payloadCreatorService.createTextParameter(String.valueOf(countPendingRequests()))); // {{1}}
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            Map<String, List<ApproverItemRow>> assigned = shardItems.get(i);
+            if (!assigned.isEmpty()) {
+                results.add(CompletableFuture.supplyAsync(() -> sendShard(assigned, levels), shards.get(i)::execute)
+                        .exceptionally(e -> {
+                            logger.error("Reminder shard failed: {}", e.getMessage(), e);
+                            return 0;
+                        }));
+            }
+        }
+        return results.stream().mapToInt(CompletableFuture::join).sum();
+    }
 
-        List<String> objectIdList = getPendingRequests().stream()
-                .map(ApprovalRequest::getObjectId)
-                .collect(Collectors.toList());
+    // Method to queue one digest per approver of the shard and move their requests to the next level, in one transaction
+    private int sendShard(Map<String, List<ApproverItemRow>> itemsByApprover, Map<String, Integer> levels) {
+        List<OutboundMessage> messages = new ArrayList<>();
+        Map<String, Integer> reminded = new HashMap<>();
+        itemsByApprover.forEach((approver, items) -> {
+            List<String> objectIds = items.stream()
+                    .map(ApproverItemRow::getObjectId)
+                    .sorted(Comparator.nullsLast(Comparator.naturalOrder()))
+                    .toList();
+            messages.add(toMessage(new ReminderDigestDTO(approver, items.size(), new ArrayList<>(objectIds))));
+            items.forEach(item -> reminded.put(item.getApprovalId(), levels.get(item.getApprovalId())));
+        });
 
-        String objectIdString = String.join(",", objectIdList);
+        transactionTemplate.executeWithoutResult(status -> {
+            outboundQueueService.enqueueAll(messages);
+            // A request shared with another shard is only moved by the first one
+            markReminded(reminded);
+        });
+        remindersCounter.increment(messages.size());
+        return messages.size();
+    }
 
-        bodyParameters.put(payloadCreatorService.createTextParameter(objectIdString));
-        JSONObject bodyComponent = new JSONObject();
-        bodyComponent.put("type", "body");
-        bodyComponent.put("parameters", bodyParameters);
-        components.put(bodyComponent);
+    // Method to move the requests to the next level, one update per level
+    private void markReminded(Map<String, Integer> levels) {
+        Map<Integer, List<String>> idsByLevel = new TreeMap<>();
+        levels.forEach((id, level) -> idsByLevel.computeIfAbsent(level, l -> new ArrayList<>()).add(id));
+        idsByLevel.forEach((level, ids) -> chunks(ids).forEach(chunk -> markReminded(chunk, level)));
+    }
 
-        // Finalize the template and request body
-        template.put("components", components);
-        requestBody.put("template", template);
+    private List<List<String>> chunks(List<String> ids) {
+        List<List<String>> chunks = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i += batchSize) {
+            chunks.add(ids.subList(i, Math.min(ids.size(), i + batchSize)));
+        }
+        return chunks;
+    }
 
-        HttpEntity<String> request = new HttpEntity<>(requestBody.toString(), createHeaders());
-        return restTemplate.postForEntity(whatsappApiUrl, request, String.class);
+    private void markReminded(Collection<String> approvalIds, int level) {
+        transactionTemplate.executeWithoutResult(status ->
+                approvalRequestRepository.markReminded(approvalIds, level, statut.Pending, LocalDateTime.now()));
     }
 
-    // Method retrieving all pending requests for the reminder message
-    @Override
-    public List<ApprovalRequest> getPendingRequests() {
-        logger.info("Retrieving all pending requests for the reminder message");
-        return approvalRequestRepository.findByDecision(statut.Pending);
+    // Method to compute the wait before the reminder of the given level
+    private Duration intervalOf(int level) {
+        if (level == 0) {
+            return Duration.ofMinutes(firstAfterMinutes);
+        }
+        double minutes = intervalMinutes * Math.pow(escalationFactor, level - 1);
+        return Duration.ofMinutes((long) Math.min(minutes, maxIntervalMinutes));
     }
 
-    // Method counting the number of pending requests for the reminder message
-    @Override
-    public int countPendingRequests() {
-        logger.info(" number of pending requests: {}", approvalRequestRepository.findByDecision(statut.Pending).size());
-        return approvalRequestRepository.findByDecision(statut.Pending).size();
+    private boolean isQuietHour(int hour) {
+        if (quietHoursStart == quietHoursEnd) {
+            return false;
+        }
+        if (quietHoursStart < quietHoursEnd) {
+            return hour >= quietHoursStart && hour < quietHoursEnd;
+        }
+        return hour >= quietHoursStart || hour < quietHoursEnd;
+    }
+
+    // Method to render the notif_rappel template of a digest
+    private OutboundMessage toMessage(ReminderDigestDTO digest) {
+        // Body {{1}}: number of pending requests, {{2}}: their objectIds
+        String requestBody = templateRegistry.render("notif_rappel", digest.getApproverNumber(),
+                String.valueOf(digest.getPendingCount()), joinObjectIds(digest.getObjectIds()));
+        return OutboundMessage.builder()
+                .recipientNumber(digest.getApproverNumber())
+                .templateName("notif_rappel")
+                .payload(requestBody)
+                .build();
+    }
+
+    // Method to join the objectIds, the list is cut with a "(+n)" suffix when it does not fit in the template parameter
+    private String joinObjectIds(List<String> objectIds) {
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < objectIds.size(); i++) {
+            String objectId = String.valueOf(objectIds.get(i));
+            int separator = joined.isEmpty() ? 0 : 1;
+            if (joined.length() + separator + objectId.length() > maxObjectIdsLength) {
+                joined.append(" (+").append(objectIds.size() - i).append(")");
+                break;
+            }
+            if (separator == 1) {
+                joined.append(',');
+            }
+            joined.append(objectId);
+        }
+        return joined.toString();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        shards.forEach(ThreadPoolTaskExecutor::shutdown);
     }
 }
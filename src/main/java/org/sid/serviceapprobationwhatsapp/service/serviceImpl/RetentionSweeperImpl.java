@@ -0,0 +1,183 @@
+package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.sid.serviceapprobationwhatsapp.service.RetentionSweeper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+
+/**
+ * Background sweeper that expires and purges the rows the OTP flow and the queues leave behind.
+ * Every task walks its table by primary key (keyset pagination): it selects the next batch of matching IDs after the
+ * last one seen, then updates or deletes exactly those IDs in one short auto-committed statement, so no long transaction
+ * is held and only a batch of rows is locked at a time. A run stops after a bounded number of batches per task.
+ * A retention of 0 days disables the purge of the corresponding table. The message-ID mappings follow the lifecycle of
+ * their approval: they are only purged once the approval is decided (or deleted) and the retention has passed.
+ */
+
+@Service
+public class RetentionSweeperImpl implements RetentionSweeper {
+
+    @Value("${retention.sweep.batch-size:500}")
+    private int batchSize;
+
+    @Value("${retention.sweep.max-batches-per-run:200}")
+    private int maxBatchesPerRun;
+
+    @Value("${retention.sweep.pause-ms:20}")
+    private long pauseMs;
+
+    @Value("${retention.otp-days:30}")
+    private int otpRetentionDays;
+
+    @Value("${retention.resend-mapping-grace-minutes:60}")
+    private int resendMappingGraceMinutes;
+
+    @Value("${retention.notification-days:90}")
+    private int notificationRetentionDays;
+
+    @Value("${retention.outbound-days:14}")
+    private int outboundRetentionDays;
+
+    @Value("${retention.webhook-inbox-days:14}")
+    private int webhookInboxRetentionDays;
+
+    @Value("${retention.message-mapping-days:30}")
+    private int messageMappingRetentionDays;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+    private final Timer sweepTimer;
+
+    private static final Logger logger = LoggerFactory.getLogger(RetentionSweeperImpl.class);
+
+    public RetentionSweeperImpl(JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.meterRegistry = meterRegistry;
+        this.sweepTimer = Timer.builder("retention.sweep.duration")
+                .description("Duration of a full retention sweep")
+                .register(meterRegistry);
+    }
+
+    // Method to run every sweep task once, returns the number of rows swept per task
+    @Override
+    @Scheduled(fixedDelayString = "${retention.sweep.interval-ms:300000}", initialDelayString = "${retention.sweep.initial-delay-ms:60000}")
+    public Map<String, Integer> sweep() {
+        Map<String, Integer> swept = new LinkedHashMap<>();
+        Timer.Sample sample = Timer.start();
+        try {
+            // OTP timestamps are written in UTC by every writer of approval_otp (OTP service, approval service)
+            LocalDateTime nowUtc = LocalDateTime.now(ZoneOffset.UTC);
+            LocalDateTime now = LocalDateTime.now();
+
+            // Pending OTPs past their expiration, so they no longer wait for a reply to be marked
+            swept.put("approval_otp.expired", run("approval_otp", "otp_id", "expired",
+                    "status = 'PENDING' AND expiration < ?", new Object[]{nowUtc},
+                    "UPDATE approval_otp SET status = 'EXPIRED' WHERE status = 'PENDING' AND otp_id IN (%s)"));
+
+            if (otpRetentionDays > 0) {
+                swept.put("approval_otp.purged", run("approval_otp", "otp_id", "purged",
+                        "status IN ('EXPIRED', 'DENIED') AND created_at < ?", new Object[]{nowUtc.minusDays(otpRetentionDays)},
+                        "DELETE FROM approval_otp WHERE otp_id IN (%s)"));
+            }
+
+            swept.put("otp_resend_mapping.purged", run("otp_resend_mapping", "mapping_id", "purged",
+                    "expiration < ?", new Object[]{now.minusMinutes(resendMappingGraceMinutes)},
+                    "DELETE FROM otp_resend_mapping WHERE mapping_id IN (%s)"));
+
+            if (notificationRetentionDays > 0) {
+                swept.put("webhook_notification.purged", run("webhook_notification", "id", "purged",
+                        "status IN ('DELIVERED', 'FAILED', 'DEAD_LETTER') AND created_at < ?", new Object[]{now.minusDays(notificationRetentionDays)},
+                        "DELETE FROM webhook_notification WHERE id IN (%s)"));
+            }
+
+            if (outboundRetentionDays > 0) {
+                swept.put("outbound_messages.purged", run("outbound_messages", "id", "purged",
+                        "status IN ('SENT', 'FAILED') AND created_at < ?", new Object[]{now.minusDays(outboundRetentionDays)},
+                        "DELETE FROM outbound_messages WHERE id IN (%s)"));
+            }
+
+            if (webhookInboxRetentionDays > 0) {
+                swept.put("webhook_inbox.purged", run("webhook_inbox", "id", "purged",
+                        "status IN ('PROCESSED', 'FAILED') AND received_at < ?", new Object[]{now.minusDays(webhookInboxRetentionDays)},
+                        "DELETE FROM webhook_inbox WHERE id IN (%s)"));
+            }
+
+            // Mappings of a request still open (pending or on hold) are kept whatever their age, a click on its buttons must still resolve
+            if (messageMappingRetentionDays > 0) {
+                swept.put("message_id_mappings.purged", run("message_id_mappings", "message_id", "purged",
+                        "created_at < ? AND NOT EXISTS (SELECT 1 FROM approval_requests ar " +
+                                "WHERE ar.id = message_id_mappings.approval_id AND ar.decision IN ('Pending', 'En_Attente'))",
+                        new Object[]{now.minusDays(messageMappingRetentionDays)},
+                        "DELETE FROM message_id_mappings WHERE message_id IN (%s)"));
+            }
+        } catch (Exception e) {
+            logger.error("Error during the retention sweep", e);
+        } finally {
+            sample.stop(sweepTimer);
+        }
+
+        int total = swept.values().stream().mapToInt(Integer::intValue).sum();
+        if (total > 0) {
+            logger.info("Retention sweep done: {}", swept);
+        }
+        return swept;
+    }
+
+    // --------------------------- Helper methods ---------------------------
+
+    // Walks the table by key in batches, and applies the statement to the IDs of each batch
+    private int run(String table, String idColumn, String action, String condition, Object[] params, String statement) {
+        String select = "SELECT " + idColumn + " FROM " + table + " WHERE " + condition;
+        String order = " ORDER BY " + idColumn + " LIMIT " + batchSize;
+        String firstBatch = select + order;
+        String nextBatch = select + " AND " + idColumn + " > ?" + order;
+        Object lastId = null;
+        int total = 0;
+        for (int batch = 0; batch < maxBatchesPerRun; batch++) {
+            List<Object> ids = lastId == null
+                    ? jdbcTemplate.queryForList(firstBatch, Object.class, params)
+                    : jdbcTemplate.queryForList(nextBatch, Object.class, append(params, lastId));
+            if (ids.isEmpty()) {
+                break;
+            }
+            String placeholders = String.join(", ", Collections.nCopies(ids.size(), "?"));
+            total += jdbcTemplate.update(String.format(statement, placeholders), ids.toArray());
+            lastId = ids.get(ids.size() - 1);
+            if (ids.size() < batchSize) {
+                break;
+            }
+            pause();
+        }
+        if (total > 0) {
+            meterRegistry.counter("retention.rows.swept", "table", table, "action", action).increment(total);
+        }
+        return total;
+    }
+
+    private Object[] append(Object[] params, Object value) {
+        Object[] all = Arrays.copyOf(params, params.length + 1);
+        all[params.length] = value;
+        return all;
+    }
+
+    // Leaves room to the application traffic between two batches
+    private void pause() {
+        if (pauseMs <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(pauseMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -5,13 +5,17 @@ import com.twilio.rest.api.v2010.account.Message;
 import com.twilio.type.PhoneNumber;
 import jakarta.annotation.PostConstruct;
 import okhttp3.*;
+import org.sid.serviceapprobationwhatsapp.service.OtpSmsProvider;
 import org.sid.serviceapprobationwhatsapp.service.SMSService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -20,11 +24,12 @@ import java.io.IOException;
  * and provides a method to send SMS messages to a specified phone number.
  * This is a bypass to OTPs using normal SMS and not Verify by Twilio, which is used by default.
  * This service is used when the user wants to receive the OTP via SMS but does not want to use Verify by Twilio.
+ * It is also the "bulksms" provider of the OtpDeliveryRouter.
  */
 
 
 @Service
-public class SMSServiceImpl implements SMSService {
+public class SMSServiceImpl implements SMSService, OtpSmsProvider {
 
     @Value("${twilio.account.sid}")
     private String accountSid;
@@ -35,14 +40,22 @@ public class SMSServiceImpl implements SMSService {
     @Value("${twilio.phone_number}") // Injects the Twilio Phone Number from the application.properties file
     private String twilioPhoneNumber;
 
-    @Value("${bulksms.api.key}")
-    private String bulkSmsApiKey;
-
-    @Value("${bulksms.api.base-url}")
-    private String bulkSmsBaseUrl;
+    private final String bulkSmsApiKey;
+    private final String bulkSmsBaseUrl;
 
     Logger logger = LoggerFactory.getLogger(TwilioServiceImpl.class);
 
+    // Shared pooled client (see HttpClientConfig), keeps the connection to BulkSMS alive between OTPs
+    private final OkHttpClient bulkSmsHttpClient;
+
+    public SMSServiceImpl(@Qualifier("bulkSmsHttpClient") OkHttpClient bulkSmsHttpClient,
+                          @Value("${bulksms.api.key}") String bulkSmsApiKey,
+                          @Value("${bulksms.api.base-url}") String bulkSmsBaseUrl) {
+        this.bulkSmsHttpClient = bulkSmsHttpClient;
+        this.bulkSmsApiKey = bulkSmsApiKey;
+        this.bulkSmsBaseUrl = bulkSmsBaseUrl;
+    }
+
 
     // Appelée après que instance de la class ait été créée et que toutes les dépendances aient été injectées.
     @PostConstruct
@@ -60,7 +73,23 @@ public class SMSServiceImpl implements SMSService {
 
     @Override
     public void sendSmsWithBulk(String toPhoneNumber, String otp) throws IOException {
-        OkHttpClient client = new OkHttpClient().newBuilder().build();
+        send(toPhoneNumber, otp, Duration.ZERO);
+    }
+
+    @Override
+    public String getName() {
+        return "bulksms";
+    }
+
+    // Method to send the OTP as the bulksms provider, BulkSMS only accepts the local format 06/7XXXXXXXX
+    // The comma-separated "tel" list shares one message, so distinct OTPs cannot be batched (supportsBatch stays false)
+    @Override
+    public void sendOtp(String phoneNumber, String otp, Duration deadline) throws IOException {
+        send(phoneNumber.replaceFirst("^\\+212", "0"), otp, deadline);
+    }
+
+    // Duration.ZERO means no deadline other than the client timeouts
+    private void send(String toPhoneNumber, String otp, Duration deadline) throws IOException {
         String message = "Your OTP code is: " + otp;
         // BulkSMS.ma expects application/x-www-form-urlencoded
         RequestBody body = new FormBody.Builder()
@@ -75,7 +104,9 @@ public class SMSServiceImpl implements SMSService {
                 .addHeader("Content-Type", "application/x-www-form-urlencoded") //
                 .build();
 
-        try (Response response = client.newCall(request).execute()) {
+        Call call = bulkSmsHttpClient.newCall(request);
+        call.timeout().timeout(deadline.toMillis(), TimeUnit.MILLISECONDS);
+        try (Response response = call.execute()) {
             if (!response.isSuccessful()) {
                 throw new IOException("Failed to send SMS: " + response.code() + " - " + response.message());
             }
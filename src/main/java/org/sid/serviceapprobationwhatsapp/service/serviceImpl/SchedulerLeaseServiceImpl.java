@@ -0,0 +1,67 @@
+package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
+
+import org.sid.serviceapprobationwhatsapp.service.SchedulerLeaseService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Database lease so that a scheduled job runs on one instance at a time, backed by the scheduler_lease table.
+ * A lease is taken with a single conditional UPDATE (free, expired or already ours) or by inserting its row,
+ * so two instances can never hold it together. An instance that dies keeps the lease only until it expires.
+ */
+
+@Service
+public class SchedulerLeaseServiceImpl implements SchedulerLeaseService {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String ownerId;
+
+    private static final Logger logger = LoggerFactory.getLogger(SchedulerLeaseServiceImpl.class);
+
+    public SchedulerLeaseServiceImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        // pid@host plus a random suffix, unique even for two instances on the same host
+        this.ownerId = ManagementFactory.getRuntimeMXBean().getName() + ":" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    // Method to take or renew the lease, returns false when another instance holds it
+    @Override
+    public boolean tryAcquire(String leaseName, Duration duration) {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime leasedUntil = now.plus(duration);
+        int updated = jdbcTemplate.update(
+                "UPDATE scheduler_lease SET owner_id = ?, leased_until = ? WHERE lease_name = ? AND (leased_until <= ? OR owner_id = ?)",
+                ownerId, leasedUntil, leaseName, now, ownerId);
+        if (updated == 1) {
+            return true;
+        }
+        try {
+            jdbcTemplate.update("INSERT INTO scheduler_lease (lease_name, owner_id, leased_until) VALUES (?, ?, ?)",
+                    leaseName, ownerId, leasedUntil);
+            return true;
+        } catch (DuplicateKeyException e) {
+            logger.debug("Lease {} is held by another instance", leaseName);
+            return false;
+        }
+    }
+
+    // Method to give the lease back before it expires, only if this instance still holds it
+    @Override
+    public void release(String leaseName) {
+        jdbcTemplate.update("UPDATE scheduler_lease SET leased_until = ? WHERE lease_name = ? AND owner_id = ?",
+                LocalDateTime.now(), leaseName, ownerId);
+    }
+
+    @Override
+    public String getOwnerId() {
+        return ownerId;
+    }
+}
@@ -0,0 +1,137 @@
+package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.sid.serviceapprobationwhatsapp.dto.SmsSubmission;
+import org.sid.serviceapprobationwhatsapp.dto.SmsSubmissionResult;
+import org.sid.serviceapprobationwhatsapp.service.OtpSmsProvider;
+import org.sid.serviceapprobationwhatsapp.service.SmsBatchDispatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Micro-batching of the OTP SMS for the providers that accept several messages in one call (Infobip).
+ * The first OTP for a provider opens a batch, the OTPs submitted during the linger window (otp.sms.batch.linger-ms)
+ * join it, and the batch is sent with one provider call when the linger expires or when it is full.
+ * Every submitter gets the result of its own recipient, mapped back from the batch response.
+ * The batch call is bounded by the earliest deadline of its submissions.
+ */
+
+@Service
+public class SmsBatchDispatcherImpl implements SmsBatchDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(SmsBatchDispatcherImpl.class);
+
+    private final long lingerMs;
+    private final int maxSize;
+    private final MeterRegistry meterRegistry;
+    private final ThreadPoolTaskScheduler lingerScheduler;
+    // Provider name -> batch still collecting OTPs
+    private final Map<String, PendingBatch> openBatches = new HashMap<>();
+
+    public SmsBatchDispatcherImpl(MeterRegistry meterRegistry,
+                                  Environment environment,
+                                  @Value("${otp.sms.batch.linger-ms:50}") long lingerMs,
+                                  @Value("${otp.sms.batch.max-size:100}") int maxSize,
+                                  @Value("${otp.sms.batch.threads:4}") int threads) {
+        this.meterRegistry = meterRegistry;
+        this.lingerMs = lingerMs;
+        this.maxSize = Math.max(1, maxSize);
+        // The batch calls are blocking, they run on the linger threads
+        this.lingerScheduler = new ThreadPoolTaskScheduler();
+        this.lingerScheduler.setPoolSize(threads);
+        this.lingerScheduler.setThreadNamePrefix("sms-batch-");
+        this.lingerScheduler.setVirtualThreads(Threading.VIRTUAL.isActive(environment));
+        this.lingerScheduler.initialize();
+    }
+
+    @Override
+    public CompletableFuture<SmsSubmissionResult> submit(OtpSmsProvider provider, SmsSubmission submission, Duration deadline) {
+        PendingSubmission pending = new PendingSubmission(submission, System.nanoTime() + deadline.toNanos(), new CompletableFuture<>());
+        PendingBatch full = null;
+        synchronized (openBatches) {
+            PendingBatch batch = openBatches.get(provider.getName());
+            if (batch == null) {
+                PendingBatch opened = new PendingBatch(provider, new ArrayList<>());
+                openBatches.put(provider.getName(), opened);
+                lingerScheduler.schedule(() -> flush(opened), Instant.now().plus(Duration.ofMillis(lingerMs)));
+                batch = opened;
+            }
+            batch.submissions().add(pending);
+            if (batch.submissions().size() >= maxSize) {
+                openBatches.remove(provider.getName());
+                full = batch;
+            }
+        }
+        if (full != null) {
+            PendingBatch toSend = full;
+            lingerScheduler.execute(() -> send(toSend));
+        }
+        return pending.result();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        lingerScheduler.shutdown();
+    }
+
+    // --------------------------- Helper methods ---------------------------
+
+    private void flush(PendingBatch batch) {
+        synchronized (openBatches) {
+            // Already sent because it was full
+            if (!openBatches.remove(batch.provider().getName(), batch)) {
+                return;
+            }
+        }
+        send(batch);
+    }
+
+    // Method to send the batch with one provider call and complete every submission with its own result
+    private void send(PendingBatch batch) {
+        List<PendingSubmission> submissions = batch.submissions();
+        String providerName = batch.provider().getName();
+        DistributionSummary.builder("otp.sms.batch.size")
+                .description("Number of OTPs sent in one provider call")
+                .tag("provider", providerName)
+                .register(meterRegistry)
+                .record(submissions.size());
+
+        long deadline = submissions.stream().mapToLong(PendingSubmission::deadline).min().orElseThrow();
+        long remainingNanos = deadline - System.nanoTime();
+        try {
+            if (remainingNanos <= 0) {
+                throw new InterruptedIOException("timeout");
+            }
+            List<SmsSubmissionResult> results = batch.provider().sendOtps(
+                    submissions.stream().map(PendingSubmission::submission).toList(), Duration.ofNanos(remainingNanos));
+            for (int i = 0; i < submissions.size(); i++) {
+                submissions.get(i).result().complete(results.get(i));
+            }
+            logger.info("Sent a batch of {} OTP SMS with {}", submissions.size(), providerName);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Batch of {} OTP SMS failed with {}: {}", submissions.size(), providerName, e.getMessage());
+            submissions.forEach(submission -> submission.result().completeExceptionally(e));
+        }
+    }
+
+    private record PendingSubmission(SmsSubmission submission, long deadline, CompletableFuture<SmsSubmissionResult> result) {}
+
+    private record PendingBatch(OtpSmsProvider provider, List<PendingSubmission> submissions) {}
+}
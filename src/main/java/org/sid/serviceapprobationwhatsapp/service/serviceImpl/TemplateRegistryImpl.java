@@ -0,0 +1,234 @@
+package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.sid.serviceapprobationwhatsapp.service.PayloadCreatorService;
+import org.sid.serviceapprobationwhatsapp.service.TemplateRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Registry of the WhatsApp templates sent by the service, compiled once at startup.
+ * Each template is built one time with the PayloadCreatorService, with a marker in place of every variable value,
+ * then split into its literal JSON segments and its parameter slots. A send only appends the segments and the
+ * JSON-escaped values to a per-thread buffer, instead of building and serializing a JSONObject tree per message.
+ * Slot 0 is always the recipient number, the next slots are the template parameters in order.
+ * A null value keeps the behaviour of the org.json builders, which leave its key out: such a message is rendered
+ * from the skeleton tree instead of the segments.
+ */
+
+@Service
+public class TemplateRegistryImpl implements TemplateRegistry {
+
+    private static final Pattern SLOT_PATTERN = Pattern.compile("@@slot_(\\d+)@@");
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final PayloadCreatorService payloadCreatorService;
+    private final Map<String, CompiledTemplate> templates = new HashMap<>();
+    private final ThreadLocal<StringBuilder> buffers = ThreadLocal.withInitial(() -> new StringBuilder(1024));
+
+    private static final Logger logger = LoggerFactory.getLogger(TemplateRegistryImpl.class);
+
+    public TemplateRegistryImpl(PayloadCreatorService payloadCreatorService) {
+        this.payloadCreatorService = payloadCreatorService;
+
+        // Header: origin, body: demandeur, objectType, objectId, objectLabel, buttons: approve, reject, attente payloads
+        register("generic_approval", template("generic_approval",
+                header(slot(1)),
+                body(slot(2), slot(3), slot(4), slot(5)),
+                quickReplyButton("0", slot(6)),
+                quickReplyButton("1", slot(7)),
+                quickReplyButton("2", slot(8))));
+        // Header: objectId of the approval waiting for a comment
+        register("traitement", template("traitement", header(slot(1)), body()));
+        // Body: number of pending requests, objectIds of the pending requests
+        register("notif_rappel", template("notif_rappel", header(), body(slot(1), slot(2))));
+        register("envoieotp", template("envoieotp", header(), body()));
+        // Button: resend payload
+        register("resendit", template("resendit", header(), body(), quickReplyButton("0", slot(1))));
+        register("retry", template("retry", header(), body()));
+    }
+
+    // Method to render a template for one recipient, the parameters fill the slots 1..n in order
+    @Override
+    public String render(String templateName, String recipientNumber, String... parameters) {
+        CompiledTemplate template = templates.get(templateName);
+        if (template == null) {
+            throw new IllegalArgumentException("Unknown template: " + templateName);
+        }
+        if (parameters.length != template.slotCount() - 1) {
+            throw new IllegalArgumentException("Template " + templateName + " expects " + (template.slotCount() - 1)
+                    + " parameter(s), got " + parameters.length);
+        }
+
+        if (hasNull(recipientNumber, parameters)) {
+            return ((JSONObject) fill(template.skeleton(), recipientNumber, parameters)).toString();
+        }
+
+        StringBuilder buffer = buffers.get();
+        buffer.setLength(0);
+        buffer.append(template.literals()[0]);
+        for (int i = 0; i < template.slots().length; i++) {
+            int slot = template.slots()[i];
+            appendEscaped(buffer, slot == 0 ? recipientNumber : parameters[slot - 1]);
+            buffer.append(template.literals()[i + 1]);
+        }
+        String payload = buffer.toString();
+
+        // Do not keep a buffer grown by an unusually large message
+        if (buffer.capacity() > MAX_RETAINED_BUFFER) {
+            buffers.remove();
+        }
+        return payload;
+    }
+
+    @Override
+    public Set<String> getTemplateNames() {
+        return Collections.unmodifiableSet(templates.keySet());
+    }
+
+    // --------------------------- Helper methods ---------------------------
+
+    // Splits the serialized skeleton around the slot markers
+    private void register(String templateName, JSONObject skeleton) {
+        String json = skeleton.toString();
+        List<String> literals = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        int slotCount = 0;
+        Matcher matcher = SLOT_PATTERN.matcher(json);
+        int start = 0;
+        while (matcher.find()) {
+            literals.add(json.substring(start, matcher.start()));
+            int slot = Integer.parseInt(matcher.group(1));
+            slots.add(slot);
+            slotCount = Math.max(slotCount, slot + 1);
+            start = matcher.end();
+        }
+        literals.add(json.substring(start));
+
+        templates.put(templateName, new CompiledTemplate(
+                skeleton,
+                literals.toArray(new String[0]),
+                slots.stream().mapToInt(Integer::intValue).toArray(),
+                slotCount));
+        logger.debug("Template {} compiled with {} slot(s)", templateName, slotCount);
+    }
+
+    private JSONObject template(String templateName, JSONObject... components) {
+        JSONObject requestBody = payloadCreatorService.createBaseRequestBody(slot(0));
+        JSONObject template = payloadCreatorService.createTemplateObject(templateName);
+        template.put("components", new JSONArray(Arrays.asList(components)));
+        requestBody.put("template", template);
+        return requestBody;
+    }
+
+    private JSONObject header(String... parameters) {
+        return component("header", parameters);
+    }
+
+    private JSONObject body(String... parameters) {
+        return component("body", parameters);
+    }
+
+    private JSONObject component(String type, String... parameters) {
+        JSONObject component = new JSONObject();
+        component.put("type", type);
+        if (parameters.length > 0) {
+            JSONArray textParameters = new JSONArray();
+            for (String parameter : parameters) {
+                textParameters.put(payloadCreatorService.createTextParameter(parameter));
+            }
+            component.put("parameters", textParameters);
+        }
+        return component;
+    }
+
+    // Quick reply button carrying the payload sent back in the webhook when it is clicked
+    private JSONObject quickReplyButton(String index, String payload) {
+        JSONObject buttonComponent = new JSONObject();
+        buttonComponent.put("type", "button");
+        buttonComponent.put("sub_type", "quick_reply");
+        buttonComponent.put("index", index);
+        JSONObject buttonPayload = new JSONObject();
+        buttonPayload.put("type", "payload");
+        buttonPayload.put("payload", payload);
+        buttonComponent.put("parameters", new JSONArray().put(buttonPayload));
+        return buttonComponent;
+    }
+
+    private String slot(int index) {
+        return "@@slot_" + index + "@@";
+    }
+
+    private boolean hasNull(String recipientNumber, String... parameters) {
+        if (recipientNumber == null) {
+            return true;
+        }
+        for (String parameter : parameters) {
+            if (parameter == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Copies the skeleton with the values in place of the slot markers, a null value removes its key like JSONObject.put
+    private Object fill(Object node, String recipientNumber, String... parameters) {
+        if (node instanceof JSONObject object) {
+            JSONObject filled = new JSONObject();
+            for (String key : object.keySet()) {
+                filled.put(key, fill(object.get(key), recipientNumber, parameters));
+            }
+            return filled;
+        }
+        if (node instanceof JSONArray array) {
+            JSONArray filled = new JSONArray();
+            for (Object element : array) {
+                filled.put(fill(element, recipientNumber, parameters));
+            }
+            return filled;
+        }
+        if (node instanceof String text) {
+            Matcher matcher = SLOT_PATTERN.matcher(text);
+            if (matcher.matches()) {
+                int slot = Integer.parseInt(matcher.group(1));
+                return slot == 0 ? recipientNumber : parameters[slot - 1];
+            }
+        }
+        return node;
+    }
+
+    // Appends the value as the content of a JSON string
+    private void appendEscaped(StringBuilder buffer, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> buffer.append("\\\"");
+                case '\\' -> buffer.append("\\\\");
+                case '\n' -> buffer.append("\\n");
+                case '\r' -> buffer.append("\\r");
+                case '\t' -> buffer.append("\\t");
+                case '\b' -> buffer.append("\\b");
+                case '\f' -> buffer.append("\\f");
+                default -> {
+                    // Other control characters, and the line separators that break JavaScript parsers
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                        buffer.append("\\u").append(HEX[(c >> 12) & 0xF]).append(HEX[(c >> 8) & 0xF])
+                                .append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+                    } else {
+                        buffer.append(c);
+                    }
+                }
+            }
+        }
+    }
+
+    private record CompiledTemplate(JSONObject skeleton, String[] literals, int[] slots, int slotCount) {
+    }
+}
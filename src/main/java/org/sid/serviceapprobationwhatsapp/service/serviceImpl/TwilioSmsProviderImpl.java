@@ -0,0 +1,73 @@
+package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
+
+import okhttp3.*;
+import org.sid.serviceapprobationwhatsapp.service.OtpSmsProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The "twilio" provider of the OtpDeliveryRouter.
+ * Sends our own OTP as a plain SMS with the Twilio Messages REST API (not Verify, which generates its own code),
+ * on the shared pooled OkHttp client so that the call can be bounded by the router deadline.
+ */
+
+@Service
+public class TwilioSmsProviderImpl implements OtpSmsProvider {
+
+    private static final Logger logger = LoggerFactory.getLogger(TwilioSmsProviderImpl.class);
+
+    private final OkHttpClient twilioHttpClient;
+    private final String accountSid;
+    private final String authToken;
+    private final String fromPhoneNumber;
+    private final String baseUrl;
+
+    public TwilioSmsProviderImpl(@Qualifier("twilioHttpClient") OkHttpClient twilioHttpClient,
+                                 @Value("${twilio.account.sid}") String accountSid,
+                                 @Value("${twilio.auth.token}") String authToken,
+                                 @Value("${twilio.phone_number}") String fromPhoneNumber,
+                                 @Value("${twilio.api.base-url:https://api.twilio.com}") String baseUrl) {
+        this.twilioHttpClient = twilioHttpClient;
+        this.accountSid = accountSid;
+        this.authToken = authToken;
+        this.fromPhoneNumber = fromPhoneNumber;
+        this.baseUrl = baseUrl;
+    }
+
+    @Override
+    public String getName() {
+        return "twilio";
+    }
+
+    // Method to send the OTP with POST /2010-04-01/Accounts/{sid}/Messages.json, Duration.ZERO means no deadline
+    @Override
+    public void sendOtp(String phoneNumber, String otp, Duration deadline) throws IOException {
+        RequestBody body = new FormBody.Builder()
+                .add("To", phoneNumber)
+                .add("From", fromPhoneNumber)
+                .add("Body", "Your OTP code is: " + otp)
+                .build();
+
+        Request request = new Request.Builder()
+                .url(baseUrl + "/2010-04-01/Accounts/" + accountSid + "/Messages.json")
+                .post(body)
+                .addHeader("Authorization", Credentials.basic(accountSid, authToken))
+                .build();
+
+        Call call = twilioHttpClient.newCall(request);
+        call.timeout().timeout(deadline.toMillis(), TimeUnit.MILLISECONDS);
+        try (Response response = call.execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("Failed to send SMS with Twilio: " + response.code() + " - " + response.message());
+            }
+            logger.info("Twilio SMS accepted for: {}", phoneNumber);
+        }
+    }
+}
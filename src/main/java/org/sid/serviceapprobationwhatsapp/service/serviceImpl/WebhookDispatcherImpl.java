@@ -0,0 +1,99 @@
+package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.sid.serviceapprobationwhatsapp.service.WebhookDispatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Partitioned executor for the incoming webhook events.
+ * Each event is routed to a lane chosen from the sender phone number, and each lane is a single worker thread
+ * with a bounded queue: the events of one sender (button click, then the OTP typed right after it) are processed
+ * strictly in order, while different senders are processed in parallel on the other lanes.
+ * When the lane of a sender is full the event is refused, it stays in the webhook inbox and is dispatched again later.
+ * In the virtual thread mode each lane runs on a virtual thread, with the same ordering.
+ */
+
+@Service
+public class WebhookDispatcherImpl implements WebhookDispatcher {
+
+    private final List<ThreadPoolTaskExecutor> lanes = new ArrayList<>();
+    private final List<Timer> lagTimers = new ArrayList<>();
+    private final Counter rejectedCounter;
+
+    private static final Logger logger = LoggerFactory.getLogger(WebhookDispatcherImpl.class);
+
+    public WebhookDispatcherImpl(MeterRegistry meterRegistry, Environment environment,
+                                 @Value("${webhook.executor.partitions:16}") int partitions,
+                                 @Value("${webhook.executor.queue-capacity:500}") int queueCapacity) {
+        for (int i = 0; i < partitions; i++) {
+            ThreadPoolTaskExecutor lane = new ThreadPoolTaskExecutor();
+            lane.setCorePoolSize(1);
+            lane.setMaxPoolSize(1);
+            lane.setQueueCapacity(queueCapacity);
+            lane.setThreadNamePrefix("webhook-" + i + "-");
+            lane.setVirtualThreads(Threading.VIRTUAL.isActive(environment));
+            lane.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+            lane.setWaitForTasksToCompleteOnShutdown(true);
+            lane.setAwaitTerminationSeconds(30);
+            lane.initialize();
+            lanes.add(lane);
+
+            String partition = String.valueOf(i);
+            Gauge.builder("webhook.partition.backlog", lane, ThreadPoolTaskExecutor::getQueueSize)
+                    .description("Events waiting in the lane of the partition")
+                    .tag("partition", partition)
+                    .register(meterRegistry);
+            lagTimers.add(Timer.builder("webhook.partition.lag")
+                    .description("Time between the dispatch of an event and the start of its processing")
+                    .tag("partition", partition)
+                    .register(meterRegistry));
+        }
+        this.rejectedCounter = Counter.builder("webhook.rejected")
+                .description("Events refused because the lane of the sender was full")
+                .register(meterRegistry);
+    }
+
+    // Method to run a task on the lane of its sender, returns false when the lane is full
+    @Override
+    public boolean dispatch(String senderKey, Runnable task) {
+        int partition = Math.floorMod(senderKey == null ? 0 : senderKey.hashCode(), lanes.size());
+        long receivedAt = System.nanoTime();
+        try {
+            lanes.get(partition).execute(() -> {
+                lagTimers.get(partition).record(System.nanoTime() - receivedAt, TimeUnit.NANOSECONDS);
+                task.run();
+            });
+            return true;
+        } catch (TaskRejectedException e) {
+            rejectedCounter.increment();
+            logger.warn("Webhook lane {} is full, refusing event from {}", partition, senderKey);
+            return false;
+        }
+    }
+
+    @Override
+    public int getBacklog() {
+        return lanes.stream().mapToInt(ThreadPoolTaskExecutor::getQueueSize).sum();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        lanes.forEach(ThreadPoolTaskExecutor::shutdown);
+    }
+}
@@ -0,0 +1,221 @@
+package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.sid.serviceapprobationwhatsapp.dto.WebhookEvent;
+import org.sid.serviceapprobationwhatsapp.service.WebhookEventParser;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming parser of the WhatsApp webhook payload.
+ * The body is read token by token in one pass, every entry, change, message and status is decoded straight into
+ * a WebhookEvent, and the fields the service does not use (contacts, pricing, conversation, ...) are skipped
+ * without being materialized. Message types other than button and text are decoded as an OtherMessage, which is
+ * only marked as read. Events without an ID are skipped since they can be neither deduplicated nor marked as read.
+ */
+
+@Service
+public class WebhookEventParserImpl implements WebhookEventParser {
+
+    private final JsonFactory jsonFactory;
+
+    public WebhookEventParserImpl(ObjectMapper objectMapper) {
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    @Override
+    public List<WebhookEvent> parse(byte[] body) throws IOException {
+        List<WebhookEvent> events = new ArrayList<>();
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if ("entry".equals(field) && parser.currentToken() == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        parseEntry(parser, events);
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return events;
+    }
+
+    // --------------------------- Helper methods ---------------------------
+
+    private void parseEntry(JsonParser parser, List<WebhookEvent> events) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if ("changes".equals(field) && parser.currentToken() == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    parseChange(parser, events);
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private void parseChange(JsonParser parser, List<WebhookEvent> events) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if ("value".equals(field) && parser.currentToken() == JsonToken.START_OBJECT) {
+                parseValue(parser, events);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    // The metadata may come after the messages, the phone number ID is applied once the whole value is read
+    private void parseValue(JsonParser parser, List<WebhookEvent> events) throws IOException {
+        int first = events.size();
+        String phoneNumberId = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken token = parser.nextToken();
+            if ("metadata".equals(field) && token == JsonToken.START_OBJECT) {
+                phoneNumberId = parsePhoneNumberId(parser);
+            } else if ("messages".equals(field) && token == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    WebhookEvent message = parseMessage(parser);
+                    if (message != null) {
+                        events.add(message);
+                    }
+                }
+            } else if ("statuses".equals(field) && token == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    WebhookEvent status = parseStatus(parser);
+                    if (status != null) {
+                        events.add(status);
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        for (int i = first; i < events.size(); i++) {
+            events.set(i, events.get(i).withPhoneNumberId(phoneNumberId));
+        }
+    }
+
+    private String parsePhoneNumberId(JsonParser parser) throws IOException {
+        String phoneNumberId = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if ("phone_number_id".equals(field)) {
+                phoneNumberId = scalar(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return phoneNumberId;
+    }
+
+    // Returns null for a message without ID
+    private WebhookEvent parseMessage(JsonParser parser) throws IOException {
+        String id = null, from = null, type = null, contextId = null;
+        String buttonText = null, buttonPayload = null, textBody = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken token = parser.nextToken();
+            switch (field) {
+                case "id" -> id = scalar(parser);
+                case "from" -> from = scalar(parser);
+                case "type" -> type = scalar(parser);
+                case "context" -> {
+                    if (token == JsonToken.START_OBJECT) {
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String contextField = parser.currentName();
+                            parser.nextToken();
+                            if ("id".equals(contextField)) {
+                                contextId = scalar(parser);
+                            } else {
+                                parser.skipChildren();
+                            }
+                        }
+                    }
+                }
+                case "button" -> {
+                    if (token == JsonToken.START_OBJECT) {
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String buttonField = parser.currentName();
+                            parser.nextToken();
+                            if ("text".equals(buttonField)) {
+                                buttonText = scalar(parser);
+                            } else if ("payload".equals(buttonField)) {
+                                buttonPayload = scalar(parser);
+                            } else {
+                                parser.skipChildren();
+                            }
+                        }
+                    }
+                }
+                case "text" -> {
+                    if (token == JsonToken.START_OBJECT) {
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String textField = parser.currentName();
+                            parser.nextToken();
+                            if ("body".equals(textField)) {
+                                textBody = scalar(parser);
+                            } else {
+                                parser.skipChildren();
+                            }
+                        }
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+        if (id == null) {
+            return null;
+        }
+        if ("button".equals(type)) {
+            return new WebhookEvent.ButtonClick(null, id, from, contextId, buttonText, buttonPayload);
+        } else if ("text".equals(type)) {
+            return new WebhookEvent.TextMessage(null, id, from, contextId, textBody);
+        }
+        return new WebhookEvent.OtherMessage(null, id, from, type);
+    }
+
+    private WebhookEvent parseStatus(JsonParser parser) throws IOException {
+        String id = null, status = null, recipientId = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "id" -> id = scalar(parser);
+                case "status" -> status = scalar(parser);
+                case "recipient_id" -> recipientId = scalar(parser);
+                default -> parser.skipChildren();
+            }
+        }
+        return id == null ? null : new WebhookEvent.StatusUpdate(null, id, recipientId, status);
+    }
+
+    // Value of a scalar field, a nested object or array in its place is skipped
+    private String scalar(JsonParser parser) throws IOException {
+        if (parser.currentToken().isStructStart()) {
+            parser.skipChildren();
+            return null;
+        }
+        return parser.getValueAsString();
+    }
+
+    private void expect(JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Invalid webhook payload: expected " + expected + " but found " + actual);
+        }
+    }
+}
@@ -1,15 +1,15 @@
 package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
 
 import jakarta.persistence.EntityNotFoundException;
-import org.sid.serviceapprobationwhatsapp.config.WhatsAppConfig;
+import org.sid.serviceapprobationwhatsapp.dto.WebhookEvent;
 import org.sid.serviceapprobationwhatsapp.entities.ApprovalOTP;
 import org.sid.serviceapprobationwhatsapp.entities.ApprovalRequest;
 import org.sid.serviceapprobationwhatsapp.entities.OtpResendMapping;
 import org.sid.serviceapprobationwhatsapp.enums.otpStatus;
 import org.sid.serviceapprobationwhatsapp.enums.statut;
-import org.sid.serviceapprobationwhatsapp.repositories.ApprovalOtpRepository;
 import org.sid.serviceapprobationwhatsapp.repositories.ApprovalRequestRepository;
 import org.sid.serviceapprobationwhatsapp.service.*;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
@@ -17,14 +17,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
  This service is handling all the webhook payload and treatment done to it
  Handles incoming button and text type messages from WhatsApp.
- Needs to implements to webhookNotification to the callbackURL provided by the external system
+ Notifies the decisions to the callbackURL provided by the external system (CallbackDeliveryService)
+ The decision is notified as soon as the OTP is validated, before the approver answered the comment prompt, so that
+ the calling system never waits on the approver; the comment, when it comes, is notified in a second callback
+ carrying the same decision and the comment.
  */
 
 
@@ -32,118 +35,97 @@ import java.util.concurrent.ConcurrentHashMap;
 public class WebhookHandlerServiceImpl implements WebhookHandlerService {
 
     private final WhatsAppService whatsAppService;
-    private final SMSService smsService;
+    private final OtpDeliveryRouter otpDeliveryRouter;
     private final OtpService otpService;
     private final OtpMessage otpMessage;
-    private final ApprovalOtpRepository approvalOtpRepository;
+    private final ActiveOtpService activeOtpService;
     private final OtpResendMappingService otpResendMappingService;
     private final ApprovalService approvalService;
     private final MessageIdMappingService messageIdMappingService;
     private final ApprovalRequestRepository approvalRequestRepository;
-    private final InfobipService infobipService;
-    private final WhatsAppConfig whatsAppConfig;
+    private final GraphApiClient graphApiClient;
+    private final CallbackDeliveryService callbackDeliveryService;
 
     private static final Logger logger = LoggerFactory.getLogger(WebhookHandlerServiceImpl.class);
 
-    // Map used to associate the OTP with the approval request
-    // The key is the approval ID and the value is the OTP
-    // Key: The sanitized phone number ; Value: The approval ID associated with the OTP process for that phone number.
-    private final Map<String, String> otpApprovalMap = new ConcurrentHashMap<>();
+    // The conversation state lives in the ConversationStateStore so that any instance can handle the next message
+    // Namespace used to associate the OTP with the approval request
+    // Key: The phone number ; Value: The approval ID associated with the OTP process for that phone number.
+    private static final String OTP_APPROVAL = "otp-approval";
 
-    // Map used to store the action taken by the user for a specific approval request
-    // The key is the approval ID and the value is the action
-    private final Map<String, String> approvalActionCache = new ConcurrentHashMap<>();
+    // Namespace used to store the action taken by the user for a specific approval request
+    // Key: The approval ID ; Value: The button payload
+    private static final String APPROVAL_ACTION = "approval-action";
 
-    // Map to store the message ID of the WhatsApp message that triggered the approval process
-    // The key is the message ID and the value is the approval ID
-    private final Map<String, String> commentAwaiters = new ConcurrentHashMap<>();
+    // Namespace used to store the comment awaited from a phone number
+    // Key: The phone number ; Value: The comment state
+    private static final String COMMENT_AWAITER = "comment-awaiter";
+
+    private final ConversationStateStore conversationStateStore;
+    private final Duration stateTtl;
 
     public WebhookHandlerServiceImpl(WhatsAppService whatsAppService,
-                                     SMSService smsService,
+                                     OtpDeliveryRouter otpDeliveryRouter,
                                      OtpService otpService,
                                      OtpMessage otpMessage,
-                                     ApprovalOtpRepository approvalOtpRepository,
+                                     ActiveOtpService activeOtpService,
                                      OtpResendMappingService otpResendMappingService,
                                      ApprovalService approvalService,
                                      MessageIdMappingService messageIdMappingService,
-                                     ApprovalRequestRepository approvalRequestRepository, InfobipService infobipService, WhatsAppConfig whatsAppConfig) {
+                                     ApprovalRequestRepository approvalRequestRepository, GraphApiClient graphApiClient,
+                                     ConversationStateStore conversationStateStore,
+                                     CallbackDeliveryService callbackDeliveryService,
+                                     @Value("${conversation.state.ttl-minutes:30}") long stateTtlMinutes) {
 
         this.whatsAppService = whatsAppService;
-        this.smsService = smsService;
+        this.otpDeliveryRouter = otpDeliveryRouter;
         this.otpService = otpService;
         this.otpMessage = otpMessage;
-        this.approvalOtpRepository = approvalOtpRepository;
+        this.activeOtpService = activeOtpService;
         this.otpResendMappingService = otpResendMappingService;
         this.approvalService = approvalService;
         this.messageIdMappingService = messageIdMappingService;
         this.approvalRequestRepository = approvalRequestRepository;
-        this.infobipService = infobipService;
-        this.whatsAppConfig = whatsAppConfig;
+        this.graphApiClient = graphApiClient;
+        this.conversationStateStore = conversationStateStore;
+        this.callbackDeliveryService = callbackDeliveryService;
+        this.stateTtl = Duration.ofMinutes(stateTtlMinutes);
     }
 
     /**
-     * Processes incoming webhook payloads from WhatsApp.
-     * 1. Checks if the payload is a status update
-     * 2. Extracts and processes messages if present
+     * Processes one event decoded from a WhatsApp webhook.
+     * Status updates are logged, messages are marked as read and routed to the appropriate handler based on their type.
+     * A failure is thrown back to the webhook inbox, which retries the event and marks it FAILED after the last attempt.
      *
-     * @param payload A map containing the webhook payload data from WhatsApp
+     * @param event The event to process
      */
     @Override
-    public void processWebhookPayload(Map<String, Object> payload) {
-        try {
-            logger.debug("Processing webhook payload: {}", payload);
-
-            // 1. Check if this is a status update
-            if (isStatusUpdate(payload)) {
-                handleStatusUpdate(payload);
-                return;
-            }
+    public void processEvent(WebhookEvent event) throws IOException {
+        logger.debug("Processing webhook event: {}", event);
 
-            // 2. Process messages
-            List<Map<String, Object>> messages = extractMessages(payload);
-            if (messages != null && !messages.isEmpty()) {
-                for (Map<String, Object> message : messages) {
-                    processSingleMessage(message, payload);
-                }
-            }
-        } catch (Exception e) {
-            logger.error("Error processing webhook payload", e);
+        if (event instanceof WebhookEvent.StatusUpdate status) {
+            logger.info("Message status update - ID: {}, Status: {}", status.messageId(), status.status());
+            return;
         }
-    }
 
-    /**
-     * Processes a single message from the webhook payload.
-     * Extracts message details, marks as read, and routes to appropriate handler based on message type.
-     *
-     * @param message The individual message to process from the webhook
-     * @param payload The complete webhook payload for context
-     */
-    @Override
-    public void processSingleMessage(Map<String, Object> message, Map<String, Object> payload) {
-        try {
-            String messageId = (String) message.get("id");
-            String phoneNumber = extractPhoneNumber(message);
-            String messageType = (String) message.get("type");
-
-            // Mark message as read
-            markMessageAsRead(extractPhoneNumberId(payload), messageId);
-
-            // Process based on message type
-            if ("button".equals(messageType)) {
-                handleButtonMessage(message, phoneNumber);
-            } else if ("text".equals(messageType)) {
-                handleTextMessage(message, phoneNumber);
-            } else {
-                logger.debug("Unhandled message type: {}", messageType);
-            }
-        } catch (Exception e) {
-            logger.error("Error processing message", e);
+        String phoneNumber = normalizePhoneNumber(event.phoneNumber());
+
+        // Mark message as read
+        markMessageAsRead(event.phoneNumberId(), event.messageId());
+
+        // Process based on message type
+        if (event instanceof WebhookEvent.ButtonClick click) {
+            handleButtonMessage(click, phoneNumber);
+        } else if (event instanceof WebhookEvent.TextMessage text) {
+            handleTextMessage(text, phoneNumber);
+        } else if (event instanceof WebhookEvent.OtherMessage other) {
+            logger.info("Unsupported message type {} from {} marked as read", other.type(), phoneNumber);
         }
     }
 
     /**
      * Marks a WhatsApp message as read using the WhatsApp API.
-     * Sends an asynchronous POST request to update the message status.
+     * Sends an asynchronous POST request to update the message status, through the rate-limited Graph API client.
      *
      * @param phoneNumberId The WhatsApp phone number ID that received the message
      * @param messageId The ID of the message to mark as read
@@ -156,21 +138,7 @@ public class WebhookHandlerServiceImpl implements WebhookHandlerService {
         }
 
         try {
-            Map<String, Object> requestBody = Map.of(
-                    "messaging_product", "whatsapp",
-                    "status", "read",
-                    "message_id", messageId
-            );
-
-            whatsAppConfig.webClient().post()
-                    .uri("/{phoneNumberId}/messages", phoneNumberId)
-                    .bodyValue(requestBody)
-                    .retrieve()
-                    .toBodilessEntity()
-                    .subscribe(
-                            success -> logger.debug("Marked message {} as read", messageId),
-                            error -> logger.error("Failed to mark message {} as read: {}", messageId, error.getMessage())
-                    );
+            graphApiClient.markMessageAsRead(phoneNumberId, messageId);
         } catch (Exception e) {
             logger.error("Error in markMessageAsRead", e);
         }
@@ -182,23 +150,18 @@ public class WebhookHandlerServiceImpl implements WebhookHandlerService {
      */
 
     @Override
-    public void handleButtonMessage(Map<String, Object> message, String phoneNumber) throws IOException {
+    public void handleButtonMessage(WebhookEvent.ButtonClick click, String phoneNumber) throws IOException {
 
         logger.info("Processing button message");
 
-        @SuppressWarnings("unchecked")
-        Map<String, Object> button = (Map<String, Object>) message.get("button");
-        if (button == null) {
-            logger.warn("Button object is null");
+        String buttonPayload = click.payload();
+        if (buttonPayload == null) {
+            logger.warn("Button payload is null");
+            return;
         }
+        logger.info("Button clicked: {}, Payload: {}", click.text(), buttonPayload);
 
-        String buttonPayload = (String) Objects.requireNonNull(button).get("payload");
-        String buttonText = (String) button.get("text");
-        logger.info("Button clicked: {}, Payload: {}", buttonText, buttonPayload);
-
-        @SuppressWarnings("unchecked")
-        Map<String, Object> context = (Map<String, Object>) message.get("context");
-        String originalMessageId = context != null ? (String) context.get("id") : null;
+        String originalMessageId = click.contextId();
         logger.debug("Original Message ID: {}", originalMessageId);
 
         String approvalId = messageIdMappingService.getApprovalId(originalMessageId);
@@ -215,10 +178,11 @@ public class WebhookHandlerServiceImpl implements WebhookHandlerService {
      * Processes the button action based on the payload.
      * Generates an OTP via SMS and sends it to the user.
      * Updates the approval status based on the button action.
-     * Stores the OTP and approval ID mapping in the otpApprovalMap.
+     * Stores the OTP and approval ID mapping in the conversation state store.
      * Modification => from using the smsMessage and the smsService to using the infobipService
      * not utilizing the smsMessage
      * which means deleting the smsMessage variable in the method sendOtpAndUpdateState
+     * Modification => the SMS provider (BulkSMS, Infobip, Twilio) is chosen by the OtpDeliveryRouter
      * */
 
     @Override
@@ -233,25 +197,20 @@ public class WebhookHandlerServiceImpl implements WebhookHandlerService {
         String otp = otpService.generateAndCacheOTP(phoneNumber, request.orElseThrow(
                 () -> new EntityNotFoundException("ApprovalRequest not found")));
 
-        String formatedBulkSmsNumber = phoneNumber.replaceFirst("^\\+212", "0");
-        smsService.sendSmsWithBulk(formatedBulkSmsNumber, otp);  // formated phone number for bulk SMS only accept this format 06/7XXXXXX
-
-//        infobipService.sendOtp(phoneNumber, otp);
-        // String smsMessage = "Your code is: " + otp;
-        // smsService.sendSMS(phoneNumber, smsMessage);
-        logger.info("Generated OTP: {} to : {}", otp, formatedBulkSmsNumber);
+        String provider = otpDeliveryRouter.sendOtp(phoneNumber, otp);
+        logger.info("Generated OTP sent to : {} via {}", phoneNumber, provider);
 
         // The button payload is processed based on its prefix
         // The action is stored in the cache for later processing
         // Decision is set after creating the otp after clicking the button and accepted after validating the otp
         if (buttonPayload.startsWith("APPROVE_")) {
-            approvalActionCache.put(approvalId, buttonPayload);
+            conversationStateStore.put(APPROVAL_ACTION, approvalId, buttonPayload, stateTtl);
             sendOtpAndUpdateState(phoneNumber, approvalId, "");
         } else if (buttonPayload.startsWith("REJECT_")) {
-            approvalActionCache.put(approvalId, buttonPayload);
+            conversationStateStore.put(APPROVAL_ACTION, approvalId, buttonPayload, stateTtl);
             sendOtpAndUpdateState(phoneNumber, approvalId, "awaiting_rejection_comment");
         } else if (buttonPayload.startsWith("ATTENTE_")) {
-            approvalActionCache.put(approvalId, buttonPayload);
+            conversationStateStore.put(APPROVAL_ACTION, approvalId, buttonPayload, stateTtl);
             sendOtpAndUpdateState(phoneNumber, approvalId, "awaiting_attente_comment");
         } else if (buttonPayload.startsWith("RESEND_")) {
             handleResendButton(phoneNumber, approvalId);
@@ -261,7 +220,7 @@ public class WebhookHandlerServiceImpl implements WebhookHandlerService {
     /**
      * Sends an OTP message and updates the state of the approval request for the user
      * Caches the approval ID for the phone number
-     * Stores the comment state in the commentAwaiters map
+     * Stores the comment state in the conversation state store
      * Modification =>
      * Removed the smsMessage parameter
      * add the otp generating method with fetching the approval request
@@ -291,9 +250,9 @@ public class WebhookHandlerServiceImpl implements WebhookHandlerService {
         // Store the approval ID in the map for the phone number
         // The phone number is sanitized to remove the "+" prefix
 		// String phoneNumberKey = phoneNumber.replaceFirst("\\+", "");
-        otpApprovalMap.put(phoneNumber, approvalId);
+        conversationStateStore.put(OTP_APPROVAL, phoneNumber, approvalId, stateTtl);
         if (!commentState.isEmpty()) {
-            commentAwaiters.put(phoneNumber, commentState);
+            conversationStateStore.put(COMMENT_AWAITER, phoneNumber, commentState, stateTtl);
         }
         String formatedBulkSmsNumber = phoneNumber.replaceFirst("^\\+212", "0");
         logger.info("User state updated to {} for phone number: {}", approvalId, formatedBulkSmsNumber);
@@ -305,46 +264,41 @@ public class WebhookHandlerServiceImpl implements WebhookHandlerService {
      * Generate a new OTP and send it to the user.
      * Modification =>
      * Commenting out the smsService and using the infobipService instead
+     * Modification => the SMS provider is chosen by the OtpDeliveryRouter
      * */
 
     @Override
-    public void handleResendButton(String phoneNumber, String approvalId) {
+    public void handleResendButton(String phoneNumber, String approvalId) throws IOException {
 
         logger.info("Handling resend button for phone number: {}", phoneNumber);
-        try {
-            // The existing OTP is retrieved from the database
-            Optional<ApprovalOTP> optionalApprovalOTP = approvalOtpRepository.findTopByRecipientNumberAndStatusOrderByCreatedAtDesc(phoneNumber, otpStatus.PENDING);
-            // If the OTP is found, its status is set to EXPIRED
-            if (optionalApprovalOTP.isPresent()) {
-                ApprovalOTP approvalOTP = optionalApprovalOTP.get();
-                ApprovalRequest approvalRequest = approvalOTP.getApprovalRequest();
-
-                // Set the previous OTP to EXPIRED
-                approvalOTP.setStatus(otpStatus.EXPIRED);
-                approvalOtpRepository.save(approvalOTP);
-                logger.info("OTP successfully set to EXPIRED with phone number: {}", phoneNumber);
-
-                // Maps each phone number to its corresponding approvalId to track the approval process for OTP validation and handle expired OTPs.
-                otpApprovalMap.put(phoneNumber, approvalId);
-                logger.info("Updated otpApprovalMap: phoneNumberKey={}, approvalId={}", phoneNumber, approvalId);
-
-                // Store the button payload in the approval action cache to update the status after validating the new otp
-                approvalActionCache.compute(approvalId, (k, buttonPayload) -> buttonPayload);
-                logger.info("Stored button payload in approvalActionCache for approvalId: {}", approvalId);
-
-                // Generate a new OTP
-                String otp = otpService.generateAndCacheOTP(phoneNumber, approvalRequest);
-//                infobipService.sendOtp(phoneNumber, otp);
-                String formatedBulkSmsNumber = phoneNumber.replaceFirst("^\\+212", "0");
-                smsService.sendSmsWithBulk(formatedBulkSmsNumber, otp); // formated phone number for bulk SMS only accept this format 06/7XXXXXX
-                // smsService.sendSMS(phoneNumber, "Your new code is: " + otp);
-                logger.info("New OTP Code {} sent succesfully to: {}",otp, formatedBulkSmsNumber);
+        // The existing OTP is retrieved from the database
+        Optional<ApprovalOTP> optionalApprovalOTP = activeOtpService.findActive(phoneNumber);
+        // If the OTP is found, its status is set to EXPIRED
+        if (optionalApprovalOTP.isPresent()) {
+            ApprovalOTP approvalOTP = optionalApprovalOTP.get();
+            ApprovalRequest approvalRequest = approvalOTP.getApprovalRequest();
+
+            // Set the previous OTP to EXPIRED
+            approvalOTP.setStatus(otpStatus.EXPIRED);
+            activeOtpService.update(approvalOTP);
+            logger.info("OTP successfully set to EXPIRED with phone number: {}", phoneNumber);
+
+            // Maps each phone number to its corresponding approvalId to track the approval process for OTP validation and handle expired OTPs.
+            conversationStateStore.put(OTP_APPROVAL, phoneNumber, approvalId, stateTtl);
+            logger.info("Updated OTP state: phoneNumberKey={}, approvalId={}", phoneNumber, approvalId);
+
+            // Keep the button payload of the approval action to update the status after validating the new otp
+            conversationStateStore.get(APPROVAL_ACTION, approvalId)
+                    .ifPresent(buttonPayload -> conversationStateStore.put(APPROVAL_ACTION, approvalId, buttonPayload, stateTtl));
+            logger.info("Refreshed button payload of the approval action for approvalId: {}", approvalId);
+
+            // Generate a new OTP, a failure of every SMS provider is retried by the webhook inbox
+            String otp = otpService.generateAndCacheOTP(phoneNumber, approvalRequest);
+            String provider = otpDeliveryRouter.sendOtp(phoneNumber, otp);
+            logger.info("New OTP Code sent succesfully to: {} via {}", phoneNumber, provider);
 
-            } else {
-                logger.warn("ApprovalOTP not found for approvalId: {}", approvalId);
-            }
-        } catch (Exception e) {
-            logger.error("Failed to resend OTP: {}", e.getMessage(), e);
+        } else {
+            logger.warn("ApprovalOTP not found for approvalId: {}", approvalId);
         }
     }
 
@@ -355,34 +309,17 @@ public class WebhookHandlerServiceImpl implements WebhookHandlerService {
      */
 
     @Override
-    public void handleTextMessage(Map<String, Object> message, String phoneNumber) {
+    public void handleTextMessage(WebhookEvent.TextMessage message, String phoneNumber) {
 
         logger.info("Processing text message");
-        Object textObj = message.get("text");
-        if (!(textObj instanceof Map)) {
-            return;
-        }
-        @SuppressWarnings("unchecked")
-        Map<String, Object> text = (Map<String, Object>) textObj;
-        String messageBody = (String) text.get("body");
+        String messageBody = message.body();
         if (messageBody == null || messageBody.trim().isEmpty()) {
             return;
         }
         messageBody = messageBody.trim();
         logger.debug("Received input: {}", messageBody);
 
-        @SuppressWarnings("unchecked")
-        Map<String, Object> context = (Map<String, Object>) message.get("context");
-        if (!(phoneNumber != null && phoneNumber.startsWith("+"))) {
-            phoneNumber = "+" + phoneNumber;
-        }
-        if (phoneNumber.trim().isEmpty() && message.get("from") != null) {
-            phoneNumber = (String) message.get("from");
-            if (!phoneNumber.startsWith("+")) {
-                phoneNumber = "+" + phoneNumber;
-            }
-        }
-        if (phoneNumber.trim().isEmpty()) {
+        if (phoneNumber == null || phoneNumber.trim().isEmpty()) {
             logger.warn("Unable to retrieve sender phone number");
             return;
         }
@@ -391,15 +328,15 @@ public class WebhookHandlerServiceImpl implements WebhookHandlerService {
 
         // Check 1 (Comment check - PRIORITIZE):
         // If the message is a REPLY (has context), process it as a comment.
-        if (context != null) {
+        if (message.contextId() != null) {
             logger.info("Prioritizing: Processing text message as contextual comment based on context.");
-            processContextualComment(phoneNumber, messageBody, context, phoneNumber);
+            processContextualComment(phoneNumber, messageBody, message.contextId(), phoneNumber);
             return; // STOP PROCESSING: It was a comment.
         }
 
         // Check 2 (OTP check - Only if NOT a reply):
         // If the message is NOT a reply, THEN check if the user is in the OTP awaiting state.
-        if (otpApprovalMap.containsKey(phoneNumber)) {
+        if (conversationStateStore.get(OTP_APPROVAL, phoneNumber).isPresent()) {
             logger.info("Not a reply, and user is in OTP state: Processing text message as OTP.");
             // YES, call processOtpMessage here! This is the intended path for OTPs that aren't replies.
             processOtpMessage(phoneNumber, messageBody, phoneNumber);
@@ -424,22 +361,30 @@ public class WebhookHandlerServiceImpl implements WebhookHandlerService {
 
         // Use the validateOTP method from the otpService to validate the OTP
         ResponseEntity<String> response = otpService.validateOTP(phoneNumber, messageBody);
-        String approvalId = String.valueOf(otpApprovalMap.get(phoneNumberKey));
+        String approvalId = conversationStateStore.get(OTP_APPROVAL, phoneNumberKey).orElse(null);
         logger.info("OTP validation response status: {}", response.getStatusCode());
 
+        if (approvalId == null) {
+            logger.warn("No approval awaiting an OTP for phone number: {}", phoneNumber);
+            return;
+        }
+
         if (response.getStatusCode().equals(HttpStatus.OK)) {
-            // Retrieve the button payload from the approval action cache
-            String buttonPayload = approvalActionCache.get(approvalId);
-            if (buttonPayload != null) {
+            // Retrieve the button payload of the approval action
+            String buttonPayload = conversationStateStore.get(APPROVAL_ACTION, approvalId).orElse(null);
+            if (buttonPayload == null) {
+                logger.warn("Button payload not found for approvalId: {}", approvalId);
+            } else if (conversationStateStore.remove(APPROVAL_ACTION, approvalId, buttonPayload)) {
+                // The action is claimed atomically, so the decision is applied once even if another instance validated the same OTP
                 // Update the approval status based on the button payload
                 updateApprovalStatus(approvalId, buttonPayload, phoneNumber);
             } else {
-                logger.warn("Button payload not found for approvalId: {}", approvalId);
+                logger.info("Approval action for approvalId {} already processed", approvalId);
             }
         } else if (response.getStatusCode().equals(HttpStatus.FORBIDDEN)) {
             // OTP is DENIED (too many attempts)
-            // Step 1: Remove the denied OTP from the map (Important!)
-            otpApprovalMap.remove(phoneNumberKey);
+            // Step 1: Remove the denied OTP from the conversation state (Important!)
+            conversationStateStore.remove(OTP_APPROVAL, phoneNumberKey);
 
             // Step 2: Create resend mapping
             Optional<OtpResendMapping> resendMapping = Optional.of(
@@ -496,8 +441,12 @@ public class WebhookHandlerServiceImpl implements WebhookHandlerService {
         if (updatedStatus != null) {
             approvalService.updateStatus(approvalId, updatedStatus);
             logger.info("Updating approval status to {} for approval ID: {}", updatedStatus, approvalId);
-            otpApprovalMap.remove(phoneNumber.replaceFirst("\\+", ""));
-            approvalActionCache.remove(approvalId);
+            // Only queues the callback, the calling system is notified in the background
+            // The comment is not known yet, it is sent in a second callback by processContextualComment
+            callbackDeliveryService.notifyDecision(approvalId, phoneNumber);
+            // Same key as sendOtpAndUpdateState and handleResendButton: the normalized number, with its "+" prefix
+            conversationStateStore.remove(OTP_APPROVAL, phoneNumber);
+            conversationStateStore.remove(APPROVAL_ACTION, approvalId);
             logger.info("Cleared state and cache for phone number: {} and approvalId: {}", phoneNumber, approvalId);
         }
     }
@@ -506,13 +455,13 @@ public class WebhookHandlerServiceImpl implements WebhookHandlerService {
     /**
      * Processes the contextual comment from the user.
      * Updates the approval request with the comment.
-     * Removes the phone number from the commentAwaiters map.
+     * Removes the comment state of the phone number.
+     * When the request is already decided, a second callback carries the decision with the comment.
      */
 
     @Override
-    public void processContextualComment(String phoneNumber, String messageBody, Map<String, Object> context, String phoneNumberKey) {
+    public void processContextualComment(String phoneNumber, String messageBody, String originalMessageId, String phoneNumberKey) {
 
-        String originalMessageId = (String) context.get("id");
         if (originalMessageId != null) {
             String approvalId = messageIdMappingService.getApprovalId(originalMessageId);
 
@@ -524,7 +473,11 @@ public class WebhookHandlerServiceImpl implements WebhookHandlerService {
                     ApprovalRequest approvalRequest = optionalApprovalRequest.get();
                     approvalRequest.setCommentaire(messageBody);
                     approvalRequestRepository.save(approvalRequest);
-                    commentAwaiters.remove(phoneNumberKey);
+                    conversationStateStore.remove(COMMENT_AWAITER, phoneNumberKey);
+                    // A comment made before the decision is carried by the decision callback itself
+                    if (approvalRequest.getDecision() != null && approvalRequest.getDecision() != statut.Pending) {
+                        callbackDeliveryService.notifyDecision(approvalId, phoneNumber);
+                    }
                     logger.info("Comment saved and notification sent for approvalId: {}", approvalId);
 
                 } else {
@@ -541,146 +494,20 @@ public class WebhookHandlerServiceImpl implements WebhookHandlerService {
 
     // --------------------------- Helper methods ---------------------------
     /**
-     * Checks if the webhook payload contains a status update.
-     * Examines the payload structure to identify if it contains message status information.
-     *
-     * @param payload The webhook payload to check
-     * @return true if the payload contains status updates, false otherwise
-     */
-    @SuppressWarnings("unchecked")
-    private boolean isStatusUpdate(Map<String, Object> payload) {
-        try {
-            List<Map<String, Object>> entries = (List<Map<String, Object>>) payload.get("entry");
-            if (entries != null && !entries.isEmpty()) {
-                Map<String, Object> entry = entries.get(0);
-                List<Map<String, Object>> changes = (List<Map<String, Object>>) entry.get("changes");
-                if (changes != null && !changes.isEmpty()) {
-                    Map<String, Object> value = (Map<String, Object>) changes.get(0).get("value");
-                    return value != null && value.containsKey("statuses");
-                }
-            }
-        } catch (Exception e) {
-            logger.error("Error checking if payload is status update", e);
-        }
-        return false;
-    }
-
-    /**
-     * Processes status updates from the webhook payload.
-     * Extracts and logs message status information like delivery and read receipts.
-     *
-     * @param payload The webhook payload containing status updates
-     */
-    private void handleStatusUpdate(Map<String, Object> payload) {
-        try {
-            List<Map<String, Object>> statuses = extractStatuses(payload);
-            if (statuses != null) {
-                statuses.forEach(status -> {
-                    String statusType = (String) status.get("status");
-                    String messageId = (String) status.get("id");
-                    logger.info("Message status update - ID: {}, Status: {}", messageId, statusType);
-                });
-            }
-        } catch (Exception e) {
-            logger.error("Error handling status update", e);
-        }
-    }
-
-    /**
-     * Extracts messages from the webhook payload.
-     * Navigates through the payload structure to find and return the messages array.
-     *
-     * @param payload The webhook payload to process
-     * @return List of message objects, or empty list if none found
-     */
-    @SuppressWarnings("unchecked")
-    private List<Map<String, Object>> extractMessages(Map<String, Object> payload) {
-        try {
-            List<Map<String, Object>> entries = (List<Map<String, Object>>) payload.get("entry");
-            if (entries != null && !entries.isEmpty()) {
-                Map<String, Object> entry = entries.get(0);
-                List<Map<String, Object>> changes = (List<Map<String, Object>>) entry.get("changes");
-                if (changes != null && !changes.isEmpty()) {
-                    Map<String, Object> value = (Map<String, Object>) changes.get(0).get("value");
-                    return (List<Map<String, Object>>) value.get("messages");
-                }
-            }
-        } catch (Exception e) {
-            logger.error("Error extracting messages from payload", e);
-        }
-        return Collections.emptyList();
-    }
-
-    /**
-     * Extracts status updates from the webhook payload.
-     * Similar to extractMessages but specifically for status information.
-     *
-     * @param payload The webhook payload to process
-     * @return List of status update objects, or empty list if none found
-     */
-    @SuppressWarnings("unchecked")
-    private List<Map<String, Object>> extractStatuses(Map<String, Object> payload) {
-        try {
-            List<Map<String, Object>> entries = (List<Map<String, Object>>) payload.get("entry");
-            if (entries != null && !entries.isEmpty()) {
-                Map<String, Object> entry = entries.get(0);
-                List<Map<String, Object>> changes = (List<Map<String, Object>>) entry.get("changes");
-                if (changes != null && !changes.isEmpty()) {
-                    Map<String, Object> value = (Map<String, Object>) changes.get(0).get("value");
-                    return (List<Map<String, Object>>) value.get("statuses");
-                }
-            }
-        } catch (Exception e) {
-            logger.error("Error extracting statuses from payload", e);
-        }
-        return Collections.emptyList();
-    }
-
-    /**
-     * Extracts and formats the sender's phone number from a message.
+     * Formats the sender's phone number of a message.
      * Ensures the phone number is properly formatted with a '+' prefix.
      *
-     * @param message The message object containing sender information
-     * @return Formatted phone number or null if not found/invalid
+     * @param phoneNumber The phone number as sent by WhatsApp
+     * @return Formatted phone number or null if not found
      */
-    private String extractPhoneNumber(Map<String, Object> message) {
-        try {
-            String phoneNumber = (String) message.get("from");
-            if (phoneNumber != null) {
-                phoneNumber = phoneNumber.replaceAll("[^0-9+]", "");
-                if (!phoneNumber.startsWith("+")) {
-                    phoneNumber = "+" + phoneNumber;
-                }
-                return phoneNumber;
-            }
-        } catch (Exception e) {
-            logger.error("Error extracting phone number", e);
+    private String normalizePhoneNumber(String phoneNumber) {
+        if (phoneNumber == null) {
+            return null;
         }
-        return null;
-    }
-
-    /**
-     * Extracts the WhatsApp phone number ID from the webhook payload.
-     * This ID is used for sending responses back to WhatsApp.
-     *
-     * @param payload The webhook payload containing metadata
-     * @return WhatsApp phone number ID or null if not found
-     */
-    @SuppressWarnings("unchecked")
-    private String extractPhoneNumberId(Map<String, Object> payload) {
-        try {
-            List<Map<String, Object>> entries = (List<Map<String, Object>>) payload.get("entry");
-            if (entries != null && !entries.isEmpty()) {
-                Map<String, Object> entry = entries.get(0);
-                List<Map<String, Object>> changes = (List<Map<String, Object>>) entry.get("changes");
-                if (changes != null && !changes.isEmpty()) {
-                    Map<String, Object> value = (Map<String, Object>) changes.get(0).get("value");
-                    return (String) ((Map<String, Object>) value.get("metadata")).get("phone_number_id");
-                }
-            }
-        } catch (Exception e) {
-            logger.error("Error extracting phone number ID", e);
+        phoneNumber = phoneNumber.replaceAll("[^0-9+]", "");
+        if (!phoneNumber.startsWith("+")) {
+            phoneNumber = "+" + phoneNumber;
         }
-        return null;
+        return phoneNumber;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,314 @@
+package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.sid.serviceapprobationwhatsapp.dto.WebhookEvent;
+import org.sid.serviceapprobationwhatsapp.entities.WebhookInboxEvent;
+import org.sid.serviceapprobationwhatsapp.enums.inboxStatus;
+import org.sid.serviceapprobationwhatsapp.repositories.WebhookInboxRepository;
+import org.sid.serviceapprobationwhatsapp.service.WebhookDispatcher;
+import org.sid.serviceapprobationwhatsapp.service.WebhookHandlerService;
+import org.sid.serviceapprobationwhatsapp.service.WebhookInboxService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Durable inbox of the WhatsApp webhook.
+ * Every event decoded from a payload (message or status) is stored as its own row, all in one transaction,
+ * before the webhook is acknowledged. The event key (the WhatsApp message ID) is unique,
+ * so a delivery retried by Meta is stored once and processed once.
+ * Events are processed at least once: a worker claims the row with a conditional update before running the handler,
+ * rows refused by a full lane, failed or left behind by a crash are dispatched again by the poller,
+ * and a time window can be replayed after an incident.
+ * A failed event waits for an exponential backoff with jitter before its next attempt, so a short outage of a
+ * dependency does not exhaust the attempts within a few polls.
+ * The events of one sender are handled in the order they were received: an event is not claimed while an earlier
+ * event of its sender is still waiting, and the poller only dispatches the waiting events of a sender, in order,
+ * once none of its events is queued on the lanes of this instance.
+ */
+
+@Service
+public class WebhookInboxServiceImpl implements WebhookInboxService {
+
+    @Value("${webhook.inbox.batch-size:100}")
+    private int batchSize;
+
+    @Value("${webhook.inbox.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${webhook.inbox.initial-backoff-ms:5000}")
+    private long initialBackoffMs;
+
+    @Value("${webhook.inbox.max-backoff-ms:300000}")
+    private long maxBackoffMs;
+
+    @Value("${webhook.inbox.stale-after-seconds:120}")
+    private long staleAfterSeconds;
+
+    private final WebhookInboxRepository webhookInboxRepository;
+    private final WebhookHandlerService handlerService;
+    private final WebhookDispatcher webhookDispatcher;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+
+    private final AtomicLong pendingEvents = new AtomicLong();
+    // Events of each sender queued or running on the lanes of this instance
+    private final Map<String, Integer> inFlight = new ConcurrentHashMap<>();
+    private final DistributionSummary batchSizeSummary;
+    private final Counter storedCounter;
+    private final Counter duplicateCounter;
+    private final Counter failedCounter;
+
+    private static final Logger logger = LoggerFactory.getLogger(WebhookInboxServiceImpl.class);
+
+    public WebhookInboxServiceImpl(WebhookInboxRepository webhookInboxRepository,
+                                   WebhookHandlerService handlerService,
+                                   WebhookDispatcher webhookDispatcher,
+                                   ObjectMapper objectMapper,
+                                   PlatformTransactionManager transactionManager,
+                                   MeterRegistry meterRegistry) {
+        this.webhookInboxRepository = webhookInboxRepository;
+        this.handlerService = handlerService;
+        this.webhookDispatcher = webhookDispatcher;
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+
+        meterRegistry.gauge("webhook.inbox.pending", pendingEvents);
+        this.batchSizeSummary = DistributionSummary.builder("webhook.batch.size")
+                .description("Number of events (messages and statuses) carried by one webhook payload")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.storedCounter = Counter.builder("webhook.inbox.events").tag("result", "stored").register(meterRegistry);
+        this.duplicateCounter = Counter.builder("webhook.inbox.events").tag("result", "duplicate").register(meterRegistry);
+        this.failedCounter = Counter.builder("webhook.inbox.events").tag("result", "failed").register(meterRegistry);
+    }
+
+    // Method to store the events of a payload in one transaction, returns only the events that were not already in the inbox
+    @Override
+    public List<WebhookInboxEvent> append(List<WebhookEvent> events) {
+        // Meta may repeat an event inside one batch too, keep the first occurrence
+        Map<String, WebhookInboxEvent> batch = new LinkedHashMap<>();
+        events.forEach(event -> batch.putIfAbsent(event.eventKey(), toInboxEvent(event)));
+        batchSizeSummary.record(batch.size());
+        if (batch.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<String> existing = webhookInboxRepository.findExistingEventKeys(batch.keySet());
+        existing.forEach(eventKey -> {
+            batch.remove(eventKey);
+            duplicateCounter.increment();
+            logger.info("Duplicate webhook event {} ignored", eventKey);
+        });
+        if (batch.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        batch.values().forEach(event -> {
+            event.setStatus(inboxStatus.RECEIVED);
+            event.setAttempts(0);
+            event.setReceivedAt(now);
+        });
+        List<WebhookInboxEvent> stored;
+        try {
+            stored = transactionTemplate.execute(status -> webhookInboxRepository.saveAll(batch.values()));
+        } catch (DataIntegrityViolationException e) {
+            // An event of the batch was stored concurrently by another request (or instance), store them one by one
+            stored = appendOneByOne(batch.values());
+        }
+        if (stored == null) {
+            return Collections.emptyList();
+        }
+        storedCounter.increment(stored.size());
+        pendingEvents.addAndGet(stored.size());
+        return stored;
+    }
+
+    // Method to hand the stored events to the lanes of their senders, a refused event is picked up by the poller
+    @Override
+    public void dispatch(List<WebhookInboxEvent> events) {
+        Set<String> refusedSenders = new HashSet<>();
+        for (WebhookInboxEvent event : events) {
+            String senderKey = Objects.requireNonNullElse(event.getSenderKey(), "");
+            // Once an event of a sender is refused, its later events wait for the poller as well, to keep them in order
+            if (refusedSenders.contains(senderKey)) {
+                continue;
+            }
+            Long eventId = event.getId();
+            inFlight.merge(senderKey, 1, Integer::sum);
+            boolean accepted = webhookDispatcher.dispatch(senderKey, () -> {
+                try {
+                    process(eventId);
+                } finally {
+                    release(senderKey);
+                }
+            });
+            if (!accepted) {
+                release(senderKey);
+                refusedSenders.add(senderKey);
+                logger.warn("Webhook event {} left in the inbox, it will be dispatched again", event.getEventKey());
+            }
+        }
+    }
+
+    // Method to process one event, only the worker that claims the row runs the handler
+    @Override
+    public void process(Long eventId) {
+        WebhookInboxEvent waiting = webhookInboxRepository.findById(eventId).orElse(null);
+        if (waiting == null || waiting.getStatus() != inboxStatus.RECEIVED) {
+            logger.debug("Webhook event {} already claimed or processed", eventId);
+            return;
+        }
+        if (waiting.getNextAttemptAt() != null && waiting.getNextAttemptAt().isAfter(LocalDateTime.now())) {
+            logger.debug("Webhook event {} waits for its next attempt at {}", waiting.getEventKey(), waiting.getNextAttemptAt());
+            return;
+        }
+        // An earlier event of the sender is waiting (failed, refused) or running elsewhere, the poller dispatches this one after it
+        if (webhookInboxRepository.existsEarlierUnprocessed(waiting.getSenderKey(), waiting.getReceivedAt(), eventId,
+                List.of(inboxStatus.RECEIVED, inboxStatus.PROCESSING))) {
+            logger.debug("Webhook event {} waits for an earlier event of {}", waiting.getEventKey(), waiting.getSenderKey());
+            return;
+        }
+        Integer claimed = transactionTemplate.execute(status -> webhookInboxRepository
+                .claim(eventId, inboxStatus.RECEIVED, inboxStatus.PROCESSING, LocalDateTime.now()));
+        if (claimed == null || claimed == 0) {
+            logger.debug("Webhook event {} already claimed or processed", eventId);
+            return;
+        }
+        WebhookInboxEvent event = webhookInboxRepository.findById(eventId).orElse(null);
+        if (event == null) {
+            return;
+        }
+        try {
+            handlerService.processEvent(objectMapper.readValue(event.getPayload(), WebhookEvent.class));
+            event.setStatus(inboxStatus.PROCESSED);
+            event.setProcessedAt(LocalDateTime.now());
+            event.setNextAttemptAt(null);
+            event.setLastError(null);
+        } catch (Exception e) {
+            logger.error("Error processing webhook event {} (attempt {})", event.getEventKey(), event.getAttempts(), e);
+            event.setLastError(truncate(e.getMessage()));
+            if (event.getAttempts() >= maxAttempts) {
+                event.setStatus(inboxStatus.FAILED);
+                failedCounter.increment();
+            } else {
+                event.setStatus(inboxStatus.RECEIVED);
+                event.setNextAttemptAt(LocalDateTime.now().plus(backoff(event.getAttempts())));
+            }
+        }
+        webhookInboxRepository.save(event);
+        if (event.getStatus() != inboxStatus.RECEIVED) {
+            pendingEvents.decrementAndGet();
+        }
+    }
+
+    // Poller of the inbox: releases the claims of dead workers and dispatches, in order, the waiting events of the idle senders
+    @Override
+    @Scheduled(fixedDelayString = "${webhook.inbox.poll-interval-ms:1000}")
+    public void drainInbox() {
+        try {
+            LocalDateTime claimedBefore = LocalDateTime.now().minusSeconds(staleAfterSeconds);
+            Integer released = transactionTemplate.execute(status -> webhookInboxRepository
+                    .releaseStaleClaims(inboxStatus.PROCESSING, inboxStatus.RECEIVED, claimedBefore));
+            if (released != null && released > 0) {
+                logger.warn("Released {} webhook event(s) claimed before {}", released, claimedBefore);
+            }
+
+            // A sender with events still on the lanes is skipped: its waiting events are dispatched behind them
+            // on a later poll, never ahead of them nor twice
+            List<WebhookInboxEvent> waiting = webhookInboxRepository.findDueByStatus(
+                            inboxStatus.RECEIVED, LocalDateTime.now(), PageRequest.of(0, batchSize)).stream()
+                    .filter(event -> !inFlight.containsKey(Objects.requireNonNullElse(event.getSenderKey(), "")))
+                    .toList();
+            if (!waiting.isEmpty()) {
+                logger.info("Dispatching {} webhook event(s) waiting in the inbox", waiting.size());
+                dispatch(waiting);
+            }
+            pendingEvents.set(webhookInboxRepository.countByStatus(inboxStatus.RECEIVED));
+        } catch (Exception e) {
+            logger.error("Error while draining the webhook inbox", e);
+        }
+    }
+
+    // Method to process again every event received in [from, to), the poller dispatches them
+    @Override
+    public int replay(LocalDateTime from, LocalDateTime to) {
+        Integer requeued = transactionTemplate.execute(status -> webhookInboxRepository
+                .requeueWindow(from, to, inboxStatus.RECEIVED, inboxStatus.PROCESSING));
+        logger.warn("Replaying {} webhook event(s) received between {} and {}", requeued, from, to);
+        return requeued == null ? 0 : requeued;
+    }
+
+    // --------------------------- Helper methods ---------------------------
+
+    private void release(String senderKey) {
+        inFlight.computeIfPresent(senderKey, (key, count) -> count > 1 ? count - 1 : null);
+    }
+
+    private List<WebhookInboxEvent> appendOneByOne(Collection<WebhookInboxEvent> events) {
+        List<WebhookInboxEvent> stored = new ArrayList<>();
+        for (WebhookInboxEvent event : events) {
+            event.setId(null);
+            try {
+                stored.add(webhookInboxRepository.save(event));
+            } catch (DataIntegrityViolationException e) {
+                duplicateCounter.increment();
+                logger.info("Duplicate webhook event {} ignored", event.getEventKey());
+            }
+        }
+        return stored;
+    }
+
+    private WebhookInboxEvent toInboxEvent(WebhookEvent event) {
+        try {
+            return WebhookInboxEvent.builder()
+                    .eventKey(event.eventKey())
+                    .senderKey(normalize(event.phoneNumber()))
+                    .payload(objectMapper.writeValueAsString(event))
+                    .build();
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Webhook event cannot be serialized", e);
+        }
+    }
+
+    // Same normalisation as the handler, so "212600000000" and "+212600000000" share a lane
+    private String normalize(String phoneNumber) {
+        if (phoneNumber == null) {
+            return "";
+        }
+        return "+" + phoneNumber.replaceAll("[^0-9]", "");
+    }
+
+    // Exponential backoff with equal jitter: half of the delay is fixed, the other half random, so retries are spread
+    private Duration backoff(int attempts) {
+        long delayMs = initialBackoffMs << Math.min(attempts - 1, 20);
+        delayMs = Math.min(maxBackoffMs, delayMs);
+        long half = delayMs / 2;
+        return Duration.ofMillis(half + ThreadLocalRandom.current().nextLong(half + 1));
+    }
+
+    private String truncate(String error) {
+        if (error == null) {
+            return null;
+        }
+        return error.length() > 1000 ? error.substring(0, 1000) : error;
+    }
+}
@@ -0,0 +1,200 @@
+package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
+
+import jakarta.annotation.PostConstruct;
+import org.sid.serviceapprobationwhatsapp.dto.SendResult;
+import org.sid.serviceapprobationwhatsapp.exception.GraphApiThrottledException;
+import org.sid.serviceapprobationwhatsapp.service.GraphApiRateLimiter;
+import org.sid.serviceapprobationwhatsapp.service.GraphResponseDecoder;
+import org.sid.serviceapprobationwhatsapp.service.WhatsAppSender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.net.ConnectException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reactive sender of the WhatsApp template messages, on the shared WebClient (see WhatsAppConfig).
+ * A send waits for a token of the rate limiter without blocking (delayed retry), posts the payload and decodes the
+ * answer into a SendResult; an error answered by the Graph API is a failed result, not an error signal.
+ * A throttled answer (HTTP 429 or code 130429) lowers the limiter rate and the send is retried after its pause,
+ * GraphApiThrottledException is signalled once whatsapp.rate-limit.max-throttle-retries are exhausted.
+ * Only the connection failures are retried here (the message cannot have been sent), a timeout is signalled as is
+ * and the outbound queue decides whether to try again.
+ * The read receipts go through the same client and the bucket of the phone number ID that received the message,
+ * posted to the messages URL of that phone number ID; they are best effort and never retried after a throttle.
+ * The webhook body is not signed, so only the sender and the IDs listed in whatsapp.phone-number-ids get their own
+ * bucket: a receipt for any other ID goes through the sender, which bounds the buckets and the limiter meters.
+ */
+
+@Service
+public class WhatsAppSenderImpl implements WhatsAppSender {
+
+    @Value("${whatsapp.api.url}")
+    private String whatsappApiUrl;
+
+    @Value("${whatsapp.rate-limit.max-throttle-retries:5}")
+    private int maxThrottleRetries;
+
+    @Value("${whatsapp.sender.timeout-ms:15000}")
+    private long timeoutMs;
+
+    @Value("${whatsapp.sender.connect-retries:2}")
+    private int connectRetries;
+
+    @Value("${whatsapp.sender.connect-backoff-ms:200}")
+    private long connectBackoffMs;
+
+    // Other phone number IDs of the business account that may receive messages, comma separated
+    @Value("${whatsapp.phone-number-ids:}")
+    private String[] configuredPhoneNumberIds;
+
+    private static final Pattern PHONE_NUMBER_ID = Pattern.compile("/([^/]+)/messages/?$");
+
+    private final WebClient webClient;
+    private final GraphResponseDecoder responseDecoder;
+    private final GraphApiRateLimiter rateLimiter;
+
+    private URI messagesUri;
+    // Phone number ID of the sender, taken from the messages URL (.../{phone-number-id}/messages)
+    private String senderPhoneNumberId;
+    private Set<String> knownPhoneNumberIds;
+
+    private static final Logger logger = LoggerFactory.getLogger(WhatsAppSenderImpl.class);
+
+    public WhatsAppSenderImpl(WebClient webClient, GraphResponseDecoder responseDecoder, GraphApiRateLimiter rateLimiter) {
+        this.webClient = webClient;
+        this.responseDecoder = responseDecoder;
+        this.rateLimiter = rateLimiter;
+    }
+
+    @PostConstruct
+    public void init() {
+        messagesUri = URI.create(whatsappApiUrl);
+        Matcher matcher = PHONE_NUMBER_ID.matcher(whatsappApiUrl);
+        senderPhoneNumberId = matcher.find() ? matcher.group(1) : "default";
+        logger.info("WhatsApp sender phone number ID: {}", senderPhoneNumberId);
+
+        Set<String> known = new HashSet<>();
+        known.add(senderPhoneNumberId);
+        Arrays.stream(configuredPhoneNumberIds).map(String::trim).filter(id -> !id.isEmpty()).forEach(known::add);
+        knownPhoneNumberIds = Set.copyOf(known);
+    }
+
+    // Method to post a message payload to the WhatsApp API, nothing is sent until the Mono is subscribed
+    @Override
+    public Mono<SendResult> send(String payload) {
+        return Mono.defer(() -> awaitToken(senderPhoneNumberId)
+                        .then(post(messagesUri, payload, true))
+                        .flatMap(result -> {
+                            if (result.isThrottled()) {
+                                rateLimiter.onThrottled(senderPhoneNumberId);
+                                return Mono.error(new ThrottledSignal());
+                            }
+                            rateLimiter.onSuccess(senderPhoneNumberId);
+                            return Mono.just(result);
+                        }))
+                // The limiter is paused after a throttle, the next attempt waits for it in awaitToken
+                .retryWhen(Retry.max(maxThrottleRetries)
+                        .filter(ThrottledSignal.class::isInstance)
+                        .onRetryExhaustedThrow((spec, signal) -> new GraphApiThrottledException(
+                                "WhatsApp API still throttling phone number ID " + senderPhoneNumberId
+                                        + " after " + maxThrottleRetries + " retries",
+                                Duration.ofNanos(rateLimiter.pauseRemaining(senderPhoneNumberId)))));
+    }
+
+    // Method to mark an incoming message as read, nothing is sent until the Mono is subscribed
+    @Override
+    public Mono<SendResult> markAsRead(String receivingPhoneNumberId, String messageId) {
+        String phoneNumberId = knownPhoneNumberId(receivingPhoneNumberId);
+        Map<String, Object> requestBody = Map.of(
+                "messaging_product", "whatsapp",
+                "status", "read",
+                "message_id", messageId
+        );
+        return Mono.defer(() -> awaitToken(phoneNumberId)
+                .then(post(messagesUriOf(phoneNumberId), requestBody, false))
+                .doOnNext(result -> {
+                    if (result.isThrottled()) {
+                        rateLimiter.onThrottled(phoneNumberId);
+                    } else {
+                        rateLimiter.onSuccess(phoneNumberId);
+                    }
+                }));
+    }
+
+    @Override
+    public String getSenderPhoneNumberId() {
+        return senderPhoneNumberId;
+    }
+
+    // --------------------------- Helper methods ---------------------------
+
+    // The phone number ID itself when it is ours, otherwise the sender's: an arbitrary ID from the webhook body creates no bucket
+    private String knownPhoneNumberId(String phoneNumberId) {
+        if (phoneNumberId != null && knownPhoneNumberIds.contains(phoneNumberId)) {
+            return phoneNumberId;
+        }
+        logger.warn("Unknown phone number ID {} in a webhook, read receipt sent through {}", phoneNumberId, senderPhoneNumberId);
+        return senderPhoneNumberId;
+    }
+
+    // Completes when a token is taken, the wait is a timer and never blocks a thread
+    private Mono<Void> awaitToken(String phoneNumberId) {
+        return Mono.defer(() -> {
+            long waitNanos = rateLimiter.tryAcquire(phoneNumberId);
+            return waitNanos == 0 ? Mono.empty() : Mono.delay(Duration.ofNanos(waitNanos)).then(awaitToken(phoneNumberId));
+        });
+    }
+
+    // Absolute messages URL of a phone number ID: the configured URL with its phone number ID replaced
+    private URI messagesUriOf(String phoneNumberId) {
+        if (phoneNumberId.equals(senderPhoneNumberId)) {
+            return messagesUri;
+        }
+        Matcher matcher = PHONE_NUMBER_ID.matcher(whatsappApiUrl);
+        if (!matcher.find()) {
+            throw new IllegalStateException("whatsapp.api.url does not end with /{phone-number-id}/messages: " + whatsappApiUrl);
+        }
+        return URI.create(whatsappApiUrl.substring(0, matcher.start()) + "/" + phoneNumberId + "/messages");
+    }
+
+    // A read receipt answers {"success": true} without message ID, only its errors are decoded
+    private Mono<SendResult> post(URI uri, Object requestBody, boolean expectsMessageId) {
+        return webClient.post()
+                .uri(uri)
+                .bodyValue(requestBody)
+                .exchangeToMono(response -> response.bodyToMono(String.class)
+                        .defaultIfEmpty("")
+                        .map(body -> !expectsMessageId && response.statusCode().is2xxSuccessful()
+                                ? SendResult.sent(response.statusCode().value(), null)
+                                : responseDecoder.decode(response.statusCode().value(), body)))
+                .timeout(Duration.ofMillis(timeoutMs))
+                .retryWhen(Retry.backoff(connectRetries, Duration.ofMillis(connectBackoffMs))
+                        .filter(this::isConnectFailure)
+                        .onRetryExhaustedThrow((spec, signal) -> signal.failure()));
+    }
+
+    private boolean isConnectFailure(Throwable error) {
+        return error instanceof WebClientRequestException && error.getCause() instanceof ConnectException;
+    }
+
+    // Internal signal of a throttled answer, turned into a retry or into GraphApiThrottledException
+    private static final class ThrottledSignal extends RuntimeException {
+        ThrottledSignal() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -1,75 +1,53 @@
 package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import org.json.JSONArray;
-import org.json.JSONObject;
+import org.sid.serviceapprobationwhatsapp.dto.ApproverDeliveryDTO;
 import org.sid.serviceapprobationwhatsapp.entities.ApprovalRequest;
+import org.sid.serviceapprobationwhatsapp.entities.OutboundMessage;
+import org.sid.serviceapprobationwhatsapp.enums.outboundStatus;
 import org.sid.serviceapprobationwhatsapp.enums.statut;
 import org.sid.serviceapprobationwhatsapp.repositories.ApprovalRequestRepository;
-import org.sid.serviceapprobationwhatsapp.service.ApprovalService;
-import org.sid.serviceapprobationwhatsapp.service.MessageIdMappingService;
-import org.sid.serviceapprobationwhatsapp.service.PayloadCreatorService;
-import org.sid.serviceapprobationwhatsapp.service.WhatsAppService;
+import org.sid.serviceapprobationwhatsapp.service.*;
 import org.sid.serviceapprobationwhatsapp.web.WhatsAppWebhookHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.*;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
 
 @Service
 public class WhatsAppServiceImpl implements WhatsAppService {
 
-    @Value("${whatsapp.api.url}")
-    private String whatsappApiUrl;
-
-    @Value("${whatsapp.api.token}")
-    private String whatsappApiToken;
-
-    private final RestTemplate restTemplate;
-    private final PayloadCreatorService payloadCreatorService;
+    private final OutboundQueueService outboundQueueService;
+    private final TemplateRegistry templateRegistry;
     private final ApprovalRequestRepository approvalRequestRepository;
-    private final MessageIdMappingService messageIdMappingService;
     private final ApprovalService approvalService;
 
     private static final Logger logger = LoggerFactory.getLogger(WhatsAppWebhookHandler.class);
 
     public WhatsAppServiceImpl(ApprovalRequestRepository approvalRequestRepository,
-                               MessageIdMappingService messageIdMappingService,
                                ApprovalService approvalService,
-                               PayloadCreatorService payloadCreatorService,
-                               RestTemplate restTemplate  ) {
+                               TemplateRegistry templateRegistry,
+                               OutboundQueueService outboundQueueService) {
 
         this.approvalRequestRepository = approvalRequestRepository;
-        this.messageIdMappingService = messageIdMappingService;
         this.approvalService = approvalService;
-        this.payloadCreatorService = payloadCreatorService;
-        this.restTemplate = restTemplate;
-    }
-
-    private HttpHeaders createHeaders() {
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.add("Authorization", "Bearer " + whatsappApiToken);
-        return headers;
+        this.templateRegistry = templateRegistry;
+        this.outboundQueueService = outboundQueueService;
     }
 
     // Method to send a message template of the approval request to the approvers
-    // Returns a ResponseEntity object containing the response body, headers, and status code
+    // One message per approver is queued in a single write, the outbound workers send them in parallel
+    // and map the returned message IDs to the approval. The request status is updated once.
+    // Returns the queueing result of each approver
     @Override
-    public ResponseEntity<String> sendMessageWithInteractiveButtons(ApprovalRequest approvalRequest){
+    public ResponseEntity<List<ApproverDeliveryDTO>> sendMessageWithInteractiveButtons(ApprovalRequest approvalRequest){
 
         // Extract the approvalId from the ApprovalRequest entity
         String approvalId = approvalRequest.getId();
         if (approvalId == null || approvalId.isEmpty()) {
             logger.error("Missing Approval ID for the request when sending it for approval.");
-            return ResponseEntity.badRequest().body("Missing Approval ID for the request when sending it for approval.");
+            return ResponseEntity.badRequest().body(Collections.emptyList());
         } else {
             logger.info("Approval ID: {}", approvalId);
         }
@@ -79,112 +57,90 @@ public class WhatsAppServiceImpl implements WhatsAppService {
         List<String> approvers = approvalRequest.getApprovers();
         if (approvers == null || approvers.isEmpty()) {
             logger.warn("No approvers found for approval request ID: {}", approvalId);
-            return ResponseEntity.ok("No approvers to notify for request " + approvalId);
+            return ResponseEntity.ok(Collections.emptyList());
         }
 
-        // Build the base request JSON and send for EACH approver
-        for(String approver : approvers) {
-            try {
-                // Add + to the beginning of the phone number if it's missing
-                String formattedApprover = approver.startsWith("+") ? approver : "+" + approver;
-
-                logger.info("Sending message to approver: {}", formattedApprover);
-
-                // Payload creation
-                JSONObject requestBody = payloadCreatorService.createBaseRequestBody(formattedApprover);
-                JSONObject template = payloadCreatorService.createTemplateObject("generic_approval");
-
-                JSONArray components = new JSONArray();
-
-                // Title Component
-                JSONArray titleParameters = new JSONArray();
-                titleParameters.put(payloadCreatorService.createTextParameter(approvalRequest.getOrigin()));
-                JSONObject titleComponent = new JSONObject();
-                titleComponent.put("type", "header");
-                titleComponent.put("parameters", titleParameters);
-                components.put(titleComponent);
-
-                // Body Component
-                JSONArray bodyParameters = new JSONArray();
-                bodyParameters.put(payloadCreatorService.createTextParameter(approvalRequest.getDemandeur()));  // {{1}}
-                bodyParameters.put(payloadCreatorService.createTextParameter(approvalRequest.getObjectType())); // {{2}}
-                bodyParameters.put(payloadCreatorService.createTextParameter(approvalRequest.getObjectId()));   // {{3}}
-                bodyParameters.put(payloadCreatorService.createTextParameter(approvalRequest.getObjectLabel())); // {{4}}
-
+        List<ApproverDeliveryDTO> deliveries = new ArrayList<>(approvers.size());
+        List<OutboundMessage> messages = buildApprovalMessages(approvalRequest, deliveries);
 
-                JSONObject bodyComponent = new JSONObject();
-                bodyComponent.put("type", "body");
-                bodyComponent.put("parameters", bodyParameters);
-                components.put(bodyComponent);
-
-                // "Approuver" button component
-                JSONObject approveButtonComponent = new JSONObject();
-                approveButtonComponent.put("type", "button");
-                approveButtonComponent.put("sub_type", "quick_reply");
-                approveButtonComponent.put("index", "0");
-                JSONArray approveParameters = new JSONArray();
-                JSONObject approvePayload = new JSONObject();
-                approvePayload.put("type", "payload");
-                approvePayload.put("payload", "APPROVE_" + approvalId);
-                approveParameters.put(approvePayload);
-                approveButtonComponent.put("parameters", approveParameters);
-                components.put(approveButtonComponent);
-
-                // "Rejeter" button component
-                JSONObject rejectButtonComponent = new JSONObject();
-                rejectButtonComponent.put("type", "button");
-                rejectButtonComponent.put("sub_type", "quick_reply");
-                rejectButtonComponent.put("index", "1");
-                JSONArray rejectParameters = new JSONArray();
-                JSONObject rejectPayload = new JSONObject();
-                rejectPayload.put("type", "payload");
-                rejectPayload.put("payload", "REJECT_" + approvalId);
-                rejectParameters.put(rejectPayload);
-                rejectButtonComponent.put("parameters", rejectParameters);
-                components.put(rejectButtonComponent);
-
-                // "Attente" button component
-                JSONObject waitingButtonComponent = new JSONObject();
-                waitingButtonComponent.put("type", "button");
-                waitingButtonComponent.put("sub_type", "quick_reply");
-                waitingButtonComponent.put("index", "2");
-                JSONArray waitingParameters = new JSONArray();
-                JSONObject waitingPayload = new JSONObject();
-                waitingPayload.put("type", "payload");
-                waitingPayload.put("payload", "ATTENTE_" + approvalId);
-                waitingParameters.put(waitingPayload);
-                waitingButtonComponent.put("parameters", waitingParameters);
-                components.put(waitingButtonComponent);
+        if (!messages.isEmpty()) {
+            outboundQueueService.enqueueAll(messages).forEach(message -> deliveries.add(toDelivery(message)));
+            approvalService.updateStatus(approvalId, statut.Pending);
+        }
 
-                // Finalize the template and request body
-                template.put("components", components);
-                requestBody.put("template", template);
+        logger.info("Approval {} queued for {}/{} approvers", approvalId, messages.size(), approvers.size());
+        return ResponseEntity.ok(deliveries);
+    }
 
-                // Send the request
-                HttpEntity<String> request = new HttpEntity<>(requestBody.toString(), createHeaders());
-                ResponseEntity<String> response = restTemplate.postForEntity(whatsappApiUrl, request, String.class);
+    // Method to send the message template of several new approval requests to their approvers
+    // The messages of all the requests are queued in a single write, the requests are already Pending
+    // Returns the queueing result of each approver, per approval ID
+    @Override
+    public Map<String, List<ApproverDeliveryDTO>> sendMessagesWithInteractiveButtons(List<ApprovalRequest> approvalRequests) {
+        Map<String, List<ApproverDeliveryDTO>> deliveries = new LinkedHashMap<>();
+        List<OutboundMessage> messages = new ArrayList<>();
+        for (ApprovalRequest approvalRequest : approvalRequests) {
+            List<ApproverDeliveryDTO> approvalDeliveries = new ArrayList<>();
+            deliveries.put(approvalRequest.getId(), approvalDeliveries);
+            if (approvalRequest.getApprovers() != null) {
+                messages.addAll(buildApprovalMessages(approvalRequest, approvalDeliveries));
+            }
+        }
 
-                // Map the context message ID to the approval Id (keep this logic per message)
-                String messageId = extractContextIdFromResponse(response.getBody());
-                logger.info("Extracted Message ID: " + messageId);
-                if (messageId != null) {
-                    System.out.println("Storing mapping: Message ID = " + messageId + ", Approval ID = " + approvalId);
-                    messageIdMappingService.storeMapping(messageId, approvalId);
-                    System.out.println("Map size after storing: " + messageIdMappingService.getMapSize());
-                    // Update status logic - consider if this should be done once after the loop
-                    approvalService.updateStatus(approvalId, statut.Pending); // This will be called for EACH successful send
-                    System.out.println("Approval " + approvalId + " status updated to Pending for message sent to " + formattedApprover);
-                } else {
-                    logger.warn("Could not extract message ID for approver: {}. Mapping not stored.", formattedApprover);
-                }
+        if (!messages.isEmpty()) {
+            outboundQueueService.enqueueAll(messages).forEach(message ->
+                    deliveries.get(message.getApprovalId()).add(toDelivery(message)));
+        }
+        logger.info("{} approvals queued with {} messages", approvalRequests.size(), messages.size());
+        return deliveries;
+    }
 
+    // Method to build the message of each approver, the approvers whose message cannot be built are reported as FAILED
+    private List<OutboundMessage> buildApprovalMessages(ApprovalRequest approvalRequest, List<ApproverDeliveryDTO> deliveries) {
+        List<OutboundMessage> messages = new ArrayList<>(approvalRequest.getApprovers().size());
+        for (String approver : approvalRequest.getApprovers()) {
+            // Add + to the beginning of the phone number if it's missing
+            String formattedApprover = approver.startsWith("+") ? approver : "+" + approver;
+            try {
+                messages.add(OutboundMessage.builder()
+                        .recipientNumber(formattedApprover)
+                        .templateName("generic_approval")
+                        .payload(createApprovalRequestBody(approvalRequest, formattedApprover))
+                        .approvalId(approvalRequest.getId())
+                        .build());
             } catch (Exception e) {
-                logger.error("Failed to process or send message to approver {}: {}", approver, e.getMessage(), e);
+                logger.error("Failed to build the message for approver {}: {}", formattedApprover, e.getMessage(), e);
+                deliveries.add(ApproverDeliveryDTO.builder()
+                        .approverNumber(formattedApprover)
+                        .status(outboundStatus.FAILED)
+                        .error(e.getMessage())
+                        .build());
             }
-        } // --- Loop ends after trying all approvers ---
+        }
+        return messages;
+    }
 
-        logger.info("Finished attempting to send messages to all approvers for approval ID: {}", approvalId);
-        return ResponseEntity.ok("Demande approbation envoyée avec succès (tentative effectuée pour tous les approbateurs).");
+    private ApproverDeliveryDTO toDelivery(OutboundMessage message) {
+        return ApproverDeliveryDTO.builder()
+                .approverNumber(message.getRecipientNumber())
+                .outboundMessageId(message.getId())
+                .status(message.getStatus())
+                .build();
+    }
+
+    // Method to render the generic_approval template for one approver
+    private String createApprovalRequestBody(ApprovalRequest approvalRequest, String formattedApprover) {
+        String approvalId = approvalRequest.getId();
+        return templateRegistry.render("generic_approval", formattedApprover,
+                approvalRequest.getOrigin(),      // header
+                approvalRequest.getDemandeur(),   // {{1}}
+                approvalRequest.getObjectType(),  // {{2}}
+                approvalRequest.getObjectId(),    // {{3}}
+                approvalRequest.getObjectLabel(), // {{4}}
+                // "Approuver", "Rejeter" and "Attente" buttons
+                "APPROVE_" + approvalId,
+                "REJECT_" + approvalId,
+                "ATTENTE_" + approvalId);
     }
 
 
@@ -192,76 +148,16 @@ public class WhatsAppServiceImpl implements WhatsAppService {
     @Override
     public ResponseEntity<String> sendCommentaire(String approvalId, String recipientNumber) {
 
-        // String formattedPhoneNumber = recipientNumber.startsWith("+") ? recipientNumber : ("+" + recipientNumber);
         Optional<ApprovalRequest> approvalRequest = approvalRequestRepository.findById(approvalId);
-        System.out.println("Retrieved recipient phone number info: " + recipientNumber);
-
-
-        JSONObject requestBody = payloadCreatorService.createBaseRequestBody(recipientNumber);
-        JSONObject template = payloadCreatorService.createTemplateObject("traitement");
-        requestBody.put("template", template);
-
-        JSONArray components = new JSONArray();
-
-        JSONArray titleParameters = new JSONArray();
-        titleParameters.put(payloadCreatorService.createTextParameter(approvalRequest.orElseThrow(() -> new RuntimeException("Approval request is empty")).getObjectId())); // {{1}}
-
-        JSONObject titleComponent = new JSONObject();
-        titleComponent.put("type", "header");
-        titleComponent.put("parameters", titleParameters);
-        components.put(titleComponent);
+        logger.info("Retrieved recipient phone number info: {}", recipientNumber);
 
-        // Body Component
-        JSONObject bodyComponent = new JSONObject();
-        bodyComponent.put("type", "body");
-        components.put(bodyComponent);
+        // Header {{1}}: objectId of the approval
+        String requestBody = templateRegistry.render("traitement", recipientNumber,
+                approvalRequest.orElseThrow(() -> new RuntimeException("Approval request is empty")).getObjectId());
 
-        requestBody.put("template", template);
-        template.put("components", components);
-
-        HttpEntity<String> request = new HttpEntity<>(requestBody.toString(), createHeaders());
-        ResponseEntity<String> response = restTemplate.postForEntity(whatsappApiUrl, request, String.class);
-
-        // Mapping the context message ID to the approval ID to link that comment message containing the approval Id to the approval that needs a comment
-        String messageId = extractContextIdFromResponse(response.getBody());
-        System.out.println("Extracted Message ID: " + messageId);
-        if (messageId != null) {
-            System.out.println("Storing mapping: Message ID = " + messageId + ", Approval ID = " + approvalId);
-            messageIdMappingService.storeMapping(messageId, approvalId);
-            System.out.println("Map size after storing: " + messageIdMappingService.getMapSize());
-            System.out.println("Approval " + approvalId + " is waiting for a comment !");
-        }
-        return response;
-    }
-
-    // Extracting the message id from the approval request to match the decision button to the approval itself
-    @Override
-    public String extractContextIdFromResponse(String jsonResponse) {
-        System.out.println("Received JSON response: " + jsonResponse);
-        try {
-            ObjectMapper objectMapper = new ObjectMapper();
-            JsonNode rootNode = objectMapper.readTree(jsonResponse);
-
-            if (rootNode.has("messages") && rootNode.get("messages").isArray() && !rootNode.get("messages").isEmpty()) {
-                JsonNode messagesNode = rootNode.get("messages").get(0);
-                System.out.println("Messages node found: " + messagesNode.toString());
-
-                // Extract the message ID
-                String messageId = messagesNode.path("id").asText();
-                if (!messageId.isEmpty()) {
-                    System.out.println("Extracted message ID: " + messageId);
-                    return messageId;
-                } else {
-                    System.out.println("Message ID is empty in the JSON response.");
-                    return null;
-                }
-            } else {
-                System.out.println("No messages found in the JSON response or messages array is empty.");
-                return null;
-            }
-        } catch (JsonProcessingException e) {
-            System.out.println("Error parsing JSON response: " + e.getMessage());
-            return null;
-        }
+        // The message ID is mapped to the approval ID once sent, to link the comment reply to the approval that needs a comment
+        OutboundMessage message = outboundQueueService.enqueue(recipientNumber, "traitement", requestBody, approvalId);
+        logger.info("Approval {} is waiting for a comment, prompt queued as message {}", approvalId, message.getId());
+        return ResponseEntity.accepted().body("Comment prompt queued with id " + message.getId());
     }
 }
@@ -1,27 +1,34 @@
 package org.sid.serviceapprobationwhatsapp.web;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.validation.Valid;
 import lombok.extern.slf4j.Slf4j;
 import org.sid.serviceapprobationwhatsapp.dto.ApprovalRequestDTO;
+import org.sid.serviceapprobationwhatsapp.dto.ApproverDeliveryDTO;
+import org.sid.serviceapprobationwhatsapp.dto.BatchRegistrationResultDTO;
 import org.sid.serviceapprobationwhatsapp.entities.ApprovalRequest;
-import org.sid.serviceapprobationwhatsapp.enums.statut;
 import org.sid.serviceapprobationwhatsapp.repositories.ApprovalRequestRepository;
 import org.sid.serviceapprobationwhatsapp.service.*;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.web.bind.annotation.*;
-import java.time.LocalDateTime;
-import java.util.Map;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
 
 /**
  * This controller handles the approval requests and manages the interactions with the WhatsApp service.
  * It includes endpoint for registering new approval requests and sending messages to approvers.
- * The controller uses asynchronous processing to handle requests efficiently.
+ * The controller uses asynchronous processing to handle requests efficiently (requestExecutor, see ExecutionConfig).
  */
 
 @Slf4j
@@ -32,18 +39,26 @@ public class ApprovalController {
     private final WhatsAppService whatsAppService;
     private final ApprovalRequestRepository approvalRequestRepository;
     private final ObjectMapper objectMapper;
+    private final ApprovalRegistrationService approvalRegistrationService;
+    private final AsyncTaskExecutor requestExecutor;
+
+    @Value("${approvals.batch.max-items:10000}")
+    private int maxItems;
 
     public ApprovalController(ApprovalRequestRepository approvalRequestRepository,
                               ObjectMapper objectMapper,
-                              WhatsAppService whatsAppService ) {
+                              WhatsAppService whatsAppService,
+                              ApprovalRegistrationService approvalRegistrationService,
+                              @Qualifier("requestExecutor") AsyncTaskExecutor requestExecutor) {
 
         this.approvalRequestRepository = approvalRequestRepository;
         this.objectMapper = objectMapper;
         this.whatsAppService = whatsAppService;
+        this.approvalRegistrationService = approvalRegistrationService;
+        this.requestExecutor = requestExecutor;
     }
 
     // Principal Endpoint that receive the Request from the external system
-    @Async
     @PostMapping("/register")
     public CompletableFuture<ResponseEntity<?>> registerApprovalRequest(@Valid @RequestBody ApprovalRequestDTO approvalRequestDTO) {
 
@@ -51,33 +66,18 @@ public class ApprovalController {
 
         return CompletableFuture.supplyAsync(() -> {
             try {
-                // Serialization des données et des métadonnées en JSON
-                String dataJson = objectMapper.writeValueAsString(approvalRequestDTO.getApprovalData());
-                String metadataJson = objectMapper.writeValueAsString(approvalRequestDTO.getMetadata());
-
-                // Instanciation de object ApprovalRequest
-                ApprovalRequest approvalRequest = ApprovalRequest.builder()
-                        .objectType(approvalRequestDTO.getObjectType())
-                        .objectId(approvalRequestDTO.getObjectId())
-                        .objectLabel(approvalRequestDTO.getObjectLabel())
-                        .data(dataJson)
-                        .origin(approvalRequestDTO.getOrigin())
-                        .approvers(approvalRequestDTO.getApprovers())
-                        .demandeur(approvalRequestDTO.getDemandeur())
-                        .commentaire("")
-                        .callbackUrl(approvalRequestDTO.getCallbackUrl())
-                        .metadata(metadataJson)
-                        .decision(statut.Pending)
-                        .requestTimeStamp(LocalDateTime.now())
-                        .build();
+                ApprovalRequest approvalRequest = approvalRegistrationService.toApprovalRequest(approvalRequestDTO);
 
                 ApprovalRequest savedApprovalRequest = approvalRequestRepository.save(approvalRequest);
                 log.info("Approval request saved with ID: {}", savedApprovalRequest.getId());
 
                 // Send the Approval Request to the approvers
-                whatsAppService.sendMessageWithInteractiveButtons(approvalRequest);
+                List<ApproverDeliveryDTO> deliveries = whatsAppService.sendMessageWithInteractiveButtons(approvalRequest).getBody();
 
-                return ResponseEntity.status(HttpStatus.CREATED).body(Map.of("approvalId", savedApprovalRequest.getId(), "message", "Approval request registered. Verification codes sent."));
+                return ResponseEntity.status(HttpStatus.CREATED).body(Map.of(
+                        "approvalId", savedApprovalRequest.getId(),
+                        "message", "Approval request registered. Verification codes sent.",
+                        "deliveries", deliveries != null ? deliveries : List.of()));
 
             } catch (JsonProcessingException e) {
                 log.error("Error serializing data or metadata to JSON", e);
@@ -89,6 +89,97 @@ public class ApprovalController {
                 log.error("An unexpected error occurred", e);
                 return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("error", "An unexpected error occurred."));
             }
-        });
+        }, requestExecutor);
+    }
+
+    // Bulk endpoint: a JSON array or an NDJSON stream of requests, each item is validated and reported on its own.
+    // The body is parsed from the request stream while the chunks are registered, it is never buffered as a whole
+    @PostMapping(value = "/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<?> registerApprovalRequests(InputStream body) {
+
+        List<BatchRegistrationResultDTO> results;
+        BatchItems items;
+        // A root array is iterated item by item, otherwise the body is read as a sequence of JSON documents (NDJSON)
+        try (MappingIterator<JsonNode> values = objectMapper.readerFor(JsonNode.class).readValues(body)) {
+            items = new BatchItems(values, maxItems);
+            results = approvalRegistrationService.registerAll(items);
+        } catch (IOException e) {
+            log.error("Unreadable bulk registration body: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("error", "Invalid data format: " + e.getMessage()));
+        }
+        if (results.isEmpty()) {
+            String error = items.readError != null ? "Invalid data format: " + items.readError : "No approval request in the batch.";
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("error", error));
+        }
+        long created = results.stream().filter(result -> "CREATED".equals(result.getStatus())).count();
+        log.info("Bulk registration of {} approval requests, {} created", results.size(), created);
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("total", results.size());
+        response.put("created", created);
+        response.put("rejected", results.size() - created);
+        HttpStatus status = created == results.size() ? HttpStatus.CREATED : HttpStatus.MULTI_STATUS;
+        // The items read before the problem are registered and reported, the rest of the body is not read
+        if (items.limitExceeded) {
+            response.put("error", "Batch limited to " + maxItems + " approval requests, the next items were not read.");
+            status = HttpStatus.PAYLOAD_TOO_LARGE;
+        } else if (items.readError != null) {
+            response.put("error", "Invalid data format after item " + (results.size() - 1) + ": " + items.readError);
+            status = HttpStatus.MULTI_STATUS;
+        }
+        response.put("results", results);
+        return ResponseEntity.status(status).body(response);
+    }
+
+    // Items of a bulk body, parsed one ahead of the registration; stops at the item limit or at unreadable input
+    private static final class BatchItems implements Iterator<JsonNode> {
+
+        private final MappingIterator<JsonNode> values;
+        private final int maxItems;
+        private JsonNode next;
+        private int read;
+        private boolean limitExceeded;
+        private String readError;
+
+        private BatchItems(MappingIterator<JsonNode> values, int maxItems) {
+            this.values = values;
+            this.maxItems = maxItems;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (limitExceeded || readError != null) {
+                return false;
+            }
+            try {
+                if (!values.hasNextValue()) {
+                    return false;
+                }
+                if (read == maxItems) {
+                    limitExceeded = true;
+                    return false;
+                }
+                next = values.nextValue();
+                read++;
+                return true;
+            } catch (IOException e) {
+                log.error("Unreadable bulk registration item {}: {}", read, e.getMessage());
+                readError = e.getMessage();
+                return false;
+            }
+        }
+
+        @Override
+        public JsonNode next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            JsonNode item = next;
+            next = null;
+            return item;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,64 @@
+package org.sid.serviceapprobationwhatsapp.web;
+
+import org.sid.serviceapprobationwhatsapp.service.WebhookInboxService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * Operations on the webhook inbox, kept off the public /webhook path called by Meta.
+ * Every call must carry the X-Admin-Token header equal to admin.api-token, the endpoints are disabled while it is not set.
+ */
+
+@RestController
+@RequestMapping("/admin/webhook")
+public class WebhookAdminController {
+
+    private static final String ADMIN_TOKEN_HEADER = "X-Admin-Token";
+
+    private final WebhookInboxService webhookInboxService;
+    private static final Logger logger = LoggerFactory.getLogger(WebhookAdminController.class);
+
+    @Value("${admin.api-token:}")
+    private String adminToken;
+
+    public WebhookAdminController(WebhookInboxService webhookInboxService) {
+        this.webhookInboxService = webhookInboxService;
+    }
+
+    // Method to process again the events received in a time window, after an incident
+    @PostMapping("/replay")
+    public ResponseEntity<Map<String, Object>> replayWebhooks(
+            @RequestHeader(value = ADMIN_TOKEN_HEADER, required = false) String token,
+            @RequestParam("from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam("to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+
+        if (!isAuthorized(token)) {
+            logger.warn("Rejected webhook replay request: missing or invalid admin token");
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        if (!from.isBefore(to)) {
+            return ResponseEntity.badRequest().body(Map.of("error", "'from' must be before 'to'"));
+        }
+        int requeued = webhookInboxService.replay(from, to);
+        logger.info("Webhook replay requeued {} event(s) received between {} and {}", requeued, from, to);
+        return ResponseEntity.ok(Map.of("requeued", requeued, "from", from.toString(), "to", to.toString()));
+    }
+
+    // Constant-time comparison, so the token cannot be guessed from the response time
+    private boolean isAuthorized(String token) {
+        if (adminToken == null || adminToken.isBlank() || token == null) {
+            return false;
+        }
+        return MessageDigest.isEqual(adminToken.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -1,6 +1,8 @@
 package org.sid.serviceapprobationwhatsapp.web;
 
 
+import org.sid.serviceapprobationwhatsapp.dto.WebhookEvent;
+import org.sid.serviceapprobationwhatsapp.entities.WebhookInboxEvent;
 import org.sid.serviceapprobationwhatsapp.service.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,7 +12,6 @@ import org.springframework.web.bind.annotation.*;
 
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
 
 /**
  * This class handles incoming WhatsApp webhook events and processes button clicks and text messages.
@@ -27,11 +28,13 @@ import java.util.concurrent.CompletableFuture;
 @RequestMapping("/webhook")
 public class WhatsAppWebhookHandler {
 
-    private final WebhookHandlerService handlerService;
+    private final WebhookInboxService webhookInboxService;
+    private final WebhookEventParser webhookEventParser;
     private static final Logger logger = LoggerFactory.getLogger(WhatsAppWebhookHandler.class);
 
-    public WhatsAppWebhookHandler(WebhookHandlerService handlerService) {
-        this.handlerService = handlerService;
+    public WhatsAppWebhookHandler(WebhookInboxService webhookInboxService, WebhookEventParser webhookEventParser) {
+        this.webhookInboxService = webhookInboxService;
+        this.webhookEventParser = webhookEventParser;
     }
 
     @Value("${VERIFY_TOKEN}")
@@ -58,11 +61,24 @@ public class WhatsAppWebhookHandler {
     }
 
     @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<Void> handleWebhook(@RequestBody Map<String, Object> payload) {
+    public ResponseEntity<Void> handleWebhook(@RequestBody byte[] body) {
         logger.info("Received webhook payload");
 
-        // Process asynchronously to return 200 OK immediately
-        CompletableFuture.runAsync(() -> handlerService.processWebhookPayload(payload));
+        // Decode the events in one pass over the body
+        List<WebhookEvent> decoded;
+        try {
+            decoded = webhookEventParser.parse(body);
+        } catch (IOException e) {
+            logger.warn("Invalid webhook payload: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+
+        // Store the events before acknowledging, if this fails Meta retries the delivery
+        List<WebhookInboxEvent> events = webhookInboxService.append(decoded);
+
+        // Process asynchronously, in order per sender, to return 200 OK immediately
+        webhookInboxService.dispatch(events);
 
         return ResponseEntity.ok().build();
-    }}
\ No newline at end of file
+    }
+}
\ No newline at end of file
@@ -0,0 +1,90 @@
+package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JdbcConversationStateStoreTest {
+
+    private static final Duration TTL = Duration.ofMinutes(5);
+
+    private EmbeddedDatabase database;
+    private JdbcConversationStateStore store;
+
+    @BeforeEach
+    void setUp() {
+        database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .generateUniqueName(true)
+                .build();
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(database);
+        jdbcTemplate.execute("CREATE TABLE conversation_state (" +
+                "state_key VARCHAR(191) PRIMARY KEY, " +
+                "state_value VARCHAR(512) NOT NULL, " +
+                "expires_at TIMESTAMP(6) NOT NULL)");
+        store = new JdbcConversationStateStore(jdbcTemplate);
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    void putThenGetReturnsTheLastValue() {
+        store.put("otp-approval", "+212600000000", "approval-1", TTL);
+        store.put("otp-approval", "+212600000000", "approval-2", TTL);
+
+        assertEquals(Optional.of("approval-2"), store.get("otp-approval", "+212600000000"));
+        assertEquals(Optional.empty(), store.get("comment-awaiter", "+212600000000"));
+    }
+
+    @Test
+    void putIfAbsentOnlyWinsOnce() {
+        assertTrue(store.putIfAbsent("approval-action", "approval-1", "APPROVE_approval-1", TTL));
+        assertFalse(store.putIfAbsent("approval-action", "approval-1", "REJECT_approval-1", TTL));
+
+        assertEquals(Optional.of("APPROVE_approval-1"), store.get("approval-action", "approval-1"));
+    }
+
+    @Test
+    void compareAndSetRequiresTheExpectedValue() {
+        store.put("approval-action", "approval-1", "APPROVE_approval-1", TTL);
+
+        assertFalse(store.compareAndSet("approval-action", "approval-1", "REJECT_approval-1", "ATTENTE_approval-1", TTL));
+        assertTrue(store.compareAndSet("approval-action", "approval-1", "APPROVE_approval-1", "ATTENTE_approval-1", TTL));
+        assertEquals(Optional.of("ATTENTE_approval-1"), store.get("approval-action", "approval-1"));
+    }
+
+    @Test
+    void conditionalRemoveClaimsTheTransitionOnce() {
+        store.put("approval-action", "approval-1", "APPROVE_approval-1", TTL);
+
+        assertTrue(store.remove("approval-action", "approval-1", "APPROVE_approval-1"));
+        assertFalse(store.remove("approval-action", "approval-1", "APPROVE_approval-1"));
+        assertTrue(store.get("approval-action", "approval-1").isEmpty());
+    }
+
+    @Test
+    void expiredEntriesAreAbsentAndCanBeTakenOver() {
+        store.put("otp-approval", "+212600000000", "approval-1", Duration.ZERO);
+
+        assertTrue(store.get("otp-approval", "+212600000000").isEmpty());
+        assertFalse(store.remove("otp-approval", "+212600000000"));
+        assertTrue(store.putIfAbsent("otp-approval", "+212600000000", "approval-2", TTL));
+        assertEquals(Optional.of("approval-2"), store.get("otp-approval", "+212600000000"));
+
+        store.put("comment-awaiter", "+212600000000", "awaiting_rejection_comment", Duration.ZERO);
+        store.purgeExpired();
+        assertFalse(store.putIfAbsent("otp-approval", "+212600000000", "approval-3", TTL));
+    }
+}
@@ -0,0 +1,236 @@
+package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OtpDeliveryRouterImplTest {
+
+    private final OkHttpClient client = new OkHttpClient();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private StubServer bulkSms;
+    private StubServer infobip;
+    private StubServer twilio;
+    private SimpleMeterRegistry meterRegistry;
+    private SmsBatchDispatcherImpl smsBatchDispatcher;
+    private OtpDeliveryRouterImpl router;
+    // Recipients the Infobip stub rejects in its answer
+    private final Set<String> rejectedByInfobip = ConcurrentHashMap.newKeySet();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        bulkSms = new StubServer("/sms/send");
+        infobip = new StubServer("/sms/2/text/advanced");
+        infobip.responder = this::infobipAnswer;
+        twilio = new StubServer("/2010-04-01/Accounts/AC123/Messages.json");
+        meterRegistry = new SimpleMeterRegistry();
+        smsBatchDispatcher = new SmsBatchDispatcherImpl(meterRegistry, new MockEnvironment(), 50, 100, 2);
+        router = new OtpDeliveryRouterImpl(List.of(
+                new SMSServiceImpl(client, "bulk-token", bulkSms.url() + "/sms/send"),
+                new InfobipServiceImpl(client, objectMapper, "infobip-key", infobip.url()),
+                new TwilioSmsProviderImpl(client, "AC123", "secret", "+15550000000", twilio.url())),
+                smsBatchDispatcher,
+                meterRegistry,
+                "+212=bulksms,infobip,twilio;+2126=infobip,bulksms",
+                "twilio,infobip",
+                1000, 2, 60);
+    }
+
+    @AfterEach
+    void tearDown() {
+        smsBatchDispatcher.shutdown();
+        bulkSms.stop();
+        infobip.stop();
+        twilio.stop();
+    }
+
+    @Test
+    void routesByTheLongestCountryPrefix() {
+        assertEquals(List.of("bulksms", "infobip", "twilio"), router.route("+212700000000"));
+        assertEquals(List.of("infobip", "bulksms"), router.route("+212600000000"));
+        assertEquals(List.of("twilio", "infobip"), router.route("+33600000000"));
+    }
+
+    @Test
+    void sendsWithTheFirstProviderOfTheRoute() throws IOException {
+        assertEquals("bulksms", router.sendOtp("+212700000000", "123456"));
+
+        assertEquals(1, bulkSms.hits.get());
+        assertEquals(0, infobip.hits.get());
+        // BulkSMS only accepts the local number format
+        assertTrue(bulkSms.lastBody.contains("tel=0700000000"), bulkSms.lastBody);
+        assertEquals(1, meterRegistry.get("otp.sms.delivery").tags("provider", "bulksms", "result", "success").timer().count());
+    }
+
+    @Test
+    void failsOverOnErrors() throws IOException {
+        bulkSms.status = 503;
+
+        assertEquals("infobip", router.sendOtp("+212700000000", "123456"));
+
+        assertEquals(1, bulkSms.hits.get());
+        assertEquals(1, infobip.hits.get());
+        assertTrue(infobip.lastBody.contains("\"to\":\"+212700000000\""), infobip.lastBody);
+        assertEquals(1, meterRegistry.get("otp.sms.failover").tag("provider", "bulksms").counter().count());
+    }
+
+    @Test
+    void failsOverWhenTheLatencySloIsBreached() throws IOException {
+        twilio.delayMs = 2000;
+
+        assertEquals("infobip", router.sendOtp("+33600000000", "123456"));
+
+        assertEquals(1, meterRegistry.get("otp.sms.delivery").tags("provider", "twilio", "result", "timeout").timer().count());
+    }
+
+    @Test
+    void openBreakerSkipsTheProviderUntilTheOthersFail() throws IOException {
+        bulkSms.status = 500;
+        router.sendOtp("+212700000000", "111111");
+        router.sendOtp("+212700000000", "222222");
+        assertEquals(2, bulkSms.hits.get());
+        assertEquals(1.0, meterRegistry.get("otp.sms.breaker.open").tag("provider", "bulksms").gauge().value());
+
+        // The open provider is moved to the end of the route and not called while another provider works
+        assertEquals(List.of("infobip", "twilio", "bulksms"), router.route("+212700000000"));
+        assertEquals("infobip", router.sendOtp("+212700000000", "333333"));
+        assertEquals(2, bulkSms.hits.get());
+
+        // When every other provider fails the open one is still tried as a last resort
+        bulkSms.status = 200;
+        infobip.status = 500;
+        twilio.status = 500;
+        assertEquals("bulksms", router.sendOtp("+212700000000", "444444"));
+        assertEquals(0.0, meterRegistry.get("otp.sms.breaker.open").tag("provider", "bulksms").gauge().value());
+    }
+
+    @Test
+    void throwsWhenEveryProviderFails() {
+        twilio.status = 500;
+        infobip.status = 400;
+
+        IOException failure = assertThrows(IOException.class, () -> router.sendOtp("+33600000000", "123456"));
+
+        assertEquals(2, failure.getSuppressed().length);
+    }
+
+    @Test
+    void concurrentOtpsAreSentToInfobipInOneCall() throws Exception {
+        rejectedByInfobip.add("+212600000003");
+        List<String> phoneNumbers = List.of("+212600000001", "+212600000002", "+212600000003", "+212600000004");
+        ExecutorService approvers = Executors.newFixedThreadPool(phoneNumbers.size());
+        try {
+            List<Future<String>> providers = phoneNumbers.stream()
+                    .map(phoneNumber -> approvers.submit(() -> router.sendOtp(phoneNumber, "123456")))
+                    .toList();
+
+            // The rejected recipient alone fails over to the next provider of its route
+            assertEquals(List.of("infobip", "infobip", "bulksms", "infobip"),
+                    providers.stream().map(this::await).toList());
+        } finally {
+            approvers.shutdownNow();
+        }
+        assertEquals(1, infobip.hits.get());
+        assertEquals(1, bulkSms.hits.get());
+        assertTrue(bulkSms.lastBody.contains("tel=0600000003"), bulkSms.lastBody);
+        assertEquals(4.0, meterRegistry.get("otp.sms.batch.size").tag("provider", "infobip").summary().totalAmount());
+    }
+
+    @Test
+    void twilioUsesBasicAuthentication() throws IOException {
+        assertEquals("twilio", router.sendOtp("+33600000000", "123456"));
+
+        assertEquals(okhttp3.Credentials.basic("AC123", "secret"), twilio.lastAuthorization);
+        assertTrue(twilio.lastBody.contains("To=+33600000000"), twilio.lastBody);
+    }
+
+    private String await(Future<String> future) {
+        try {
+            return future.get(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Answer of /sms/2/text/advanced, one status per destination with the messageId of the request
+    private String infobipAnswer(String request) {
+        try {
+            ObjectNode answer = objectMapper.createObjectNode();
+            ArrayNode messages = answer.putArray("messages");
+            objectMapper.readTree(request).path("messages").forEach(message -> message.path("destinations").forEach(destination -> {
+                boolean rejected = rejectedByInfobip.contains(destination.path("to").asText());
+                ObjectNode sent = messages.addObject();
+                sent.put("messageId", destination.path("messageId").asText());
+                sent.putObject("status")
+                        .put("groupName", rejected ? "REJECTED" : "PENDING")
+                        .put("name", rejected ? "REJECTED_DESTINATION" : "PENDING_ACCEPTED");
+            }));
+            return objectMapper.writeValueAsString(answer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Local provider stub answering with a configurable status and delay
+    private static class StubServer {
+
+        private final HttpServer server;
+        private final AtomicInteger hits = new AtomicInteger();
+        private volatile int status = 200;
+        private volatile long delayMs;
+        private volatile String lastBody;
+        private volatile String lastAuthorization;
+        private volatile UnaryOperator<String> responder = request -> "{}";
+
+        StubServer(String path) throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.setExecutor(Executors.newCachedThreadPool());
+            server.createContext(path, exchange -> {
+                hits.incrementAndGet();
+                String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+                lastBody = contentType != null && contentType.startsWith("application/x-www-form-urlencoded")
+                        ? URLDecoder.decode(body, StandardCharsets.UTF_8) : body;
+                lastAuthorization = exchange.getRequestHeaders().getFirst("Authorization");
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] response = responder.apply(body).getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(status, response.length);
+                exchange.getResponseBody().write(response);
+                exchange.close();
+            });
+            server.start();
+        }
+
+        String url() {
+            return "http://127.0.0.1:" + server.getAddress().getPort();
+        }
+
+        void stop() {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.sid.serviceapprobationwhatsapp.entities.OutboundMessage;
+import org.sid.serviceapprobationwhatsapp.enums.statut;
+import org.sid.serviceapprobationwhatsapp.repositories.ApprovalRequestRepository;
+import org.sid.serviceapprobationwhatsapp.repositories.ApprovalRequestRepository.ApproverItemRow;
+import org.sid.serviceapprobationwhatsapp.service.OutboundQueueService;
+import org.sid.serviceapprobationwhatsapp.service.TemplateRegistry;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class RappelServiceImplTest {
+
+    private static final String APPROVER = "+212600000000";
+
+    private ApprovalRequestRepository repository;
+    private OutboundQueueService outboundQueueService;
+    private TemplateRegistry templateRegistry;
+    private RappelServiceImpl rappelService;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(ApprovalRequestRepository.class);
+        outboundQueueService = mock(OutboundQueueService.class);
+        templateRegistry = mock(TemplateRegistry.class);
+        when(templateRegistry.render(eq("notif_rappel"), anyString(), any(String[].class))).thenReturn("{}");
+
+        rappelService = new RappelServiceImpl(templateRegistry, repository, outboundQueueService,
+                mock(PlatformTransactionManager.class), new SimpleMeterRegistry(), new MockEnvironment(), 2);
+        ReflectionTestUtils.setField(rappelService, "maxObjectIdsLength", 900);
+        ReflectionTestUtils.setField(rappelService, "firstAfterMinutes", 120L);
+        ReflectionTestUtils.setField(rappelService, "intervalMinutes", 120L);
+        ReflectionTestUtils.setField(rappelService, "escalationFactor", 2.0);
+        ReflectionTestUtils.setField(rappelService, "maxIntervalMinutes", 1440L);
+        ReflectionTestUtils.setField(rappelService, "maxReminders", 5);
+        ReflectionTestUtils.setField(rappelService, "batchSize", 500);
+        ReflectionTestUtils.setField(rappelService, "maxBatchesPerRun", 20);
+        // No quiet hours
+        ReflectionTestUtils.setField(rappelService, "quietHoursStart", 0);
+        ReflectionTestUtils.setField(rappelService, "quietHoursEnd", 0);
+        ReflectionTestUtils.setField(rappelService, "zone", "");
+    }
+
+    @AfterEach
+    void tearDown() {
+        rappelService.shutdown();
+    }
+
+    @Test
+    void approverWithRequestsAtTwoLevelsGetsOneDigest() {
+        // approval-1 waits for its first reminder, approval-2 for its second one
+        when(repository.findDueForReminder(eq(statut.Pending), eq(0), any(), eq(""), any())).thenReturn(List.of("approval-1"));
+        when(repository.findDueForReminder(eq(statut.Pending), eq(1), any(), eq(""), any())).thenReturn(List.of("approval-2"));
+        when(repository.findApproverItems(any())).thenReturn(List.of(
+                new Item(APPROVER, "approval-1", "OBJ-1"),
+                new Item(APPROVER, "approval-2", "OBJ-2")));
+
+        assertEquals(1, rappelService.sendRappelNotifications());
+
+        verify(templateRegistry).render("notif_rappel", APPROVER, "2", "OBJ-1,OBJ-2");
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<OutboundMessage>> queued = ArgumentCaptor.forClass(List.class);
+        verify(outboundQueueService).enqueueAll(queued.capture());
+        assertEquals(1, queued.getValue().size());
+        assertEquals(APPROVER, queued.getValue().get(0).getRecipientNumber());
+
+        // Each request moves on from its own level
+        verify(repository).markReminded(eq(List.of("approval-1")), eq(0), eq(statut.Pending), any());
+        verify(repository).markReminded(eq(List.of("approval-2")), eq(1), eq(statut.Pending), any());
+    }
+
+    @Test
+    void requestsWithoutApproverAreMovedToTheNextLevel() {
+        when(repository.findDueForReminder(eq(statut.Pending), eq(0), any(), eq(""), any())).thenReturn(List.of("approval-1"));
+
+        assertEquals(0, rappelService.sendRappelNotifications());
+
+        verify(outboundQueueService, never()).enqueueAll(any());
+        verify(repository).markReminded(eq(List.of("approval-1")), eq(0), eq(statut.Pending), any());
+    }
+
+    private record Item(String approver, String approvalId, String objectId) implements ApproverItemRow {
+
+        @Override
+        public String getApprover() {
+            return approver;
+        }
+
+        @Override
+        public String getApprovalId() {
+            return approvalId;
+        }
+
+        @Override
+        public String getObjectId() {
+            return objectId;
+        }
+    }
+}
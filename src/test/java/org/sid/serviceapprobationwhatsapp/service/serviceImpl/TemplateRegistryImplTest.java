@@ -0,0 +1,168 @@
+package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.sid.serviceapprobationwhatsapp.service.PayloadCreatorService;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Every template rendered by the registry must be the JSON the former org.json builders produced
+class TemplateRegistryImplTest {
+
+    // Quotes, backslashes, control characters, line separators and non-ASCII text
+    private static final String TRICKY = "Fournisseur \"Atlas\" \\ C:\\tmp\n\tligne\r\b\f\u0001\u001f é ü 日本 😀 </script> \u2028\u2029";
+    private static final String RECIPIENT = "+212600000000";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final PayloadCreatorService payloadCreatorService = new PayloadCreatorServiceImpl();
+    private final TemplateRegistryImpl templateRegistry = new TemplateRegistryImpl(payloadCreatorService);
+
+    @Test
+    void genericApprovalMatchesTheFormerBuilder() throws IOException {
+        String rendered = templateRegistry.render("generic_approval", RECIPIENT,
+                "ERP " + TRICKY, "Demandeur " + TRICKY, "Bon de commande", "BC-42", "Label " + TRICKY,
+                "APPROVE_id-1", "REJECT_id-1", "ATTENTE_id-1");
+
+        assertSameJson(genericApproval(RECIPIENT, "ERP " + TRICKY, "Demandeur " + TRICKY, "Bon de commande", "BC-42",
+                "Label " + TRICKY, "id-1"), rendered);
+    }
+
+    @Test
+    void traitementMatchesTheFormerBuilder() throws IOException {
+        String rendered = templateRegistry.render("traitement", RECIPIENT, "BC-" + TRICKY);
+
+        JSONObject requestBody = payloadCreatorService.createBaseRequestBody(RECIPIENT);
+        JSONObject template = payloadCreatorService.createTemplateObject("traitement");
+        JSONArray components = new JSONArray();
+        components.put(component("header", payloadCreatorService.createTextParameter("BC-" + TRICKY)));
+        components.put(component("body"));
+        template.put("components", components);
+        requestBody.put("template", template);
+
+        assertSameJson(requestBody, rendered);
+    }
+
+    @Test
+    void notifRappelMatchesTheFormerBuilder() throws IOException {
+        String rendered = templateRegistry.render("notif_rappel", RECIPIENT, "3", "BC-1, " + TRICKY);
+
+        JSONObject requestBody = payloadCreatorService.createBaseRequestBody(RECIPIENT);
+        JSONObject template = payloadCreatorService.createTemplateObject("notif_rappel");
+        JSONArray components = new JSONArray();
+        components.put(component("header"));
+        components.put(component("body", payloadCreatorService.createTextParameter("3"),
+                payloadCreatorService.createTextParameter("BC-1, " + TRICKY)));
+        template.put("components", components);
+        requestBody.put("template", template);
+
+        assertSameJson(requestBody, rendered);
+    }
+
+    @Test
+    void envoieotpMatchesTheFormerBuilder() throws IOException {
+        assertSameJson(withoutParameters("envoieotp", RECIPIENT), templateRegistry.render("envoieotp", RECIPIENT));
+    }
+
+    @Test
+    void retryMatchesTheFormerBuilder() throws IOException {
+        assertSameJson(withoutParameters("retry", RECIPIENT), templateRegistry.render("retry", RECIPIENT));
+    }
+
+    @Test
+    void resenditMatchesTheFormerBuilder() throws IOException {
+        String rendered = templateRegistry.render("resendit", RECIPIENT, "RESEND_" + TRICKY);
+
+        JSONObject requestBody = withoutParameters("resendit", RECIPIENT);
+        requestBody.getJSONObject("template").getJSONArray("components").put(quickReplyButton("0", "RESEND_" + TRICKY));
+
+        assertSameJson(requestBody, rendered);
+    }
+
+    @Test
+    void nullParameterIsLeftOutLikeTheFormerBuilder() throws IOException {
+        String rendered = templateRegistry.render("generic_approval", RECIPIENT,
+                null, "Demandeur", "Bon de commande", "BC-42", null, "APPROVE_id-1", "REJECT_id-1", "ATTENTE_id-1");
+
+        assertSameJson(genericApproval(RECIPIENT, null, "Demandeur", "Bon de commande", "BC-42", null, "id-1"), rendered);
+        assertFalse(rendered.contains("\"text\":\"\""));
+    }
+
+    @Test
+    void nullRecipientIsLeftOutLikeTheFormerBuilder() throws IOException {
+        String rendered = templateRegistry.render("envoieotp", null);
+
+        assertSameJson(withoutParameters("envoieotp", null), rendered);
+        assertFalse(objectMapper.readTree(rendered).has("to"));
+    }
+
+    // --------------------------- Former builders ---------------------------
+
+    private JSONObject genericApproval(String recipientNumber, String origin, String demandeur, String objectType,
+                                       String objectId, String objectLabel, String approvalId) {
+        JSONObject requestBody = payloadCreatorService.createBaseRequestBody(recipientNumber);
+        JSONObject template = payloadCreatorService.createTemplateObject("generic_approval");
+        JSONArray components = new JSONArray();
+        components.put(component("header", payloadCreatorService.createTextParameter(origin)));
+        components.put(component("body",
+                payloadCreatorService.createTextParameter(demandeur),
+                payloadCreatorService.createTextParameter(objectType),
+                payloadCreatorService.createTextParameter(objectId),
+                payloadCreatorService.createTextParameter(objectLabel)));
+        components.put(quickReplyButton("0", "APPROVE_" + approvalId));
+        components.put(quickReplyButton("1", "REJECT_" + approvalId));
+        components.put(quickReplyButton("2", "ATTENTE_" + approvalId));
+        template.put("components", components);
+        requestBody.put("template", template);
+        return requestBody;
+    }
+
+    // Header and body without parameters (envoieotp, retry, resendit)
+    private JSONObject withoutParameters(String templateName, String recipientNumber) {
+        JSONObject requestBody = payloadCreatorService.createBaseRequestBody(recipientNumber);
+        JSONObject template = payloadCreatorService.createTemplateObject(templateName);
+        JSONArray components = new JSONArray();
+        components.put(component("header"));
+        components.put(component("body"));
+        template.put("components", components);
+        requestBody.put("template", template);
+        return requestBody;
+    }
+
+    private JSONObject component(String type, JSONObject... parameters) {
+        JSONObject component = new JSONObject();
+        component.put("type", type);
+        if (parameters.length > 0) {
+            JSONArray textParameters = new JSONArray();
+            for (JSONObject parameter : parameters) {
+                textParameters.put(parameter);
+            }
+            component.put("parameters", textParameters);
+        }
+        return component;
+    }
+
+    private JSONObject quickReplyButton(String index, String payload) {
+        JSONObject buttonComponent = new JSONObject();
+        buttonComponent.put("type", "button");
+        buttonComponent.put("sub_type", "quick_reply");
+        buttonComponent.put("index", index);
+        JSONArray parameters = new JSONArray();
+        JSONObject buttonPayload = new JSONObject();
+        buttonPayload.put("type", "payload");
+        buttonPayload.put("payload", payload);
+        parameters.put(buttonPayload);
+        buttonComponent.put("parameters", parameters);
+        return buttonComponent;
+    }
+
+    // Same JSON document, whatever the key order and the escaping style of each serializer
+    private void assertSameJson(JSONObject expected, String rendered) throws IOException {
+        JsonNode actual = objectMapper.readTree(rendered);
+        assertEquals(objectMapper.readTree(expected.toString()), actual);
+    }
+}
@@ -0,0 +1,110 @@
+package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.sid.serviceapprobationwhatsapp.dto.WebhookEvent;
+import org.sid.serviceapprobationwhatsapp.service.WebhookInboxService;
+import org.sid.serviceapprobationwhatsapp.web.WhatsAppWebhookHandler;
+import org.springframework.http.HttpStatus;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class WebhookEventParserImplTest {
+
+    private final WebhookEventParserImpl parser = new WebhookEventParserImpl(new ObjectMapper());
+
+    @Test
+    void everyEntryAndChangeOfAPayloadIsDecoded() throws IOException {
+        List<WebhookEvent> events = parse("""
+                {"object": "whatsapp_business_account", "entry": [
+                  {"id": "waba-1", "changes": [
+                    {"field": "messages", "value": {"metadata": {"phone_number_id": "phone-1"},
+                      "messages": [{"id": "wamid.1", "from": "212600000001", "type": "text", "text": {"body": "bonjour"}}]}},
+                    {"field": "messages", "value": {"metadata": {"phone_number_id": "phone-1"},
+                      "messages": [{"id": "wamid.2", "from": "212600000002", "type": "button",
+                        "context": {"id": "wamid.template"}, "button": {"text": "Approuver", "payload": "APPROVE_1"}}]}}
+                  ]},
+                  {"id": "waba-2", "changes": [
+                    {"field": "messages", "value": {"metadata": {"phone_number_id": "phone-2"},
+                      "messages": [{"id": "wamid.3", "from": "212600000003", "type": "text", "text": {"body": "merci"}}]}}
+                  ]}
+                ]}
+                """);
+
+        assertEquals(List.of(
+                new WebhookEvent.TextMessage("phone-1", "wamid.1", "212600000001", null, "bonjour"),
+                new WebhookEvent.ButtonClick("phone-1", "wamid.2", "212600000002", "wamid.template", "Approuver", "APPROVE_1"),
+                new WebhookEvent.TextMessage("phone-2", "wamid.3", "212600000003", null, "merci")), events);
+    }
+
+    @Test
+    void metadataAfterTheMessagesStillSetsThePhoneNumberId() throws IOException {
+        List<WebhookEvent> events = parse("""
+                {"entry": [{"changes": [{"value": {
+                  "messages": [{"id": "wamid.1", "from": "212600000001", "type": "text", "text": {"body": "123456"}}],
+                  "contacts": [{"profile": {"name": "Approbateur"}, "wa_id": "212600000001"}],
+                  "metadata": {"display_phone_number": "212500000000", "phone_number_id": "phone-1"}
+                }}]}]}
+                """);
+
+        assertEquals(List.of(new WebhookEvent.TextMessage("phone-1", "wamid.1", "212600000001", null, "123456")), events);
+    }
+
+    @Test
+    void changeWithStatusesAndMessagesYieldsBoth() throws IOException {
+        List<WebhookEvent> events = parse("""
+                {"entry": [{"changes": [{"value": {"metadata": {"phone_number_id": "phone-1"},
+                  "statuses": [{"id": "wamid.sent", "status": "delivered", "recipient_id": "212600000002",
+                    "pricing": {"billable": true}, "conversation": {"id": "conv-1"}}],
+                  "messages": [{"id": "wamid.1", "from": "212600000001", "type": "text", "text": {"body": "ok"}}]
+                }}]}]}
+                """);
+
+        assertEquals(List.of(
+                new WebhookEvent.StatusUpdate("phone-1", "wamid.sent", "212600000002", "delivered"),
+                new WebhookEvent.TextMessage("phone-1", "wamid.1", "212600000001", null, "ok")), events);
+    }
+
+    @Test
+    void otherMessageTypesAreDecodedToBeMarkedAsRead() throws IOException {
+        List<WebhookEvent> events = parse("""
+                {"entry": [{"changes": [{"value": {"metadata": {"phone_number_id": "phone-1"},
+                  "messages": [
+                    {"id": "wamid.image", "from": "212600000001", "type": "image", "image": {"id": "media-1", "mime_type": "image/jpeg"}},
+                    {"id": "wamid.doc", "from": "212600000001", "type": "document", "document": {"id": "media-2"}},
+                    {"from": "212600000001", "type": "text", "text": {"body": "sans identifiant"}}
+                  ]
+                }}]}]}
+                """);
+
+        assertEquals(List.of(
+                new WebhookEvent.OtherMessage("phone-1", "wamid.image", "212600000001", "image"),
+                new WebhookEvent.OtherMessage("phone-1", "wamid.doc", "212600000001", "document")), events);
+    }
+
+    @Test
+    void malformedPayloadIsRejected() {
+        assertThrows(IOException.class, () -> parse("{\"entry\": [{\"changes\": [{\"value\": {\"messages\": ["));
+        assertThrows(IOException.class, () -> parse("[]"));
+        assertThrows(IOException.class, () -> parse("not json"));
+    }
+
+    @Test
+    void malformedPayloadIsAnsweredWithBadRequest() {
+        WebhookInboxService inboxService = mock(WebhookInboxService.class);
+        WhatsAppWebhookHandler webhookHandler = new WhatsAppWebhookHandler(inboxService, parser);
+
+        assertEquals(HttpStatus.BAD_REQUEST, webhookHandler.handleWebhook(
+                "{\"entry\": [{\"changes\": ".getBytes(StandardCharsets.UTF_8)).getStatusCode());
+        verifyNoInteractions(inboxService);
+    }
+
+    private List<WebhookEvent> parse(String body) throws IOException {
+        return parser.parse(body.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,111 @@
+package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.sid.serviceapprobationwhatsapp.dto.WebhookEvent;
+import org.sid.serviceapprobationwhatsapp.entities.ApprovalRequest;
+import org.sid.serviceapprobationwhatsapp.enums.statut;
+import org.sid.serviceapprobationwhatsapp.repositories.ApprovalRequestRepository;
+import org.sid.serviceapprobationwhatsapp.service.*;
+import org.springframework.http.ResponseEntity;
+
+import java.io.IOException;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class WebhookHandlerServiceImplTest {
+
+    private static final String PHONE_NUMBER = "+212600000000";
+    private static final String APPROVAL_ID = "approval-1";
+
+    private InMemoryConversationStateStore store;
+    private OtpService otpService;
+    private ApprovalService approvalService;
+    private CallbackDeliveryService callbackDeliveryService;
+    private MessageIdMappingService messageIdMappingService;
+    private ApprovalRequestRepository approvalRequestRepository;
+    private GraphApiClient graphApiClient;
+    private ApprovalRequest request;
+    private WebhookHandlerServiceImpl handler;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        store = new InMemoryConversationStateStore();
+        otpService = mock(OtpService.class);
+        approvalService = mock(ApprovalService.class);
+        callbackDeliveryService = mock(CallbackDeliveryService.class);
+        messageIdMappingService = mock(MessageIdMappingService.class);
+        approvalRequestRepository = mock(ApprovalRequestRepository.class);
+        graphApiClient = mock(GraphApiClient.class);
+        OtpDeliveryRouter otpDeliveryRouter = mock(OtpDeliveryRouter.class);
+
+        request = ApprovalRequest.builder().id(APPROVAL_ID).decision(statut.Pending).build();
+        when(approvalRequestRepository.findById(APPROVAL_ID)).thenReturn(Optional.of(request));
+        doAnswer(invocation -> {
+            request.setDecision(invocation.getArgument(1));
+            return null;
+        }).when(approvalService).updateStatus(eq(APPROVAL_ID), any());
+        when(messageIdMappingService.getApprovalId("wamid.template")).thenReturn(APPROVAL_ID);
+        when(messageIdMappingService.getApprovalId("wamid.prompt")).thenReturn(APPROVAL_ID);
+        when(otpService.generateAndCacheOTP(eq(PHONE_NUMBER), any())).thenReturn("123456");
+        when(otpService.validateOTP(PHONE_NUMBER, "123456")).thenReturn(ResponseEntity.ok("OTP validated"));
+        when(otpDeliveryRouter.sendOtp(PHONE_NUMBER, "123456")).thenReturn("infobip");
+
+        handler = new WebhookHandlerServiceImpl(mock(WhatsAppService.class), otpDeliveryRouter, otpService,
+                mock(OtpMessage.class), mock(ActiveOtpService.class), mock(OtpResendMappingService.class),
+                approvalService, messageIdMappingService, approvalRequestRepository, graphApiClient,
+                store, callbackDeliveryService, 30);
+    }
+
+    @Test
+    void decisionClearsTheOtpStateOfTheApprover() throws IOException {
+        // WhatsApp sends the number without the "+" prefix
+        handler.processEvent(new WebhookEvent.ButtonClick("phone-id", "wamid.click", "212600000000",
+                "wamid.template", "Approuver", "APPROVE_" + APPROVAL_ID));
+        assertEquals(Optional.of(APPROVAL_ID), store.get("otp-approval", PHONE_NUMBER));
+
+        handler.processEvent(new WebhookEvent.TextMessage("phone-id", "wamid.otp", "212600000000", null, "123456"));
+
+        verify(approvalService).updateStatus(APPROVAL_ID, statut.Approuver);
+        assertTrue(store.get("otp-approval", PHONE_NUMBER).isEmpty());
+        assertTrue(store.get("approval-action", APPROVAL_ID).isEmpty());
+
+        // The next message of the approver is not taken for an OTP of the decided request
+        handler.processEvent(new WebhookEvent.TextMessage("phone-id", "wamid.text", "212600000000", null, "merci"));
+        verify(otpService, never()).validateOTP(PHONE_NUMBER, "merci");
+    }
+
+    @Test
+    void commentIsNotifiedInASecondCallback() throws IOException {
+        handler.processEvent(new WebhookEvent.ButtonClick("phone-id", "wamid.click", "212600000000",
+                "wamid.template", "Rejeter", "REJECT_" + APPROVAL_ID));
+        handler.processEvent(new WebhookEvent.TextMessage("phone-id", "wamid.otp", "212600000000", null, "123456"));
+
+        // The decision is notified at once, before the comment prompt is answered
+        verify(callbackDeliveryService, times(1)).notifyDecision(APPROVAL_ID, PHONE_NUMBER);
+        assertNull(request.getCommentaire());
+
+        // Reply to the comment prompt
+        doAnswer(invocation -> {
+            assertEquals("Budget insuffisant", request.getCommentaire());
+            return null;
+        }).when(callbackDeliveryService).notifyDecision(APPROVAL_ID, PHONE_NUMBER);
+        handler.processEvent(new WebhookEvent.TextMessage("phone-id", "wamid.comment", "212600000000",
+                "wamid.prompt", "Budget insuffisant"));
+
+        verify(callbackDeliveryService, times(2)).notifyDecision(APPROVAL_ID, PHONE_NUMBER);
+        assertEquals(statut.Rejeter, request.getDecision());
+        assertTrue(store.get("comment-awaiter", PHONE_NUMBER).isEmpty());
+    }
+
+    @Test
+    void otherMessageTypeIsOnlyMarkedAsRead() throws IOException {
+        handler.processEvent(new WebhookEvent.OtherMessage("phone-id", "wamid.image", "212600000000", "image"));
+
+        verify(graphApiClient).markMessageAsRead("phone-id", "wamid.image");
+        verifyNoInteractions(otpService, approvalService, callbackDeliveryService);
+    }
+}
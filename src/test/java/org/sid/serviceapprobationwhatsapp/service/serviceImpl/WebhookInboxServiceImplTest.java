@@ -0,0 +1,166 @@
+package org.sid.serviceapprobationwhatsapp.service.serviceImpl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.sid.serviceapprobationwhatsapp.dto.WebhookEvent;
+import org.sid.serviceapprobationwhatsapp.entities.WebhookInboxEvent;
+import org.sid.serviceapprobationwhatsapp.enums.inboxStatus;
+import org.sid.serviceapprobationwhatsapp.repositories.WebhookInboxRepository;
+import org.sid.serviceapprobationwhatsapp.service.WebhookDispatcher;
+import org.sid.serviceapprobationwhatsapp.service.WebhookHandlerService;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class WebhookInboxServiceImplTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private WebhookInboxRepository repository;
+    private WebhookHandlerService handlerService;
+    private WebhookDispatcher dispatcher;
+    private SimpleMeterRegistry meterRegistry;
+    private WebhookInboxServiceImpl inboxService;
+    private WebhookInboxEvent row;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        repository = mock(WebhookInboxRepository.class);
+        handlerService = mock(WebhookHandlerService.class);
+        meterRegistry = new SimpleMeterRegistry();
+        dispatcher = mock(WebhookDispatcher.class);
+        inboxService = new WebhookInboxServiceImpl(repository, handlerService, dispatcher,
+                objectMapper, mock(PlatformTransactionManager.class), meterRegistry);
+        ReflectionTestUtils.setField(inboxService, "maxAttempts", 3);
+        ReflectionTestUtils.setField(inboxService, "batchSize", 100);
+        ReflectionTestUtils.setField(inboxService, "staleAfterSeconds", 120L);
+        ReflectionTestUtils.setField(inboxService, "initialBackoffMs", 5000L);
+        ReflectionTestUtils.setField(inboxService, "maxBackoffMs", 300000L);
+
+        WebhookEvent event = new WebhookEvent.TextMessage("phone-id", "wamid.1", "212600000000", null, "123456");
+        row = WebhookInboxEvent.builder()
+                .id(1L)
+                .eventKey(event.eventKey())
+                .senderKey("+212600000000")
+                .payload(objectMapper.writeValueAsString(event))
+                .status(inboxStatus.RECEIVED)
+                .receivedAt(LocalDateTime.now())
+                .build();
+
+        // The repository keeps the single row of the test, the claim behaves like the conditional update
+        when(repository.findById(1L)).thenAnswer(invocation -> Optional.of(row));
+        when(repository.save(any(WebhookInboxEvent.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(repository.claim(eq(1L), eq(inboxStatus.RECEIVED), eq(inboxStatus.PROCESSING), any())).thenAnswer(invocation -> {
+            if (row.getStatus() != inboxStatus.RECEIVED) {
+                return 0;
+            }
+            row.setStatus(inboxStatus.PROCESSING);
+            row.setAttempts(row.getAttempts() + 1);
+            return 1;
+        });
+    }
+
+    @Test
+    void processedEventIsMarkedProcessed() throws IOException {
+        inboxService.process(1L);
+
+        assertEquals(inboxStatus.PROCESSED, row.getStatus());
+        assertEquals(1, row.getAttempts());
+        assertNotNull(row.getProcessedAt());
+        verify(handlerService).processEvent(any(WebhookEvent.TextMessage.class));
+    }
+
+    @Test
+    void failingHandlerIsRetriedThenMarkedFailed() throws IOException {
+        doThrow(new IOException("Graph API unavailable")).when(handlerService).processEvent(any());
+
+        inboxService.process(1L);
+        assertEquals(inboxStatus.RECEIVED, row.getStatus());
+        assertEquals(1, row.getAttempts());
+        assertEquals("Graph API unavailable", row.getLastError());
+        assertTrue(row.getNextAttemptAt().isAfter(LocalDateTime.now().plusSeconds(2)));
+
+        backoffElapsed();
+        inboxService.process(1L);
+        assertEquals(inboxStatus.RECEIVED, row.getStatus());
+        assertEquals(2, row.getAttempts());
+
+        backoffElapsed();
+        inboxService.process(1L);
+        assertEquals(inboxStatus.FAILED, row.getStatus());
+        assertEquals(3, row.getAttempts());
+        assertNull(row.getProcessedAt());
+        assertEquals(1, meterRegistry.get("webhook.inbox.events").tag("result", "failed").counter().count());
+
+        // A failed event is not claimed again
+        inboxService.process(1L);
+        verify(handlerService, times(3)).processEvent(any());
+    }
+
+    @Test
+    void failedEventIsNotAttemptedBeforeItsBackoffIsOver() throws IOException {
+        doThrow(new IOException("Graph API unavailable")).when(handlerService).processEvent(any());
+
+        inboxService.process(1L);
+        inboxService.process(1L);
+
+        assertEquals(inboxStatus.RECEIVED, row.getStatus());
+        assertEquals(1, row.getAttempts());
+        verify(handlerService, times(1)).processEvent(any());
+    }
+
+    @Test
+    void laterEventWaitsForAnEarlierEventOfTheSender() throws IOException {
+        when(repository.existsEarlierUnprocessed(eq("+212600000000"), any(), eq(1L), any())).thenReturn(true);
+
+        inboxService.process(1L);
+
+        assertEquals(inboxStatus.RECEIVED, row.getStatus());
+        assertEquals(0, row.getAttempts());
+        verify(repository, never()).claim(any(), any(), any(), any());
+        verify(handlerService, never()).processEvent(any());
+    }
+
+    @Test
+    void pollerDoesNotDispatchASenderWhoseEventsAreStillOnTheLanes() {
+        when(repository.findDueByStatus(eq(inboxStatus.RECEIVED), any(), any())).thenReturn(List.of(row));
+        // The lane accepts the event but does not run it yet
+        when(dispatcher.dispatch(eq("+212600000000"), any())).thenReturn(true);
+
+        inboxService.drainInbox();
+        inboxService.drainInbox();
+
+        verify(dispatcher, times(1)).dispatch(eq("+212600000000"), any());
+    }
+
+    @Test
+    void pollerDispatchesTheSenderAgainOnceItsLaneIsIdle() {
+        when(repository.findDueByStatus(eq(inboxStatus.RECEIVED), any(), any())).thenReturn(List.of(row));
+        // The lane runs the event at once
+        when(dispatcher.dispatch(eq("+212600000000"), any())).thenAnswer(invocation -> {
+            invocation.<Runnable>getArgument(1).run();
+            return true;
+        });
+
+        inboxService.drainInbox();
+        assertEquals(inboxStatus.PROCESSED, row.getStatus());
+
+        row.setStatus(inboxStatus.RECEIVED);
+        inboxService.drainInbox();
+        verify(dispatcher, times(2)).dispatch(eq("+212600000000"), any());
+    }
+
+    private void backoffElapsed() {
+        row.setNextAttemptAt(LocalDateTime.now().minusSeconds(1));
+    }
+}